@@ -0,0 +1,122 @@
+package actors;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import akka.actor.ActorRef;
+import commands.BasicCommands;
+import structures.GameState;
+import utils.AssetDictionary;
+import utils.GameMetrics;
+
+/**
+ * A GameSession that hands back the commands it produces rather than sending them to an
+ * ActorRef, for session runners that are not actors (the GamePipeline and the virtual
+ * thread runner). Work is run with capture(), which collects the commands the event
+ * processors send through BasicCommands on the current thread, coalesces them with an
+ * OutboundQueue, prepares them for the session's protocol and stamps their sequence
+ * numbers, exactly as the OutboundChannel does for a GameActor.
+ *
+ * Like GameSession, this must only ever be used by one thread at a time.
+ *
+ */
+public class CapturingSession {
+
+	private final String sessionId;
+	private final String mode; // used to name the event latency metric
+	private final boolean compactAssets;
+	private final GameSession session = new GameSession();
+	private final ClientLagTracker lag = new ClientLagTracker();
+	private final OutboundQueue queue = new OutboundQueue();
+
+	public CapturingSession(String sessionId, String mode, boolean compactAssets) {
+		this.sessionId = sessionId;
+		this.mode = mode;
+		this.compactAssets = compactAssets;
+	}
+
+	public String getSessionId() {
+		return sessionId;
+	}
+
+	public GameState getGameState() {
+		return session.getGameState();
+	}
+
+	/**
+	 * Returns the actorReady message for the front-end
+	 * @param assetDictionary
+	 * @return
+	 */
+	public List<ObjectNode> ready(AssetDictionary assetDictionary) {
+		queue.add(assetDictionary.createReadyMessage(compactAssets));
+		return drain();
+	}
+
+	/**
+	 * Processes an event from the front-end and returns the commands to send
+	 * @param message
+	 * @return
+	 */
+	public List<ObjectNode> processEvent(JsonNode message) {
+		long start = System.nanoTime();
+		List<ObjectNode> commands = capture(() -> {
+			String messageType = message.path("messagetype").asText();
+
+			// heartbeats carry the front-end's progress through the commands we have sent
+			if (messageType.equals("heartbeat") && message.has("lastSeq")) {
+				lag.recordProgress(message.path("lastSeq").asLong(), message.path("receivedSeq").asLong(),
+						message.path("receivedHold").asLong(), message.path("clientTime").asLong(), System.currentTimeMillis());
+				lag.publish(sessionId);
+			}
+
+			if (!session.processEvent(ActorRef.noSender(), messageType, message)) {
+				// Unknown event type received
+				System.err.println("CapturingSession: Recieved unknown event type "+messageType);
+			}
+		});
+		GameMetrics.record("events."+mode+".micros", (System.nanoTime()-start)/1000);
+		return commands;
+	}
+
+	/**
+	 * Runs some work against the session (e.g. a timeline step) and returns the
+	 * commands it sent
+	 * @param work
+	 * @return
+	 */
+	public List<ObjectNode> capture(Runnable work) {
+		List<ObjectNode> commands = new ArrayList<ObjectNode>();
+		BasicCommands.startCapture(commands);
+		try {
+			work.run();
+		} finally {
+			BasicCommands.stopCapture();
+		}
+		for (ObjectNode command : commands) queue.add(command);
+		return drain();
+	}
+
+	private List<ObjectNode> drain() {
+		List<ObjectNode> prepared = new ArrayList<ObjectNode>();
+		for (ObjectNode command : queue.drain()) {
+			for (ObjectNode toSend : OutboundChannel.prepare(command, compactAssets)) {
+				toSend.put("seq", lag.recordSent(System.currentTimeMillis()));
+				prepared.add(toSend);
+			}
+		}
+		GameMetrics.add("outbound.commands", prepared.size());
+		return prepared;
+	}
+
+	/**
+	 * Clears up the session's metrics once it has ended
+	 */
+	public void close() {
+		GameMetrics.removeSession(sessionId);
+	}
+
+}
@@ -0,0 +1,137 @@
+package actors;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.PoisonPill;
+import akka.actor.Props;
+import akka.actor.Terminated;
+
+/**
+ * The websocket end of a game when games are run by a region, either GameSessions or
+ * cluster sharding (see GameShards). It is created by the ActorFlow for the websocket,
+ * attaches the websocket to its game and then forwards the events from the front-end to
+ * the game, wherever it is running.
+ *
+ * Events are held back until the game replies that the websocket is attached. With
+ * GameSessions they are then sent straight to the GameActor, so that they do not all pass
+ * through the one GameSessions actor; with cluster sharding they go through the region,
+ * which knows where the game is running. The game is also watched: if its shard is moved to another node, the game sends its state here
+ * (GameShards.Moving) and it is attached again with it. If the game stops without doing
+ * so, it is attached again without a state, and the front-end is told to start over.
+ *
+ */
+public class ClientConnection extends AbstractActor {
+
+	private static final int MAX_HELD_EVENTS = 64; // events kept while (re)attaching, later ones are dropped
+
+	private final ActorRef out; // the websocket of the front-end
+	private final ActorRef region; // the game shard region on this node
+	private final String gameId;
+	private final boolean compactAssets;
+	private final boolean sharded; // events go through the region rather than straight to the game
+	private long lastSeq; // last command received by the front-end, -1 if new
+	private String secret; // from the resume token, null until a new game has replied
+	private ActorRef game = null; // the GameActor, once it has replied to AttachClient
+	private final List<JsonNode> held = new ArrayList<JsonNode>();
+
+	public static Props props(ActorRef out, ActorRef region, String gameId, boolean compactAssets) {
+		return props(out, region, gameId, compactAssets, true, -1, null);
+	}
+
+	/**
+	 * @param out
+	 * @param region GameShards or GameSessions
+	 * @param gameId
+	 * @param compactAssets
+	 * @param sharded true if region is a GameShards region
+	 * @param lastSeq
+	 * @param secret
+	 * @return
+	 */
+	public static Props props(ActorRef out, ActorRef region, String gameId, boolean compactAssets, boolean sharded, long lastSeq, String secret) {
+		return Props.create(ClientConnection.class, out, region, gameId, compactAssets, sharded, lastSeq, secret);
+	}
+
+	public ClientConnection(ActorRef out, ActorRef region, String gameId, boolean compactAssets, boolean sharded, long lastSeq, String secret) {
+		this.out = out;
+		this.region = region;
+		this.gameId = gameId;
+		this.compactAssets = compactAssets;
+		this.sharded = sharded;
+		this.lastSeq = lastSeq;
+		this.secret = secret;
+	}
+
+	@Override
+	public void preStart() {
+		attach(null);
+	}
+
+	/**
+	 * Asks the region to attach the websocket to the game, holding back events until it has
+	 * @param state the encoded game, if it is moving to another node
+	 */
+	private void attach(byte[] state) {
+		if (game!=null) getContext().unwatch(game);
+		game = null;
+		region.tell(new GameShards.AttachClient(gameId, out, compactAssets, lastSeq, secret, state), self());
+	}
+
+	@Override
+	public Receive createReceive() {
+		return receiveBuilder()
+				.match(GameShards.Attached.class, attached -> {
+					game = getSender();
+					secret = attached.secret;
+					getContext().watch(game);
+					for (JsonNode event : held) send(event);
+					held.clear();
+				})
+				.match(GameShards.Moving.class, moving -> {
+					// stop watching before the game stops, as Terminated could overtake this message
+					getContext().unwatch(getSender());
+					getSender().tell(PoisonPill.getInstance(), self());
+					attach(moving.state);
+				})
+				.match(Terminated.class, terminated -> terminated.getActor().equals(game), terminated -> {
+					lastSeq = Math.max(lastSeq, 0); // so that the new game tells the front-end to start over
+					attach(null);
+				})
+				.match(JsonNode.class, event -> {
+					for (JsonNode heartbeat : heartbeatsIn(event)) lastSeq = heartbeat.path("receivedSeq").asLong(lastSeq);
+					if (game!=null) send(event);
+					else if (held.size() < MAX_HELD_EVENTS) held.add(event);
+				})
+				.build();
+	}
+
+	/**
+	 * Sends an event from the front-end on to the game, once it is attached
+	 * @param event
+	 */
+	private void send(JsonNode event) {
+		if (sharded) region.tell(new GameShards.GameEvent(gameId, event), self());
+		else game.tell(event, self());
+	}
+
+	/**
+	 * The heartbeats in an event from the front-end, which may be a batch (see InboundGuard)
+	 * @param event
+	 * @return
+	 */
+	private static List<JsonNode> heartbeatsIn(JsonNode event) {
+		if (event.path("messagetype").asText().equals("heartbeat")) return Collections.singletonList(event);
+		List<JsonNode> heartbeats = new ArrayList<JsonNode>();
+		for (JsonNode batched : event.path("events")) {
+			if (batched.path("messagetype").asText().equals("heartbeat")) heartbeats.add(batched);
+		}
+		return heartbeats;
+	}
+
+}
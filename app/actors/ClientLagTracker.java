@@ -0,0 +1,123 @@
+package actors;
+
+import utils.GameMetrics;
+
+/**
+ * Keeps track of how far behind the browser is for a single game session. Every command
+ * sent to the front-end is given a sequence number, and the time it was sent is remembered
+ * here. The browser reports back in each heartbeat:
+ *  - lastSeq: the highest sequence number its render loop has finished acting on
+ *  - receivedSeq: the highest sequence number it has received from the websocket
+ *  - receivedHold: how many milliseconds ago (at heartbeat time) receivedSeq arrived
+ *  - clientTime: the browser clock at the time of the heartbeat
+ *
+ * From these we work out:
+ *  - the render lag, i.e. how many commands the render loop has still to act on and how
+ *    long the oldest of those has been waiting
+ *  - the round-trip time, i.e. the time between sending receivedSeq and getting the
+ *    heartbeat, minus the time the browser held on to it (smoothed like TCP's SRTT)
+ *  - the offset between the browser clock and the server clock
+ *
+ * This class is not thread safe, it is owned by the OutboundChannel actor of a session.
+ *
+ */
+public class ClientLagTracker {
+
+	public static final int WINDOW = 512; // number of recent send times remembered
+
+	private final long[] sentAt = new long[WINDOW];
+	private long lastSentSeq = 0;
+	private long lastProcessedSeq = 0;
+
+	private long renderLagCommands = 0;
+	private long renderLagMillis = 0;
+	private long rttMillis = -1; // -1 until the first sample arrives
+	private long clockOffsetMillis = 0;
+
+	/**
+	 * Records that a command is being sent to the browser and returns the
+	 * sequence number that it should be stamped with
+	 * @param nowMillis
+	 * @return
+	 */
+	public long recordSent(long nowMillis) {
+		lastSentSeq++;
+		sentAt[(int)(lastSentSeq % WINDOW)] = nowMillis;
+		return lastSentSeq;
+	}
+
+	/**
+	 * Updates the lag and round-trip estimates using the values reported in a heartbeat
+	 * @param processedSeq
+	 * @param receivedSeq
+	 * @param receivedHoldMillis
+	 * @param clientTimeMillis
+	 * @param nowMillis
+	 */
+	public void recordProgress(long processedSeq, long receivedSeq, long receivedHoldMillis, long clientTimeMillis, long nowMillis) {
+
+		// ignore values that are out of range (e.g. from a previous connection)
+		if (processedSeq > lastSentSeq || receivedSeq > lastSentSeq) return;
+		if (processedSeq > lastProcessedSeq) lastProcessedSeq = processedSeq;
+
+		// render lag, based on the oldest command the browser has not acted on yet
+		renderLagCommands = lastSentSeq - lastProcessedSeq;
+		if (renderLagCommands == 0) {
+			renderLagMillis = 0;
+		} else {
+			long oldestPending = Math.max(lastProcessedSeq+1, lastSentSeq-WINDOW+1);
+			renderLagMillis = Math.max(0, nowMillis - sentAt[(int)(oldestPending % WINDOW)]);
+		}
+
+		// round trip time, only if we still remember when receivedSeq was sent
+		if (receivedSeq > 0 && lastSentSeq - receivedSeq < WINDOW) {
+			long sample = Math.max(0, nowMillis - sentAt[(int)(receivedSeq % WINDOW)] - Math.max(0, receivedHoldMillis));
+			if (rttMillis < 0) rttMillis = sample;
+			else rttMillis = (7*rttMillis + sample)/8;
+
+			if (clientTimeMillis > 0) clockOffsetMillis = clientTimeMillis - (nowMillis - rttMillis/2);
+		}
+	}
+
+	/**
+	 * Publishes the current estimates to GameMetrics, both for the session and as
+	 * histograms over all sessions
+	 * @param sessionId
+	 */
+	public void publish(String sessionId) {
+		GameMetrics.record("client.renderLagMillis", renderLagMillis);
+		GameMetrics.record("client.renderLagCommands", renderLagCommands);
+		GameMetrics.setSessionValue(sessionId, "renderLagMillis", renderLagMillis);
+		GameMetrics.setSessionValue(sessionId, "renderLagCommands", renderLagCommands);
+		if (rttMillis >= 0) {
+			GameMetrics.record("client.rttMillis", rttMillis);
+			GameMetrics.setSessionValue(sessionId, "rttMillis", rttMillis);
+			GameMetrics.setSessionValue(sessionId, "clockOffsetMillis", clockOffsetMillis);
+		}
+	}
+
+	public long getLastSentSeq() {
+		return lastSentSeq;
+	}
+
+	public long getLastProcessedSeq() {
+		return lastProcessedSeq;
+	}
+
+	public long getRenderLagCommands() {
+		return renderLagCommands;
+	}
+
+	public long getRenderLagMillis() {
+		return renderLagMillis;
+	}
+
+	public long getRttMillis() {
+		return rttMillis;
+	}
+
+	public long getClockOffsetMillis() {
+		return clockOffsetMillis;
+	}
+
+}
@@ -0,0 +1,10 @@
+package actors;
+
+/**
+ * Marker for messages that may be sent between nodes of the game cluster. These are
+ * serialized with Jackson (CBOR), see the serialization bindings in conf/cluster.conf.
+ *
+ */
+public interface ClusterMessage {
+
+}
@@ -1,28 +1,36 @@
 package actors;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.typesafe.config.Config;
 
-import akka.actor.AbstractActor;
+import akka.actor.AbstractActorWithTimers;
 import akka.actor.ActorRef;
-import events.CardClicked;
-import events.EndTurnClicked;
-import events.EventProcessor;
-import events.Heartbeat;
-import events.Initalize;
-import events.OtherClicked;
-import events.TileClicked;
-import events.UnitMoving;
-import events.UnitStopped;
+import akka.actor.PoisonPill;
+import akka.actor.Terminated;
+import akka.cluster.sharding.ShardRegion;
+import akka.pattern.Patterns;
+import commands.BasicCommands;
+import commands.Timeline;
 import play.libs.Json;
+import structures.GameSnapshot;
 import structures.GameState;
-import utils.ImageListForPreLoad;
-import play.libs.Json;
+import utils.AssetDictionary;
+import utils.GameMetrics;
+import utils.GameRegistry;
+import utils.GameStateCodec;
+import utils.GameStateStore;
+import utils.OrderedCardLoader;
 
 /**
  * The game actor is an Akka Actor that receives events from the user front-end UI (e.g. when 
@@ -31,64 +39,446 @@ import play.libs.Json;
  * also includes an ActorRef object which can be used to issue commands to the UI to change 
  * what the user sees. The GameActor is created when the user browser creates a websocket
  * connection to back-end services (on load of the game web page).
+ *
+ * Game actors run on the game-dispatcher (see application.conf), away from Play's own
+ * threads. Blocking work, such as reading the asset configuration files, is done on the
+ * blocking-io-dispatcher and its result sent back to the actor as a message.
+ *
+ * A GameActor can also run as an entity of a GameSessions or cluster sharding (GameShards)
+ * region. It is then created without a websocket, and the websocket is attached later by an
+ * AttachClient message. When the attached websocket closes, the game waits for the
+ * front-end to reconnect for game.resume.grace-period, then passivates itself. A front-end
+ * that reconnects in time is brought up to date by the OutboundChannel (see Resume).
+ * The first front-end is sent a resume token, the game id and a secret, and only a
+ * front-end with that secret can take over the game. When run by cluster sharding, a game
+ * whose shard moves to another node sends its state on through the front-end's
+ * ClientConnection (see GameShards.HandOff).
+ *
+ * A game that has only had heartbeats for a while (game.passivation.idle-timeout) has its
+ * GameState encoded and moved out of the heap into the GameStateStore. It is rebuilt when
+ * the next event other than a heartbeat arrives, so the front-end does not notice.
+ *
+ * Games run by a region can also be watched by spectators (see SpectatorHub). They watch
+ * by a spectator id of their own, so that sharing it does not give away the game.
+ *
+ * Each of the player's turns can be given a time limit (game.turn-timer), after which the
+ * turn is ended for them as if they had clicked end turn.
+ *
+ * After each event and timeline step, a GameSnapshot is published to the GameRegistry, so
+ * that tools can look at the game without sending messages to the actor.
  * @author Dr. Richard McCreadie
  *
  */
-public class GameActor extends AbstractActor {
+public class GameActor extends AbstractActorWithTimers {
+
+	private static final Duration HAND_OFF_WAIT = Duration.ofSeconds(5);
+
+	/**
+	 * Timer message asking for the next steps of a running timeline to be played
+	 */
+	private static final class TimelineTick {
+		final long timelineId;
+
+		TimelineTick(long timelineId) {
+			this.timelineId = timelineId;
+		}
+	}
+
+	/**
+	 * Timer message for when a detached front-end has had long enough to reconnect
+	 */
+	private static final class GraceExpired {
+		static final GraceExpired INSTANCE = new GraceExpired();
+	}
+
+	/**
+	 * Timer message for when the player has had their time for a turn
+	 */
+	private static final class TurnExpired {
+		final int turnNumber;
+
+		TurnExpired(int turnNumber) {
+			this.turnNumber = turnNumber;
+		}
+	}
+
+	/**
+	 * Timer message for when the player has only game.turn-timer.warning of their turn left
+	 */
+	private static final class TurnWarning {
+		final int turnNumber;
+
+		TurnWarning(int turnNumber) {
+			this.turnNumber = turnNumber;
+		}
+	}
+
+	/**
+	 * Timer message for when a game handed off to another node has waited long enough for
+	 * its ClientConnection to stop it
+	 */
+	private static final class HandOffExpired {
+		static final HandOffExpired INSTANCE = new HandOffExpired();
+	}
+
+	/**
+	 * Timer message asking the actor to check whether the game has gone idle
+	 */
+	private static final class IdleCheck {
+		static final IdleCheck INSTANCE = new IdleCheck();
+	}
 
-	private ObjectMapper mapper = new ObjectMapper(); // Jackson Java Object Serializer, is used to turn java objects to Strings
 	private ActorRef out; // The ActorRef can be used to send messages to the front-end UI
-	private Map<String,EventProcessor> eventProcessors; // Classes used to process each type of event
-	private GameState gameState; // A class that can be used to hold game state information
+	private ActorRef connection = null; // the ClientConnection that attached out, when run by a region
+	private String gameId = null; // the id the front-end reconnects with, when run by a region
+	private byte[] movedState = null; // the state of a game that has moved to this node, until the assets have loaded
+	private ActorRef channel; // Stamps and forwards commands to out, this is what event processors are given
+	private String sessionId; // Unique id of this game session, used when reporting metrics
+	private GameSession session; // The event processors and game state for this game
+	private Map<Long,Timeline> runningTimelines = new HashMap<Long,Timeline>(); // Timelines waiting on a timer
+	private long timelineCount = 0;
+	private boolean compactAssets;
+	private boolean sharded = false; // true if running as an entity of a region (GameSessions or GameShards)
+	private long lastActivity = System.nanoTime(); // when the last event other than a heartbeat arrived
+	private boolean passivated = false; // true while the game state is in the GameStateStore
+	private ActorRef spectators = null; // the SpectatorHub, once the game has been watched
+	private String spectatorId = null; // the id spectators watch the game by, if it can be watched (see GameSessions)
+	private String resumeSecret = null; // the secret part of the resume token sent to the first front-end
+	private long eventCount = 0; // events and timeline steps that have been published, see GameRegistry
 
 	/**
 	 * Constructor for the GameActor. This is called by the GameController when the websocket
 	 * connection to the front-end is established.
 	 * @param out
 	 */
-	@SuppressWarnings("deprecation")
 	public GameActor(ActorRef out) {
+		this(out, false);
+	}
+
+	/**
+	 * Constructor for the GameActor. If compactAssets is true, the front-end has asked for
+	 * the compact protocol, where units, cards, effects and tiles in commands refer to the
+	 * templates sent in the actorReady message (see AssetDictionary).
+	 * @param out
+	 * @param compactAssets
+	 */
+	public GameActor(ActorRef out, boolean compactAssets) {
+		this.sessionId = UUID.randomUUID().toString();
 
+		// create the event processors and game state
+		session = new GameSession();
+
+		attach(out, compactAssets, null, -1, null, null);
+	}
+
+	/**
+	 * Constructor for the GameActor when it is run as a cluster sharding entity, the
+	 * websocket is attached later (see GameShards.AttachClient)
+	 */
+	public GameActor() {
+		this.sessionId = UUID.randomUUID().toString();
+		this.sharded = true;
+		session = new GameSession();
+	}
+
+	/**
+	 * Starts sending commands to a front-end, replacing any front-end attached before. The
+	 * first front-end is sent the actorReady message. One that has reconnected (lastSeq is
+	 * the last command it received) is instead brought up to date by the outbound channel,
+	 * if it has the secret from the resume token. Without it, it is told to start again.
+	 * @param out
+	 * @param compactAssets
+	 * @param gameId the id the front-end can use to reconnect, null if it cannot
+	 * @param lastSeq -1 for a new front-end
+	 * @param secret the secret from the resume token, null for a new front-end
+	 * @param state the encoded state of a game that has moved here from another node, or null
+	 */
+	private void attach(ActorRef out, boolean compactAssets, String gameId, long lastSeq, String secret, byte[] state) {
+		if (channel!=null && (secret==null || !secret.equals(resumeSecret))) {
+			GameMetrics.increment("resume.refused");
+			out.tell(restartMessage(), self());
+			return;
+		}
+		if (sharded) connection = getSender();
+
+		getTimers().cancel("grace");
+		if (this.out!=null) getContext().unwatch(this.out);
 		this.out = out; // save this, so we can send commands to the front-end later
+		getContext().watch(out);
+
+		if (channel!=null) {
+			if (passivated) {
+				rehydrate();
+				startTurnTimer();
+			}
+			lastActivity = System.nanoTime();
+			List<ObjectNode> snapshot = new ArrayList<ObjectNode>();
+			BasicCommands.startCapture(snapshot);
+			try {
+				session.getGameState().redraw(channel);
+			} finally {
+				BasicCommands.stopCapture();
+			}
+			channel.tell(new OutboundChannel.Resume(out, lastSeq, snapshot), self());
+			replyAttached();
+			return;
+		}
+
+		this.compactAssets = compactAssets; // fixed for the game, as replayed commands are already prepared
+		this.channel = getContext().actorOf(OutboundChannel.props(out, sessionId, compactAssets), "channel");
+
+		this.gameId = gameId;
+		if (state!=null) {
+			// the game has moved here from another node, it is redrawn once the assets have loaded
+			movedState = state;
+			resumeSecret = secret;
+		} else if (lastSeq>=0) {
+			// the front-end was in a game that has since ended, so it must start again
+			channel.tell(restartMessage(), out);
+		}
+		if (gameId!=null && state==null) {
+			resumeSecret = UUID.randomUUID().toString().replace("-", "");
+			ObjectNode token = Json.newObject();
+			token.put("messagetype", "session");
+			token.put("resumeToken", gameId+"."+resumeSecret);
+			if (spectatorId!=null) token.put("spectateToken", spectatorId);
+			channel.tell(token, out);
+		}
+		if (state==null) replyAttached();
+
+		// Get the list of image files to pre-load the UI with, in asset id order. The first time
+		// this reads all of the configuration files, as does loading the decks dealt on initalize,
+		// so both are done on the blocking IO dispatcher.
+		Executor blockingIo = getContext().getSystem().dispatchers().lookup("blocking-io-dispatcher");
+		CompletableFuture<AssetDictionary> assets = CompletableFuture.supplyAsync(() -> {
+			OrderedCardLoader.load();
+			return AssetDictionary.get();
+		}, blockingIo);
+		Patterns.pipe(assets, getContext().getDispatcher()).to(getSelf());
+	}
+
+	/**
+	 * Tells the ClientConnection that attached the front-end that it is attached, so it can
+	 * send on the front-end's events
+	 */
+	private void replyAttached() {
+		if (connection!=null) connection.tell(new GameShards.Attached(resumeSecret), self());
+	}
+
+	/**
+	 * Carries on a game that has moved here from another node, once the assets have loaded.
+	 * The front-end is told to clear its view, and the game is drawn again.
+	 */
+	private void restoreMoved() {
+		session.setGameState(GameStateCodec.decode(movedState));
+		movedState = null;
+		ObjectNode resync = Json.newObject();
+		resync.put("messagetype", "resync");
+		channel.tell(resync, out);
+		session.getGameState().redraw(channel);
+		startTurnTimer();
+		channel.tell(OutboundChannel.Flush.INSTANCE, self());
+		lastActivity = System.nanoTime();
+		publishSnapshot();
+		replyAttached();
+		GameMetrics.increment("shards.gamesMovedIn");
+	}
+
+	/**
+	 * Called when the shard of this game is moved to another node. The game state is sent
+	 * to the ClientConnection, which attaches it to the game on its new node. It stops this
+	 * actor once it has stopped watching it, so that it does not take the game to be lost.
+	 */
+	private void handOff() {
+		if (connection==null || channel==null) {
+			getContext().stop(self());
+			return;
+		}
+		byte[] state = movedState;
+		if (state==null) state = passivated ? getStore().take(sessionId) : GameStateCodec.encode(session.getGameState());
+		passivated = false;
+		connection.tell(new GameShards.Moving(state), self());
+		getTimers().startSingleTimer("hand-off", HandOffExpired.INSTANCE, HAND_OFF_WAIT); // in case the connection has gone
+		GameMetrics.increment("shards.gamesMovedOut");
+	}
 
-		// create class instances to respond to the various events that we might recieve
-		eventProcessors = new HashMap<String,EventProcessor>();
-		eventProcessors.put("initalize", new Initalize());
-		eventProcessors.put("heartbeat", new Heartbeat());
-		eventProcessors.put("unitMoving", new UnitMoving());
-		eventProcessors.put("unitstopped", new UnitStopped());
-		eventProcessors.put("tileclicked", new TileClicked());
-		eventProcessors.put("cardclicked", new CardClicked());
-		eventProcessors.put("endturnclicked", new EndTurnClicked());
-		eventProcessors.put("otherclicked", new OtherClicked());
-		
-		// Initalize a new game state object
-		gameState = new GameState();
-		
-		// Get the list of image files to pre-load the UI with
-		Set<String> images = ImageListForPreLoad.getImageListForPreLoad();
-		
+	/**
+	 * Tells a front-end that its game has gone, so it must start a new one
+	 * @return
+	 */
+	private static ObjectNode restartMessage() {
+		ObjectNode restart = Json.newObject();
+		restart.put("messagetype", "resync");
+		restart.put("restart", true);
+		return restart;
+	}
+
+	@Override
+	public void preStart() {
+		Duration checkInterval = getContext().getSystem().settings().config().getDuration("game.passivation.check-interval");
+		getTimers().startTimerWithFixedDelay("idle-check", IdleCheck.INSTANCE, checkInterval);
+	}
+
+	@Override
+	public void postStop() {
+		if (passivated) getStore().remove(sessionId);
+		GameRegistry.remove(sessionId);
+	}
+
+	/**
+	 * Publishes a snapshot of the game to the GameRegistry, for tools to read
+	 */
+	private void publishSnapshot() {
+		GameRegistry.publish(GameSnapshot.of(sessionId, ++eventCount, session.getGameState()));
+	}
+
+	/**
+	 * Moves the game state into the GameStateStore if the game has been idle for long
+	 * enough. Games with animations still playing are left alone.
+	 */
+	private void checkIdle() {
+		Duration idleTimeout = getContext().getSystem().settings().config().getDuration("game.passivation.idle-timeout");
+		if (passivated || !runningTimelines.isEmpty() || !session.getGameState().pendingTimelines.isEmpty()) return;
+		if (System.nanoTime()-lastActivity < idleTimeout.toNanos()) return;
+
+		getStore().put(sessionId, GameStateCodec.encode(session.getGameState()));
+		session.setGameState(null);
+		passivated = true;
+		getTimers().cancel("turn"); // restarted when the player comes back
+		getTimers().cancel("turn-warning");
+		GameMetrics.increment("passivation.passivated");
+	}
+
+	/**
+	 * Brings the game state back from the GameStateStore
+	 */
+	private void rehydrate() {
+		byte[] state = getStore().take(sessionId);
+		session.setGameState(state==null ? new GameState() : GameStateCodec.decode(state));
+		passivated = false;
+		GameMetrics.increment("passivation.rehydrated");
+		if (state==null) System.err.println("GameActor: Passivated game state was lost, starting a new one");
+	}
+
+	/**
+	 * The hub that sends this game to its spectators, created with the first spectator
+	 * @return
+	 */
+	private ActorRef spectatorHub() {
+		if (spectators==null) {
+			int maxSpectators = getContext().getSystem().settings().config().getInt("game.spectators.max-per-game");
+			spectators = getContext().actorOf(SpectatorHub.props(compactAssets, maxSpectators), "spectators");
+			channel.tell(new OutboundChannel.Publish(spectators), self());
+		}
+		return spectators;
+	}
+
+	/**
+	 * The commands that draw the game as it is now, for a spectator that is starting or
+	 * has fallen behind
+	 * @return
+	 */
+	private SpectatorHub.Snapshot createSnapshot() {
+		if (passivated) rehydrate();
+		List<ObjectNode> commands = new ArrayList<ObjectNode>();
+		BasicCommands.startCapture(commands);
 		try {
-			ObjectNode readyMessage = Json.newObject();
-			readyMessage.put("messagetype", "actorReady");
-			readyMessage.put("preloadImages", mapper.readTree(mapper.writeValueAsString(images)));
-			out.tell(readyMessage, out);
-		} catch (Exception e) {
-			e.printStackTrace();
+			session.getGameState().redraw(channel);
+		} finally {
+			BasicCommands.stopCapture();
+		}
+		return new SpectatorHub.Snapshot(AssetDictionary.get().createReadyMessage(compactAssets), commands);
+	}
+
+	private GameStateStore getStore() {
+		return GameStateStore.get(getContext().getSystem().settings().config());
+	}
+
+	/**
+	 * Called when the attached front-end has gone, the game is kept for a while in case
+	 * it reconnects
+	 */
+	private void clientTerminated() {
+		if (!sharded) {
+			getContext().stop(self());
+			return;
 		}
+		channel.tell(OutboundChannel.Detach.INSTANCE, self());
+		Duration gracePeriod = getContext().getSystem().settings().config().getDuration("game.resume.grace-period");
+		getTimers().startSingleTimer("grace", GraceExpired.INSTANCE, gracePeriod);
+	}
+
+	/**
+	 * Tells the front-end that the actor is ready, and which images it should pre-load
+	 * @param assetDictionary
+	 */
+	private void sendActorReady(AssetDictionary assetDictionary) {
+		channel.tell(assetDictionary.createReadyMessage(compactAssets), out);
+		channel.tell(OutboundChannel.Flush.INSTANCE, out);
 	}
 
 	/**
 	 * This method simply farms out the processing of the json messages from the front-end to the
-	 * processMessage method
+	 * processMessage method. Once a message has been dealt with, the outbound channel is told
+	 * to send on the commands that it produced.
 	 * @return
 	 */
 	public Receive createReceive() {
 		return receiveBuilder()
+				.match(JsonNode.class, message -> channel==null || movedState!=null, message -> {
+					System.err.println("GameActor: Recieved event before a front-end was attached");
+				})
 				.match(JsonNode.class, message -> {
 					System.out.println(message);
-					processMessage(message.get("messagetype").asText(), message);
-				}).build();
+					long start = System.nanoTime();
+					boolean heartbeatsOnly = true;
+					for (JsonNode event : eventsIn(message)) {
+						String messageType = event.path("messagetype").asText();
+						processMessage(messageType, event);
+						if (!messageType.equals("heartbeat")) heartbeatsOnly = false;
+					}
+					channel.tell(OutboundChannel.Flush.INSTANCE, self());
+					if (!passivated && !heartbeatsOnly) publishSnapshot();
+					GameMetrics.record("events.actor.micros", (System.nanoTime()-start)/1000);
+				})
+				.match(AssetDictionary.class, assets -> movedState!=null, assets -> restoreMoved())
+				.match(AssetDictionary.class, this::sendActorReady)
+				.match(GameShards.AttachClient.class, attach -> attach(attach.client, attach.compactAssets, attach.gameId, attach.lastSeq, attach.secret, attach.state))
+				.match(GameShards.Resumable.class, resumable -> getSender().tell(
+						channel!=null && resumable.secret!=null && resumable.secret.equals(resumeSecret), self()))
+				.match(GameShards.HandOff.class, handOff -> handOff())
+				.match(HandOffExpired.class, expired -> getContext().stop(self()))
+				.match(Terminated.class, terminated -> terminated.getActor().equals(out), terminated -> clientTerminated())
+				.match(GraceExpired.class, expired -> getContext().getParent().tell(new ShardRegion.Passivate(PoisonPill.getInstance()), self()))
+				.match(IdleCheck.class, check -> checkIdle())
+				.match(TurnExpired.class, expired -> isCurrentTurn(expired.turnNumber), expired -> endTurnForPlayer())
+				.match(TurnWarning.class, warning -> isCurrentTurn(warning.turnNumber), warning -> {
+					int seconds = (int) getContext().getSystem().settings().config().getDuration("game.turn-timer.warning").getSeconds();
+					BasicCommands.addPlayer1Notification(channel, seconds+" seconds left", 2);
+					channel.tell(OutboundChannel.Flush.INSTANCE, self());
+				})
+				.match(TurnExpired.class, expired -> {}) // the player ended that turn in time
+				.match(TurnWarning.class, warning -> {})
+				.match(SpectatorHub.Watchable.class, watchable -> spectatorId = watchable.spectatorId)
+				.match(SpectatorHub.Watch.class, watch -> spectatorHub().forward(watch, getContext()))
+				.match(SpectatorHub.SnapshotRequest.class, request -> getSender().tell(createSnapshot(), self()))
+				.match(TimelineTick.class, tick -> {
+					advanceTimeline(tick.timelineId);
+					channel.tell(OutboundChannel.Flush.INSTANCE, self());
+					publishSnapshot();
+				})
+				.build();
+	}
+
+	/**
+	 * The events in a message from the front-end, in the order they were made. This is
+	 * just the message itself, unless it is a batch (see InboundGuard).
+	 * @param message
+	 * @return
+	 */
+	private static Iterable<JsonNode> eventsIn(JsonNode message) {
+		if (message.path("messagetype").asText().equals("batch")) return message.path("events");
+		return Collections.singletonList(message);
 	}
 
 	/**
@@ -102,20 +492,111 @@ public class GameActor extends AbstractActor {
 	@SuppressWarnings({"deprecation"})
 	public void processMessage(String messageType, JsonNode message) throws Exception{
 
-		EventProcessor processor = eventProcessors.get(messageType);
-		if (processor==null) {
+		// heartbeats carry the front-end's progress through the commands we have sent
+		if (messageType.equals("heartbeat") && message.has("lastSeq")) {
+			channel.tell(new OutboundChannel.ClientProgress(
+					message.path("lastSeq").asLong(),
+					message.path("receivedSeq").asLong(),
+					message.path("receivedHold").asLong(),
+					message.path("clientTime").asLong()), self());
+		}
+
+		// any other event means the game is in use, and needs its state
+		if (!messageType.equals("heartbeat")) {
+			lastActivity = System.nanoTime();
+			if (passivated) {
+				rehydrate();
+				if (!messageType.equals("endturnclicked")) startTurnTimer();
+			}
+		}
+		if (passivated) return; // a heartbeat has nothing to do with the game state
+
+		if (!session.processEvent(channel, messageType, message)) {
 			// Unknown event type received
 			System.err.println("GameActor: Recieved unknown event type "+messageType);
 		} else {
-			processor.processEvent(out, gameState, message); // process the event
+			startPendingTimelines();
+			if (messageType.equals("initalize") || messageType.equals("endturnclicked")) startTurnTimer();
 		}
 	}
+
+	/**
+	 * Starts the time limit for the player's turn, if turns are timed (game.turn-timer). Each
+	 * game has one turn timer, kept by Akka's scheduler, a hashed wheel shared by every game,
+	 * so there is no thread or task per game, and starting the next turn's timer replaces
+	 * the last one. The front-end is sent the turn length once and counts down by itself.
+	 */
+	private void startTurnTimer() {
+		Config turnTimer = getContext().getSystem().settings().config().getConfig("game.turn-timer");
+		GameState gameState = session.getGameState();
+		if (!turnTimer.getBoolean("enabled") || !gameState.gameInitalised) return;
+
+		Duration turnLength = turnTimer.getDuration("turn-length");
+		Duration warning = turnTimer.getDuration("warning");
+		getTimers().startSingleTimer("turn", new TurnExpired(gameState.turnNumber), turnLength);
+		if (warning.compareTo(turnLength) < 0) {
+			getTimers().startSingleTimer("turn-warning", new TurnWarning(gameState.turnNumber), turnLength.minus(warning));
+		}
+		BasicCommands.setTurnTimer(channel, (int) turnLength.getSeconds());
+	}
+
+	private boolean isCurrentTurn(int turnNumber) {
+		return !passivated && session.getGameState().turnNumber==turnNumber;
+	}
+
+	/**
+	 * Ends the player's turn for them when their time is up, as if they had clicked the
+	 * end turn button. This does not count as activity, so a game the player has left
+	 * still goes idle and is passivated.
+	 */
+	private void endTurnForPlayer() {
+		ObjectNode endTurn = Json.newObject();
+		endTurn.put("messagetype", "endturnclicked");
+		endTurn.put("timedOut", true);
+		BasicCommands.addPlayer1Notification(channel, "Out of time", 2);
+		session.processEvent(channel, "endturnclicked", endTurn);
+		startPendingTimelines();
+		startTurnTimer();
+		channel.tell(OutboundChannel.Flush.INSTANCE, self());
+		publishSnapshot();
+		GameMetrics.increment("turns.timedOut");
+	}
+
+	/**
+	 * Starts any timelines that were queued in the game state while processing an event
+	 */
+	private void startPendingTimelines() {
+		GameState gameState = session.getGameState();
+		while (!gameState.pendingTimelines.isEmpty()) {
+			Timeline timeline = gameState.pendingTimelines.remove(0);
+			long timelineId = ++timelineCount;
+			runningTimelines.put(timelineId, timeline);
+			advanceTimeline(timelineId);
+		}
+	}
+
+	/**
+	 * Plays the next steps of a timeline, and sets a timer for when it should continue.
+	 * Nothing blocks here, so the actor carries on receiving events while animations play.
+	 * @param timelineId
+	 */
+	private void advanceTimeline(long timelineId) {
+		Timeline timeline = runningTimelines.get(timelineId);
+		if (timeline==null) return;
+
+		int wait = timeline.advance(channel);
+		if (wait < 0) runningTimelines.remove(timelineId);
+		else getTimers().startSingleTimer("timeline-"+timelineId, new TimelineTick(timelineId), Duration.ofMillis(wait));
+
+		startPendingTimelines(); // steps may have queued further timelines
+	}
 	
 	
 	public void reportError(String errorText) {
 		ObjectNode returnMessage = Json.newObject();
 		returnMessage.put("messagetype", "ERR");
 		returnMessage.put("error", errorText);
-		out.tell(returnMessage, out);
+		channel.tell(returnMessage, out);
+		channel.tell(OutboundChannel.Flush.INSTANCE, out);
 	}
 }
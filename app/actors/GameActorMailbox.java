@@ -0,0 +1,147 @@
+package actors;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.typesafe.config.Config;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.DeadLetter;
+import akka.dispatch.Envelope;
+import akka.dispatch.MailboxType;
+import akka.dispatch.MessageQueue;
+import akka.dispatch.ProducesMessageQueue;
+import scala.Option;
+import utils.GameMetrics;
+
+/**
+ * A bounded mailbox for GameActors (configured as game-actor-mailbox in application.conf).
+ * Without a bound, events that arrive faster than a GameActor can process them queue up
+ * without limit. When the mailbox is full, new events from the front-end are dropped (sent
+ * to dead letters) rather than blocking the sender, which would hold up the websocket
+ * stream, and are counted in the inbound.mailboxOverflow metric. Messages from the server
+ * itself (timer ticks, AttachClient, Terminated and so on) are never dropped, as the actor
+ * cannot work without them, so they may take the mailbox over its capacity.
+ *
+ * The mailbox is also a priority mailbox, so that when a session's queue backs up the
+ * player's clicks are not stuck behind housekeeping messages. Messages are taken in order of:
+ *  - PLAYER_ACTION: clicks on tiles, cards and the end turn button (and initalize)
+ *  - INTERNAL: messages from the server itself, such as timeline timer ticks
+ *  - HOUSEKEEPING: heartbeats, unitMoving and unitstopped, and anything else
+ * Messages with the same priority are always taken in the order they arrived. A batch of
+ * events from the front-end takes the highest priority of the events in it.
+ *
+ */
+public class GameActorMailbox implements MailboxType, ProducesMessageQueue<GameActorMailbox.GameMessageQueue> {
+
+	public static final int PLAYER_ACTION = 0;
+	public static final int INTERNAL = 1;
+	public static final int HOUSEKEEPING = 2;
+
+	private static final LongAdder queued = new LongAdder(); // messages waiting in all GameActor mailboxes
+
+	private final int capacity;
+
+	/**
+	 * Returns the number of messages waiting in all GameActor mailboxes, a sign of how
+	 * busy the game server is (see AdmissionControl)
+	 * @return
+	 */
+	public static long getQueued() {
+		return queued.sum();
+	}
+
+	/**
+	 * Returns the priority of a message, lower is taken first
+	 * @param message
+	 * @return
+	 */
+	public static int priorityOf(Object message) {
+		if (!(message instanceof JsonNode)) return INTERNAL;
+		String messageType = ((JsonNode) message).path("messagetype").asText();
+		if (messageType.equals("batch")) {
+			int priority = HOUSEKEEPING;
+			for (JsonNode event : ((JsonNode) message).path("events")) priority = Math.min(priority, priorityOf(event));
+			return priority;
+		}
+		switch (messageType) {
+		case "tileclicked":
+		case "cardclicked":
+		case "endturnclicked":
+		case "otherclicked":
+		case "initalize":
+			return PLAYER_ACTION;
+		default:
+			return HOUSEKEEPING;
+		}
+	}
+
+	/**
+	 * The queue of messages for one actor, with a FIFO queue for each priority
+	 */
+	public static class GameMessageQueue implements MessageQueue {
+
+		private final ConcurrentLinkedQueue<Envelope>[] queues;
+		private final AtomicInteger size = new AtomicInteger();
+		private final int capacity;
+		private final ActorSystem system;
+
+		@SuppressWarnings("unchecked")
+		public GameMessageQueue(int capacity, ActorSystem system) {
+			this.queues = new ConcurrentLinkedQueue[HOUSEKEEPING+1];
+			for (int i = 0; i < queues.length; i++) queues[i] = new ConcurrentLinkedQueue<Envelope>();
+			this.capacity = capacity;
+			this.system = system;
+		}
+
+		public void enqueue(ActorRef receiver, Envelope handle) {
+			if (size.incrementAndGet() > capacity && handle.message() instanceof JsonNode) {
+				size.decrementAndGet();
+				GameMetrics.increment("inbound.mailboxOverflow");
+				if (system!=null) system.deadLetters().tell(new DeadLetter(handle.message(), handle.sender(), receiver), handle.sender());
+				return;
+			}
+			queues[priorityOf(handle.message())].add(handle);
+			queued.increment();
+		}
+
+		public Envelope dequeue() {
+			for (ConcurrentLinkedQueue<Envelope> queue : queues) {
+				Envelope handle = queue.poll();
+				if (handle != null) {
+					size.decrementAndGet();
+					queued.decrement();
+					return handle;
+				}
+			}
+			return null;
+		}
+
+		public int numberOfMessages() {
+			return size.get();
+		}
+
+		public boolean hasMessages() {
+			return size.get() > 0;
+		}
+
+		public void cleanUp(ActorRef owner, MessageQueue deadLetters) {
+			Envelope handle;
+			while ((handle = dequeue()) != null) deadLetters.enqueue(owner, handle);
+		}
+	}
+
+	// This constructor signature must exist, it will be called by Akka
+	public GameActorMailbox(ActorSystem.Settings settings, Config config) {
+		this.capacity = config.getInt("mailbox-capacity");
+	}
+
+	// The create method is called to create the MessageQueue
+	public MessageQueue create(Option<ActorRef> owner, Option<ActorSystem> system) {
+		return new GameMessageQueue(capacity, system.isDefined() ? system.get() : null);
+	}
+
+}
@@ -0,0 +1,101 @@
+package actors;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import akka.actor.ActorRef;
+import events.CardClicked;
+import events.EndTurnClicked;
+import events.EventResult;
+import events.Heartbeat;
+import events.Initalize;
+import events.LegacyEventProcessor;
+import events.OtherClicked;
+import events.PureEventProcessor;
+import events.TileClicked;
+import events.UnitMoving;
+import events.UnitStopped;
+import structures.GameState;
+import utils.GameStateCodec;
+
+/**
+ * The game logic for one session: the event processors and the GameState they work on.
+ * This is shared by the ways a session can be run (the GameActor, or the GamePipeline
+ * Akka Stream), which take care of getting events in and commands out.
+ *
+ * Events are processed by PureEventProcessors, which return the commands for the event
+ * rather than sending them. processEvent sends them on once the event has been
+ * processed, and simulate returns them without touching the game. Processors that still
+ * send as they go are wrapped in a LegacyEventProcessor.
+ *
+ * A GameSession must only ever be used by one thread at a time.
+ *
+ */
+public class GameSession {
+
+	private Map<String,PureEventProcessor> eventProcessors; // Classes used to process each type of event
+	private GameState gameState; // A class that can be used to hold game state information
+
+	public GameSession() {
+
+		// create class instances to respond to the various events that we might recieve
+		eventProcessors = new HashMap<String,PureEventProcessor>();
+		eventProcessors.put("initalize", new LegacyEventProcessor(new Initalize()));
+		eventProcessors.put("heartbeat", new LegacyEventProcessor(new Heartbeat()));
+		eventProcessors.put("unitMoving", new LegacyEventProcessor(new UnitMoving()));
+		eventProcessors.put("unitstopped", new LegacyEventProcessor(new UnitStopped()));
+		eventProcessors.put("tileclicked", new LegacyEventProcessor(new TileClicked()));
+		eventProcessors.put("cardclicked", new LegacyEventProcessor(new CardClicked()));
+		eventProcessors.put("endturnclicked", new EndTurnClicked());
+		eventProcessors.put("otherclicked", new LegacyEventProcessor(new OtherClicked()));
+
+		// Initalize a new game state object
+		gameState = new GameState();
+	}
+
+	public GameState getGameState() {
+		return gameState;
+	}
+
+	/**
+	 * Replaces the game state, e.g. with one rebuilt after the game was passivated
+	 * @param gameState
+	 */
+	public void setGameState(GameState gameState) {
+		this.gameState = gameState;
+	}
+
+	/**
+	 * Passes an event to the processor for its type. Returns false if there is
+	 * no processor for that type of event.
+	 * @param out
+	 * @param messageType
+	 * @param message
+	 * @return
+	 */
+	public boolean processEvent(ActorRef out, String messageType, JsonNode message) {
+		PureEventProcessor processor = eventProcessors.get(messageType);
+		if (processor==null) return false;
+		EventResult result = processor.process(gameState, message);
+		gameState = result.getState();
+		result.apply(out);
+		return true;
+	}
+
+	/**
+	 * Works out what an event would do without changing the game: it is processed
+	 * against a copy of the game state, and the commands are returned rather than sent.
+	 * Returns null if there is no processor for that type of event.
+	 * @param messageType
+	 * @param message
+	 * @return
+	 */
+	public EventResult simulate(String messageType, JsonNode message) {
+		PureEventProcessor processor = eventProcessors.get(messageType);
+		if (processor==null) return null;
+		return processor.process(GameStateCodec.copy(gameState), message);
+	}
+
+}
@@ -0,0 +1,89 @@
+package actors;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.Props;
+import akka.actor.Terminated;
+import akka.cluster.sharding.ShardRegion;
+
+/**
+ * Keeps the games running on this node by game id, so that a front-end whose websocket
+ * drops can reconnect to its game (see GameActor). It takes the same messages as the
+ * GameShards region, AttachClient, GameEvent and Resumable, so a ClientConnection works
+ * with either, and is used in its place when games are not run as a cluster. Once a game
+ * has replied to its ClientConnection, the connection sends events straight to it, so
+ * they do not all queue here.
+ *
+ * A game is created by the first AttachClient for its id, and stopped when it passivates
+ * itself after its front-end has gone for longer than game.resume.grace-period. Spectators
+ * (SpectatorHub.Watch) can only watch a game that is already running. Each game is given
+ * a random spectator id for this, as anyone who knows the game id can try to join it.
+ *
+ */
+public class GameSessions extends AbstractActor {
+
+	private final Map<String,ActorRef> games = new HashMap<String,ActorRef>();
+	private final Map<ActorRef,String> gameIds = new HashMap<ActorRef,String>();
+	private final Map<String,ActorRef> watchable = new HashMap<String,ActorRef>(); // games by spectator id
+	private final Map<ActorRef,String> spectatorIds = new HashMap<ActorRef,String>();
+	private long gameCount = 0;
+
+	public static Props props() {
+		return Props.create(GameSessions.class);
+	}
+
+	@Override
+	public Receive createReceive() {
+		return receiveBuilder()
+				.match(GameShards.AttachClient.class, attach -> gameFor(attach.gameId).forward(attach, getContext()))
+				.match(GameShards.GameEvent.class, event -> {
+					ActorRef game = games.get(event.gameId);
+					if (game!=null) game.forward(event.event, getContext());
+					else System.err.println("GameSessions: Recieved event for unknown game "+event.gameId);
+				})
+				.match(GameShards.Resumable.class, resumable -> {
+					ActorRef game = games.get(resumable.gameId);
+					if (game!=null) game.forward(resumable, getContext());
+					else getSender().tell(false, self()); // not started for a question
+				})
+				.match(SpectatorHub.Watch.class, watch -> {
+					ActorRef game = watchable.get(watch.spectatorId);
+					if (game!=null) game.forward(watch, getContext());
+					else watch.spectator.close(); // nothing to watch
+				})
+				.match(ShardRegion.Passivate.class, passivate -> {
+					forget(getSender());
+					getContext().stop(getSender());
+				})
+				.match(Terminated.class, terminated -> forget(terminated.getActor()))
+				.build();
+	}
+
+	private ActorRef gameFor(String gameId) {
+		ActorRef game = games.get(gameId);
+		if (game==null) {
+			game = getContext().actorOf(GameShards.entityProps(), "game-"+(++gameCount)); // ids come from the URL, so are not used as names
+			getContext().watch(game);
+			games.put(gameId, game);
+			gameIds.put(game, gameId);
+
+			String spectatorId = UUID.randomUUID().toString();
+			watchable.put(spectatorId, game);
+			spectatorIds.put(game, spectatorId);
+			game.tell(new SpectatorHub.Watchable(spectatorId), self()); // arrives before the AttachClient
+		}
+		return game;
+	}
+
+	private void forget(ActorRef game) {
+		String gameId = gameIds.remove(game);
+		if (gameId!=null) games.remove(gameId);
+		String spectatorId = spectatorIds.remove(game);
+		if (spectatorId!=null) watchable.remove(spectatorId);
+	}
+
+}
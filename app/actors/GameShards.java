@@ -0,0 +1,198 @@
+package actors;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.JsonNode;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import akka.cluster.sharding.ClusterSharding;
+import akka.cluster.sharding.ClusterShardingSettings;
+import akka.cluster.sharding.ShardRegion;
+import akka.pattern.Patterns;
+
+/**
+ * Runs GameActors as Akka Cluster Sharding entities, keyed by game id, so that games are
+ * spread over all of the nodes in the cluster (see conf/cluster.conf). A websocket can be
+ * opened on any node: its ClientConnection sends events for the game to the shard region
+ * on that node, which passes them on to whichever node owns the game. Commands from the
+ * game are sent straight back to the websocket's ActorRef, wherever it is.
+ *
+ * Shards are moved onto nodes that join the cluster, and off nodes that leave it (see
+ * conf/cluster.conf). The state of a game is only held in memory, so when its shard is
+ * moved the GameActor is stopped with HandOff, and sends its encoded state to its
+ * ClientConnection (Moving). The ClientConnection attaches again with the state, which
+ * starts the game on its new node where it left off. A game that is lost without a
+ * hand-off (e.g. its node crashed) is started again, and the front-end is told to reload.
+ *
+ */
+public class GameShards {
+
+	public static final String TYPE_NAME = "Game";
+	public static final int NUMBER_OF_SHARDS = 100; // roughly ten times the largest expected number of nodes
+
+	/**
+	 * Starts the shard region on this node, or returns it if it is already running
+	 * @param system
+	 * @return
+	 */
+	public static ActorRef region(ActorSystem system) {
+		ShardRegion.MessageExtractor extractor = new ShardRegion.HashCodeMessageExtractor(NUMBER_OF_SHARDS) {
+			@Override
+			public String entityId(Object message) {
+				if (message instanceof AttachClient) return ((AttachClient) message).gameId;
+				if (message instanceof GameEvent) return ((GameEvent) message).gameId;
+				if (message instanceof Resumable) return ((Resumable) message).gameId;
+				return null;
+			}
+
+			@Override
+			public Object entityMessage(Object message) {
+				if (message instanceof GameEvent) return ((GameEvent) message).event;
+				return message;
+			}
+		};
+
+		ClusterShardingSettings settings = ClusterShardingSettings.create(system);
+		return ClusterSharding.get(system).start(TYPE_NAME, entityProps(), settings, extractor,
+				ClusterSharding.get(system).defaultShardAllocationStrategy(settings), HandOff.INSTANCE);
+	}
+
+	/**
+	 * Finds out whether a game is running on this node, and a front-end with the secret
+	 * could reconnect to it. Games on other nodes are not asked, as they may not exist.
+	 * @param region the shard region on this node
+	 * @param resumable
+	 * @param timeout
+	 * @return
+	 */
+	public static CompletionStage<Boolean> isResumableHere(ActorRef region, Resumable resumable, Duration timeout) {
+		return Patterns.ask(region, ShardRegion.getShardRegionStateInstance(), timeout).thenCompose(state -> {
+			for (ShardRegion.ShardState shard : ((ShardRegion.CurrentShardRegionState) state).getShards()) {
+				if (shard.getEntityIds().contains(resumable.gameId)) {
+					return Patterns.ask(region, resumable, timeout).thenApply(Boolean.TRUE::equals);
+				}
+			}
+			return CompletableFuture.completedFuture(false);
+		});
+	}
+
+	/**
+	 * Props for a GameActor run as an entity, which is created before its websocket is attached
+	 * @return
+	 */
+	public static Props entityProps() {
+		return Props.create(GameActor.class)
+				.withMailbox("game-actor-mailbox")
+				.withDispatcher("game-dispatcher");
+	}
+
+	/**
+	 * Connects a websocket to a game, the game sends its commands to client from then on.
+	 * lastSeq is the last command a reconnecting front-end received, or -1 for a new one.
+	 * A front-end can only reconnect to a running game with the secret from its resume
+	 * token (see GameActor). state is the encoded game of a game that is moving (see
+	 * Moving), null otherwise.
+	 */
+	public static final class AttachClient implements ClusterMessage {
+		public final String gameId;
+		public final ActorRef client;
+		public final boolean compactAssets;
+		public final long lastSeq;
+		public final String secret; // from the resume token, null for a new front-end
+		public final byte[] state;
+
+		public AttachClient(String gameId, ActorRef client, boolean compactAssets, long lastSeq) {
+			this(gameId, client, compactAssets, lastSeq, null, null);
+		}
+
+		public AttachClient(String gameId, ActorRef client, boolean compactAssets, long lastSeq, String secret) {
+			this(gameId, client, compactAssets, lastSeq, secret, null);
+		}
+
+		@JsonCreator
+		public AttachClient(@JsonProperty("gameId") String gameId, @JsonProperty("client") ActorRef client,
+				@JsonProperty("compactAssets") boolean compactAssets, @JsonProperty("lastSeq") long lastSeq,
+				@JsonProperty("secret") String secret, @JsonProperty("state") byte[] state) {
+			this.gameId = gameId;
+			this.client = client;
+			this.compactAssets = compactAssets;
+			this.lastSeq = lastSeq;
+			this.secret = secret;
+			this.state = state;
+		}
+	}
+
+	/**
+	 * Asks a game whether a front-end with this secret could reconnect to it, the game
+	 * replies with a Boolean. A shard region starts the game if it is not running, so it
+	 * is only asked about games it already has (see isResumableHere).
+	 */
+	public static final class Resumable implements ClusterMessage {
+		public final String gameId;
+		public final String secret;
+
+		@JsonCreator
+		public Resumable(@JsonProperty("gameId") String gameId, @JsonProperty("secret") String secret) {
+			this.gameId = gameId;
+			this.secret = secret;
+		}
+	}
+
+	/**
+	 * The game's reply to the ClientConnection that attached to it, with the secret it
+	 * needs to attach again
+	 */
+	public static final class Attached implements ClusterMessage {
+		public final String secret;
+
+		@JsonCreator
+		public Attached(@JsonProperty("secret") String secret) {
+			this.secret = secret;
+		}
+	}
+
+	/**
+	 * Sent by a game to its ClientConnection as the game's shard is handed off to another
+	 * node, with the encoded game state (see GameStateCodec), null if it was lost. The
+	 * ClientConnection stops the game once it has stopped watching it.
+	 */
+	public static final class Moving implements ClusterMessage {
+		public final byte[] state;
+
+		@JsonCreator
+		public Moving(@JsonProperty("state") byte[] state) {
+			this.state = state;
+		}
+	}
+
+	/**
+	 * Stops a GameActor whose shard is being handed off to another node
+	 */
+	public static final class HandOff {
+		public static final HandOff INSTANCE = new HandOff();
+
+		private HandOff() {
+		}
+	}
+
+	/**
+	 * An event from the front-end for a game
+	 */
+	public static final class GameEvent implements ClusterMessage {
+		public final String gameId;
+		public final JsonNode event;
+
+		@JsonCreator
+		public GameEvent(@JsonProperty("gameId") String gameId, @JsonProperty("event") JsonNode event) {
+			this.gameId = gameId;
+			this.event = event;
+		}
+	}
+
+}
@@ -0,0 +1,79 @@
+package actors;
+
+import java.time.Duration;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import java.time.Duration;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import akka.actor.AbstractActorWithTimers;
+import akka.actor.ActorRef;
+import akka.actor.Props;
+import akka.actor.Terminated;
+import play.libs.Json;
+
+/**
+ * The websocket end of a player-vs-player game. It is created by the ActorFlow for the
+ * websocket, puts the player in the Matchmaker's queue and, once they have been paired,
+ * forwards their events to the MatchGame. The websocket is closed when the game ends.
+ * If they are still waiting after the matchmaker's widen-after, it is asked to look
+ * in the neighbouring rating bands.
+ *
+ */
+public class MatchConnection extends AbstractActorWithTimers {
+
+	private static final class Widen {
+	}
+
+	private final ActorRef out; // the websocket of the front-end
+	private final Matchmaker<MatchGame.PlayerConnection> matchmaker;
+	private final int rating;
+	private final boolean compactAssets;
+	private Matchmaker.Ticket<MatchGame.PlayerConnection> ticket;
+	private ActorRef game = null; // set once paired
+	private int seat;
+
+	public static Props props(ActorRef out, Matchmaker<MatchGame.PlayerConnection> matchmaker, int rating, boolean compactAssets) {
+		return Props.create(MatchConnection.class, out, matchmaker, rating, compactAssets);
+	}
+
+	public MatchConnection(ActorRef out, Matchmaker<MatchGame.PlayerConnection> matchmaker, int rating, boolean compactAssets) {
+		this.out = out;
+		this.matchmaker = matchmaker;
+		this.rating = rating;
+		this.compactAssets = compactAssets;
+	}
+
+	@Override
+	public void preStart() {
+		ObjectNode waiting = Json.newObject();
+		waiting.put("messagetype", "matchmaking");
+		waiting.put("status", "waiting");
+		out.tell(waiting, self());
+
+		ticket = matchmaker.join(new MatchGame.PlayerConnection(self(), out, compactAssets), rating);
+		if (ticket.isWaiting()) getTimers().startSingleTimer("widen", new Widen(), Duration.ofNanos(matchmaker.getWidenAfterNanos()));
+	}
+
+	@Override
+	public Receive createReceive() {
+		return receiveBuilder()
+				.match(MatchGame.Matched.class, matched -> {
+					game = getSender();
+					seat = matched.seat;
+					getContext().watch(game);
+				})
+				.match(Widen.class, widen -> matchmaker.widen(ticket))
+				.match(JsonNode.class, event -> game!=null, event -> game.tell(new MatchGame.PlayerEvent(seat, event), self()))
+				.match(JsonNode.class, event -> {}) // nothing to do until there is a game
+				.match(Terminated.class, terminated -> getContext().stop(self()))
+				.build();
+	}
+
+	@Override
+	public void postStop() {
+		matchmaker.cancel(ticket);
+	}
+
+}
@@ -0,0 +1,305 @@
+package actors;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import akka.actor.AbstractActorWithTimers;
+import akka.actor.ActorRef;
+import akka.actor.PoisonPill;
+import akka.actor.Props;
+import akka.actor.Terminated;
+import akka.pattern.Patterns;
+import commands.BasicCommands;
+import commands.Timeline;
+import structures.GameSnapshot;
+import structures.GameState;
+import structures.basic.Player;
+import utils.AssetDictionary;
+import utils.GameMetrics;
+import utils.GameRegistry;
+import utils.OrderedCardLoader;
+
+/**
+ * A player-vs-player game between two front-ends paired by the Matchmaker. There is one
+ * GameState, and each player has their own OutboundChannel. Commands that show the board
+ * go to both players, while those that show a player's hand or highlighted tiles go only
+ * to the player whose action caused them. Player 1's resources are shown with the
+ * setPlayer1 commands and player 2's with the setPlayer2 commands, on both screens.
+ *
+ * Players take turns, events from the player whose turn it is not are ignored. Player 1's
+ * events are handled by the usual event processors. Those only know how to play player 1's
+ * side so far, so on player 2's turn only the end turn button does anything.
+ *
+ * The game ends when either player's websocket closes. Like a GameActor, the game publishes
+ * a GameSnapshot to the GameRegistry after each action.
+ *
+ */
+public class MatchGame extends AbstractActorWithTimers {
+
+	public static final int PLAYER1 = 0;
+	public static final int PLAYER2 = 1;
+
+	// commands only shown to the player whose action caused them
+	private static final Set<String> PRIVATE_COMMANDS = new HashSet<String>(Arrays.asList("drawCard", "deleteCard", "drawTile", "drawTiles"));
+
+	/**
+	 * A player waiting for a game: their MatchConnection and websocket
+	 */
+	public static final class PlayerConnection {
+		public final ActorRef connection;
+		public final ActorRef out;
+		public final boolean compactAssets;
+
+		public PlayerConnection(ActorRef connection, ActorRef out, boolean compactAssets) {
+			this.connection = connection;
+			this.out = out;
+			this.compactAssets = compactAssets;
+		}
+	}
+
+	/**
+	 * Sent to a player's connection when the game starts, with the seat they are in
+	 */
+	public static final class Matched {
+		public final int seat;
+
+		public Matched(int seat) {
+			this.seat = seat;
+		}
+	}
+
+	/**
+	 * An event from the front-end of the player in the given seat
+	 */
+	public static final class PlayerEvent {
+		public final int seat;
+		public final JsonNode event;
+
+		public PlayerEvent(int seat, JsonNode event) {
+			this.seat = seat;
+			this.event = event;
+		}
+	}
+
+	/**
+	 * Timer message asking for the next steps of a running timeline to be played
+	 */
+	private static final class TimelineTick {
+		final long timelineId;
+
+		TimelineTick(long timelineId) {
+			this.timelineId = timelineId;
+		}
+	}
+
+	private final String matchId = UUID.randomUUID().toString(); // used when reporting metrics
+	private final PlayerConnection[] players;
+	private final ActorRef[] channels = new ActorRef[2];
+	private final boolean[] initalized = new boolean[2];
+	private final GameSession session = new GameSession();
+	private final Map<Long,Timeline> runningTimelines = new HashMap<Long,Timeline>();
+	private final Map<Long,Integer> timelineSeats = new HashMap<Long,Integer>(); // whose action started each timeline
+	private long timelineCount = 0;
+	private int activeSeat = PLAYER1;
+	private int channelsStopped = 0;
+	private long eventCount = 0; // published to the GameRegistry
+
+	public static Props props(PlayerConnection player1, PlayerConnection player2) {
+		return Props.create(MatchGame.class, player1, player2).withDispatcher("game-dispatcher");
+	}
+
+	public MatchGame(PlayerConnection player1, PlayerConnection player2) {
+		this.players = new PlayerConnection[] {player1, player2};
+	}
+
+	@Override
+	public void preStart() {
+		for (int seat = PLAYER1; seat <= PLAYER2; seat++) {
+			PlayerConnection player = players[seat];
+			channels[seat] = getContext().actorOf(OutboundChannel.props(player.out, matchId+"-"+(seat+1), player.compactAssets), "channel-"+(seat+1));
+			getContext().watch(channels[seat]);
+			getContext().watch(player.out);
+			player.connection.tell(new Matched(seat), self());
+		}
+
+		// loading the assets and decks may read the configuration files, see GameActor
+		Executor blockingIo = getContext().getSystem().dispatchers().lookup("blocking-io-dispatcher");
+		CompletableFuture<AssetDictionary> assets = CompletableFuture.supplyAsync(() -> {
+			OrderedCardLoader.load();
+			return AssetDictionary.get();
+		}, blockingIo);
+		Patterns.pipe(assets, getContext().getDispatcher()).to(getSelf());
+	}
+
+	@Override
+	public Receive createReceive() {
+		return receiveBuilder()
+				.match(PlayerEvent.class, event -> handleEvent(event.seat, event.event))
+				.match(AssetDictionary.class, assetDictionary -> {
+					for (int seat = PLAYER1; seat <= PLAYER2; seat++) {
+						channels[seat].tell(assetDictionary.createReadyMessage(players[seat].compactAssets), self());
+						channels[seat].tell(OutboundChannel.Flush.INSTANCE, self());
+					}
+				})
+				.match(TimelineTick.class, tick -> {
+					int seat = timelineSeats.getOrDefault(tick.timelineId, PLAYER1);
+					run(seat, () -> advanceTimeline(tick.timelineId));
+				})
+				.match(Terminated.class, terminated -> {
+					if (terminated.getActor().equals(players[PLAYER1].out)) playerLeft(PLAYER1);
+					else if (terminated.getActor().equals(players[PLAYER2].out)) playerLeft(PLAYER2);
+					else if (++channelsStopped==2) getContext().stop(self());
+				})
+				.build();
+	}
+
+	@Override
+	public void postStop() {
+		GameRegistry.remove(matchId);
+	}
+
+	private void handleEvent(int seat, JsonNode event) {
+		String messageType = event.path("messagetype").asText();
+
+		// heartbeats carry the front-end's progress through the commands we have sent
+		if (messageType.equals("heartbeat")) {
+			if (event.has("lastSeq")) {
+				channels[seat].tell(new OutboundChannel.ClientProgress(event.path("lastSeq").asLong(), event.path("receivedSeq").asLong(),
+						event.path("receivedHold").asLong(), event.path("clientTime").asLong()), self());
+			}
+			return;
+		}
+
+		GameState gameState = session.getGameState();
+		if (messageType.equals("initalize")) {
+			initalized[seat] = true;
+			if (initalized[PLAYER1] && initalized[PLAYER2] && !gameState.gameInitalised) start(event);
+			return;
+		}
+		if (!gameState.gameInitalised) return;
+		if (seat!=activeSeat) {
+			GameMetrics.increment("match.outOfTurn");
+			return;
+		}
+
+		if (seat==PLAYER1) {
+			run(seat, () -> {
+				if (!session.processEvent(ActorRef.noSender(), messageType, event)) {
+					System.err.println("MatchGame: Recieved unknown event type "+messageType);
+				}
+			});
+			if (messageType.equals("endturnclicked")) startTurn(PLAYER2);
+		} else if (messageType.equals("endturnclicked")) {
+			run(seat, () -> {
+				gameState.setPlayer2Mana(gameState.turnNumber+1);
+				gameState.render(ActorRef.noSender());
+			});
+			startTurn(PLAYER1);
+		}
+	}
+
+	/**
+	 * Sets up the game once both front-ends are ready
+	 * @param event
+	 */
+	private void start(JsonNode event) {
+		GameState gameState = session.getGameState();
+		run(PLAYER1, () -> {
+			session.processEvent(ActorRef.noSender(), "initalize", event);
+			gameState.setPlayer2(new Player(20, gameState.turnNumber+1));
+			gameState.render(ActorRef.noSender());
+		});
+		startTurn(PLAYER1);
+		GameMetrics.increment("match.started");
+	}
+
+	private void startTurn(int seat) {
+		activeSeat = seat;
+		List<ObjectNode> notification = capture(() -> BasicCommands.addPlayer1Notification(ActorRef.noSender(), "Your turn", 2));
+		for (ObjectNode command : notification) channels[seat].tell(command, self());
+		channels[seat].tell(OutboundChannel.Flush.INSTANCE, self());
+	}
+
+	private void playerLeft(int seat) {
+		int other = 1-seat;
+		List<ObjectNode> notification = capture(() -> BasicCommands.addPlayer1Notification(ActorRef.noSender(), "Your opponent has left", 5));
+		for (ObjectNode command : notification) channels[other].tell(command, self());
+		channels[other].tell(OutboundChannel.Flush.INSTANCE, self());
+
+		// the channels send what they hold before stopping, then the game stops
+		channels[other].tell(PoisonPill.getInstance(), self());
+		getContext().stop(channels[seat]);
+		GameMetrics.increment("match.abandoned");
+	}
+
+	/**
+	 * Runs some work against the game state, along with any timelines it starts, and sends
+	 * the commands it produces to the players
+	 * @param seat the player whose action this is
+	 * @param work
+	 */
+	private void run(int seat, Runnable work) {
+		List<ObjectNode> commands = capture(() -> {
+			work.run();
+			startPendingTimelines(seat);
+		});
+		for (ObjectNode command : commands) {
+			if (PRIVATE_COMMANDS.contains(command.path("messagetype").asText())) channels[seat].tell(command, self());
+			else {
+				channels[seat].tell(command, self());
+				channels[1-seat].tell(command.deepCopy(), self()); // channels stamp and rewrite the commands they are given
+			}
+		}
+		channels[PLAYER1].tell(OutboundChannel.Flush.INSTANCE, self());
+		channels[PLAYER2].tell(OutboundChannel.Flush.INSTANCE, self());
+		GameRegistry.publish(GameSnapshot.of(matchId, ++eventCount, session.getGameState()));
+	}
+
+	private static List<ObjectNode> capture(Runnable work) {
+		List<ObjectNode> commands = new ArrayList<ObjectNode>();
+		BasicCommands.startCapture(commands);
+		try {
+			work.run();
+		} finally {
+			BasicCommands.stopCapture();
+		}
+		return commands;
+	}
+
+	private void startPendingTimelines(int seat) {
+		GameState gameState = session.getGameState();
+		while (!gameState.pendingTimelines.isEmpty()) {
+			long timelineId = ++timelineCount;
+			runningTimelines.put(timelineId, gameState.pendingTimelines.remove(0));
+			timelineSeats.put(timelineId, seat);
+			advanceTimeline(timelineId);
+		}
+	}
+
+	private void advanceTimeline(long timelineId) {
+		Timeline timeline = runningTimelines.get(timelineId);
+		if (timeline==null) return;
+
+		int wait = timeline.advance(ActorRef.noSender());
+		if (wait < 0) {
+			runningTimelines.remove(timelineId);
+			startPendingTimelines(timelineSeats.remove(timelineId));
+		} else {
+			getTimers().startSingleTimer("timeline-"+timelineId, new TimelineTick(timelineId), Duration.ofMillis(wait));
+			startPendingTimelines(timelineSeats.get(timelineId));
+		}
+	}
+
+}
@@ -0,0 +1,200 @@
+package actors;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+import utils.GameMetrics;
+
+/**
+ * Pairs up players waiting for a player-vs-player game. Players are put in a bucket by
+ * rating (rating / bucketWidth), and are paired with another player in the same bucket.
+ * A player who has waited longer than widenAfter can also be paired with a player from a
+ * neighbouring bucket. As nobody may join in the meantime, whoever holds the ticket calls
+ * widen once it has waited that long (MatchConnection does this with a timer).
+ *
+ * Nothing here takes a lock, so any number of sessions can join and leave at once. Each
+ * bucket is a ConcurrentLinkedQueue of tickets, and a ticket is claimed for a match by a
+ * compare-and-set on its state. A pair is always claimed lowest ticket id first, so two
+ * threads trying to pair the same tickets cannot each end up holding one of them. The
+ * first ticket is only CLAIMING until the second is claimed too, and a player who leaves
+ * in between waits to see whether they were matched.
+ * Matching is done by the thread of the player that joins (or widens), which calls
+ * onMatch with the pair (the player who has waited longest first).
+ *
+ * @param <P> what is known about a waiting player, e.g. their connection
+ */
+public class Matchmaker<P> {
+
+	private static final int WAITING = 0;
+	private static final int MATCHED = 1;
+	private static final int CANCELLED = 2;
+	private static final int CLAIMING = 3; // held by a thread while it claims the other ticket of a pair
+
+	/**
+	 * A player's place in the queue
+	 */
+	public static final class Ticket<P> {
+		private final long id;
+		private final P player;
+		private final int rating;
+		private final int bucket;
+		private final long joinedNanos;
+		private final AtomicInteger state = new AtomicInteger(WAITING);
+
+		Ticket(long id, P player, int rating, int bucket, long joinedNanos) {
+			this.id = id;
+			this.player = player;
+			this.rating = rating;
+			this.bucket = bucket;
+			this.joinedNanos = joinedNanos;
+		}
+
+		public P getPlayer() {
+			return player;
+		}
+
+		public int getRating() {
+			return rating;
+		}
+
+		public boolean isWaiting() {
+			int current = state.get();
+			return current==WAITING || current==CLAIMING;
+		}
+	}
+
+	private final int bucketWidth;
+	private final long widenAfterNanos;
+	private final BiConsumer<Ticket<P>,Ticket<P>> onMatch;
+	private final ConcurrentMap<Integer,Queue<Ticket<P>>> buckets = new ConcurrentHashMap<Integer,Queue<Ticket<P>>>();
+	private final AtomicLong ticketCount = new AtomicLong();
+	private final AtomicInteger waiting = new AtomicInteger();
+
+	/**
+	 * @param bucketWidth range of ratings that are paired without waiting
+	 * @param widenAfterNanos how long a player waits before neighbouring buckets are tried
+	 * @param onMatch called with each pair of players
+	 */
+	public Matchmaker(int bucketWidth, long widenAfterNanos, BiConsumer<Ticket<P>,Ticket<P>> onMatch) {
+		this.bucketWidth = bucketWidth;
+		this.widenAfterNanos = widenAfterNanos;
+		this.onMatch = onMatch;
+	}
+
+	/**
+	 * Adds a player to the queue, and pairs them straight away if there is a suitable
+	 * player waiting. The returned ticket can be used to leave the queue.
+	 * @param player
+	 * @param rating
+	 * @return
+	 */
+	public Ticket<P> join(P player, int rating) {
+		Ticket<P> ticket = new Ticket<P>(ticketCount.incrementAndGet(), player, rating, Math.floorDiv(rating, bucketWidth), System.nanoTime());
+		buckets.computeIfAbsent(ticket.bucket, b -> new ConcurrentLinkedQueue<Ticket<P>>()).offer(ticket);
+		publish(waiting.incrementAndGet());
+		GameMetrics.increment("matchmaking.joined");
+		match(ticket);
+		return ticket;
+	}
+
+	/**
+	 * Looks again for a player to pair with a player who has now waited widenAfter, as
+	 * the players in the neighbouring buckets were passed over when they joined
+	 * @param ticket
+	 */
+	public void widen(Ticket<P> ticket) {
+		if (ticket.isWaiting()) match(ticket);
+	}
+
+	/**
+	 * How long a player waits before neighbouring buckets are tried
+	 * @return
+	 */
+	public long getWidenAfterNanos() {
+		return widenAfterNanos;
+	}
+
+	/**
+	 * Takes a player out of the queue. Returns false if they have already been matched.
+	 * If the ticket is being claimed, this waits until the claim has succeeded or failed.
+	 * @param ticket
+	 * @return
+	 */
+	public boolean cancel(Ticket<P> ticket) {
+		while (!ticket.state.compareAndSet(WAITING, CANCELLED)) {
+			if (ticket.state.get()!=CLAIMING) return false;
+			Thread.yield(); // the claim only takes one more compare-and-set
+		}
+		buckets.get(ticket.bucket).remove(ticket);
+		publish(waiting.decrementAndGet());
+		GameMetrics.increment("matchmaking.cancelled");
+		return true;
+	}
+
+	/**
+	 * Number of players waiting to be matched
+	 * @return
+	 */
+	public int getWaiting() {
+		return waiting.get();
+	}
+
+	/**
+	 * Looks for a player to pair with the given one, first in its own bucket, then in the
+	 * neighbouring buckets if either of the pair has waited long enough
+	 * @param ticket
+	 */
+	private void match(Ticket<P> ticket) {
+		long now = System.nanoTime();
+		for (int bucket : new int[] {ticket.bucket, ticket.bucket-1, ticket.bucket+1}) {
+			Queue<Ticket<P>> queue = buckets.get(bucket);
+			if (queue==null) continue;
+			for (Ticket<P> other : queue) {
+				if (ticket.state.get()!=WAITING) return; // matched by another thread, or left
+				if (other==ticket || other.state.get()!=WAITING) continue;
+				if (bucket!=ticket.bucket && now-Math.min(ticket.joinedNanos, other.joinedNanos) < widenAfterNanos) continue;
+				if (claim(ticket, other)) {
+					buckets.get(ticket.bucket).remove(ticket);
+					queue.remove(other);
+					publish(waiting.addAndGet(-2));
+					GameMetrics.increment("matchmaking.matched");
+					if (other.id < ticket.id) onMatch.accept(other, ticket);
+					else onMatch.accept(ticket, other);
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Claims both tickets for a match, or neither
+	 * @param ticket
+	 * @param other
+	 * @return
+	 */
+	private boolean claim(Ticket<P> ticket, Ticket<P> other) {
+		Ticket<P> first = ticket.id < other.id ? ticket : other;
+		Ticket<P> second = first==ticket ? other : ticket;
+		if (!first.state.compareAndSet(WAITING, CLAIMING)) return false;
+		if (second.state.compareAndSet(WAITING, MATCHED)) {
+			first.state.set(MATCHED);
+			return true;
+		}
+
+		// the second was taken, so put the first back, and give it another chance to be
+		// paired if it is not ours, as others may have passed it over in the meantime
+		first.state.set(WAITING);
+		if (first!=ticket) match(first);
+		return false;
+	}
+
+	private static void publish(int waiting) {
+		GameMetrics.setGauge("matchmaking.waiting", waiting);
+	}
+
+}
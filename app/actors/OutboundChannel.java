@@ -0,0 +1,284 @@
+package actors;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import akka.actor.AbstractActorWithTimers;
+import akka.actor.ActorRef;
+import akka.actor.Props;
+import play.libs.Json;
+import utils.AssetDictionary;
+import utils.BasicObjectBuilders;
+import utils.BoardMask;
+import utils.GameMetrics;
+
+/**
+ * The outbound channel sits between the event processors (via BasicCommands) and the
+ * websocket ActorRef of a game session. The GameActor hands this actor to the event
+ * processors as their 'out' ActorRef, so commands are still sent in the normal way.
+ *
+ * Each command passing through is stamped with a sequence number (seq) before being
+ * passed on to the front-end. The front-end reports back the sequence numbers it has
+ * received and processed in its heartbeat, which lets us measure the render lag and
+ * round-trip time for the session (see ClientLagTracker). These are published to
+ * GameMetrics, both per-session and as histograms over all sessions.
+ *
+ * If the session uses the compact protocol, commands are also rewritten to refer to
+ * unit, card and effect templates by id (see AssetDictionary) before they are sent.
+ * Otherwise, drawTiles commands are sent as the equivalent drawTile commands, since the
+ * front-end needs the tile template to place tiles it has not drawn before.
+ *
+ * Commands are held in an OutboundQueue until a Flush message arrives (the GameActor sends
+ * one after each event and timeline step), so commands that are replaced while processing
+ * an event are never sent. If the front-end has fallen more than MAX_COMMANDS_BEHIND commands
+ * behind, flushes are held back for up to HOLD_MILLIS so that more commands can be replaced
+ * before they are sent, letting a slow front-end catch up rather than fall further behind.
+ *
+ * The last commands sent are kept in a ReplayBuffer (game.resume.replay-buffer). If the
+ * websocket drops, the GameActor sends Detach and commands are only kept, then Resume
+ * when the front-end reconnects. The front-end is then sent either the commands it missed
+ * or a snapshot that redraws the whole game, whichever is smaller.
+ *
+ * Once a game has spectators, the commands sent on a flush are also passed to its
+ * SpectatorHub (see Publish).
+ *
+ */
+public class OutboundChannel extends AbstractActorWithTimers {
+
+	public static final int MAX_COMMANDS_BEHIND = 32;
+	public static final long HOLD_MILLIS = 250;
+
+	/**
+	 * Asks the channel to send on the commands it is holding
+	 */
+	public static final class Flush {
+		public static final Flush INSTANCE = new Flush();
+
+		private Flush() {}
+	}
+
+	/**
+	 * Timer message for when held commands must be sent, even if the front-end is behind
+	 */
+	private static final class HoldExpired {
+		static final HoldExpired INSTANCE = new HoldExpired();
+	}
+
+	/**
+	 * Tells the channel that its front-end has gone, commands are kept for a Resume
+	 */
+	public static final class Detach {
+		public static final Detach INSTANCE = new Detach();
+
+		private Detach() {}
+	}
+
+	/**
+	 * Tells the channel to send to a front-end that has reconnected. lastSeq is the last
+	 * command it received, and snapshot the commands that would redraw the game as it is now.
+	 */
+	public static final class Resume {
+		public final ActorRef out;
+		public final long lastSeq;
+		public final List<ObjectNode> snapshot;
+
+		public Resume(ActorRef out, long lastSeq, List<ObjectNode> snapshot) {
+			this.out = out;
+			this.lastSeq = lastSeq;
+			this.snapshot = snapshot;
+		}
+	}
+
+	/**
+	 * Tells the channel to also send the commands it sends the front-end to a SpectatorHub
+	 */
+	public static final class Publish {
+		public final ActorRef spectators;
+
+		public Publish(ActorRef spectators) {
+			this.spectators = spectators;
+		}
+	}
+
+	/**
+	 * Progress reported by the front-end in a heartbeat message
+	 */
+	public static final class ClientProgress {
+		public final long processedSeq;
+		public final long receivedSeq;
+		public final long receivedHoldMillis;
+		public final long clientTimeMillis;
+
+		public ClientProgress(long processedSeq, long receivedSeq, long receivedHoldMillis, long clientTimeMillis) {
+			this.processedSeq = processedSeq;
+			this.receivedSeq = receivedSeq;
+			this.receivedHoldMillis = receivedHoldMillis;
+			this.clientTimeMillis = clientTimeMillis;
+		}
+	}
+
+	private ActorRef out; // the websocket of the front-end, null while it is detached
+	private ActorRef spectators = null; // the game's SpectatorHub, if it has any
+	private final String sessionId;
+	private final boolean compactAssets;
+	private final ClientLagTracker lag = new ClientLagTracker();
+	private final OutboundQueue queue = new OutboundQueue();
+	private ReplayBuffer sent;
+	private long supersededReported = 0;
+
+	public static Props props(ActorRef out, String sessionId, boolean compactAssets) {
+		return Props.create(OutboundChannel.class, out, sessionId, compactAssets).withDispatcher("game-dispatcher");
+	}
+
+	public OutboundChannel(ActorRef out, String sessionId, boolean compactAssets) {
+		this.out = out;
+		this.sessionId = sessionId;
+		this.compactAssets = compactAssets;
+	}
+
+	@Override
+	public void preStart() {
+		sent = new ReplayBuffer(getContext().getSystem().settings().config().getInt("game.resume.replay-buffer"));
+	}
+
+	@Override
+	public Receive createReceive() {
+		return receiveBuilder()
+				.match(ObjectNode.class, queue::add)
+				.match(Flush.class, flush -> requestFlush())
+				.match(HoldExpired.class, expired -> flush())
+				.match(ClientProgress.class, this::updateProgress)
+				.match(Detach.class, detach -> out = null)
+				.match(Resume.class, this::resume)
+				.match(Publish.class, publish -> spectators = publish.spectators)
+				.build();
+	}
+
+	/**
+	 * Brings a reconnected front-end up to date, by replaying the commands it missed or by
+	 * telling it to clear its view (resync) and sending the snapshot
+	 * @param resume
+	 */
+	private void resume(Resume resume) {
+		out = null;
+		flush(); // anything still queued was also missed
+
+		List<ObjectNode> snapshot = new ArrayList<ObjectNode>();
+		for (ObjectNode command : resume.snapshot) snapshot.addAll(prepare(command, compactAssets));
+		List<ObjectNode> missed = sent.since(resume.lastSeq);
+
+		out = resume.out;
+		if (missed!=null && encodedLength(missed) <= encodedLength(snapshot)) {
+			for (ObjectNode command : missed) out.tell(command, self()); // same seq as the first time
+			GameMetrics.increment("resume.replayed");
+			GameMetrics.add("resume.replayedCommands", missed.size());
+		} else {
+			ObjectNode resync = Json.newObject();
+			resync.put("messagetype", "resync");
+			deliver(resync);
+			for (ObjectNode command : snapshot) deliver(command);
+			GameMetrics.increment("resume.snapshots");
+		}
+	}
+
+	private static long encodedLength(List<ObjectNode> commands) {
+		long length = 0;
+		for (ObjectNode command : commands) length += command.toString().length();
+		return length;
+	}
+
+	private void requestFlush() {
+		if (queue.isEmpty()) return;
+		if (lag.getRenderLagCommands() <= MAX_COMMANDS_BEHIND) flush();
+		else if (!getTimers().isTimerActive("hold")) {
+			getTimers().startSingleTimer("hold", HoldExpired.INSTANCE, Duration.ofMillis(HOLD_MILLIS));
+		}
+	}
+
+	private void flush() {
+		getTimers().cancel("hold");
+		for (ObjectNode command : queue.drain()) send(command);
+
+		long superseded = queue.getSuperseded();
+		GameMetrics.add("outbound.superseded", superseded-supersededReported);
+		supersededReported = superseded;
+	}
+
+	private void send(ObjectNode command) {
+		for (ObjectNode prepared : prepare(command, compactAssets)) {
+			deliver(prepared);
+			if (spectators!=null) spectators.tell(prepared, self()); // not changed once sent, so can be shared
+		}
+	}
+
+	/**
+	 * Returns the commands to actually send to the front-end for a command: compacted if
+	 * the session uses the compact protocol, otherwise with drawTiles expanded into
+	 * drawTile commands
+	 * @param command
+	 * @param compactAssets
+	 * @return
+	 */
+	public static List<ObjectNode> prepare(ObjectNode command, boolean compactAssets) {
+		if (compactAssets) AssetDictionary.get().compact(command);
+		else if (command.path("messagetype").asText().equals("drawTiles")) return asDrawTile(command);
+		return Collections.singletonList(command);
+	}
+
+	private static List<ObjectNode> asDrawTile(ObjectNode drawTiles) {
+		List<ObjectNode> commands = new ArrayList<ObjectNode>();
+		long mask = drawTiles.path("mask").asLong();
+		for (int i = 0; i < BoardMask.TILES; i++) {
+			if ((mask & (1L << i)) == 0) continue;
+			ObjectNode drawTile = Json.newObject();
+			drawTile.put("messagetype", "drawTile");
+			drawTile.set("tile", TileCache.tiles[i].deepCopy());
+			drawTile.set("mode", drawTiles.get("mode"));
+			commands.add(drawTile);
+		}
+		return commands;
+	}
+
+	/**
+	 * The Json of every board tile, only loaded if drawTiles commands need expanding
+	 */
+	private static class TileCache {
+		static final ObjectNode[] tiles = new ObjectNode[BoardMask.TILES];
+		static {
+			ObjectMapper mapper = new ObjectMapper();
+			for (int i = 0; i < BoardMask.TILES; i++) {
+				tiles[i] = mapper.valueToTree(BasicObjectBuilders.loadTile(BoardMask.tilex(i), BoardMask.tiley(i)));
+			}
+		}
+	}
+
+	private void deliver(ObjectNode command) {
+		long seq = lag.recordSent(System.currentTimeMillis());
+		command.put("seq", seq);
+		sent.add(command);
+		if (out==null) return; // kept for when the front-end reconnects
+		out.tell(command, self());
+		GameMetrics.increment("outbound.commands");
+	}
+
+	private void updateProgress(ClientProgress progress) {
+		lag.recordProgress(progress.processedSeq, progress.receivedSeq, progress.receivedHoldMillis,
+				progress.clientTimeMillis, System.currentTimeMillis());
+
+		lag.publish(sessionId);
+
+		// the front-end has caught up, so anything being held back can go now
+		if (!queue.isEmpty() && lag.getRenderLagCommands() <= MAX_COMMANDS_BEHIND) flush();
+	}
+
+	@Override
+	public void postStop() {
+		GameMetrics.removeSession(sessionId);
+	}
+
+}
@@ -0,0 +1,142 @@
+package actors;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import utils.BoardMask;
+
+/**
+ * Holds the commands for a game session that have not yet been flushed to the front-end.
+ * Many commands simply set the state of something on screen (a tile's highlight, the card
+ * in a hand position, a player's mana), so if a later command sets the same thing, the
+ * earlier one can be dropped without changing what the player ends up seeing. This is
+ * last-writer-wins, with commands keyed by their target:
+ *  - drawTile and drawTiles: each board tile (a drawTiles command loses the tiles that are
+ *    later redrawn, and is dropped once it has none left)
+ *  - drawCard and deleteCard: the hand position
+ *  - setPlayerXHealth, setPlayerXMana and addPlayerXNotification: the command type
+ *  - setUnitHealth and setUnitAttack: the command type and unit id
+ *
+ * The superseding command goes at the back of the queue, so it is still sent after every
+ * command that was added before it. Other commands (animations, moves, new units etc.)
+ * are never dropped.
+ *
+ * This class is not thread safe, it is owned by the OutboundChannel actor of a session.
+ *
+ */
+public class OutboundQueue {
+
+	private final LinkedHashMap<Long,ObjectNode> pending = new LinkedHashMap<Long,ObjectNode>(); // in the order they are sent
+	private final Map<String,Long> entryByKey = new HashMap<String,Long>();
+	private final long[] entryByTile = new long[BoardMask.TILES]; // 0 if nothing pending for that tile
+	private long nextEntry = 1;
+	private long superseded = 0;
+
+	/**
+	 * Adds a command to the back of the queue, dropping any pending commands it supersedes
+	 * @param command
+	 */
+	public void add(ObjectNode command) {
+		long entry = nextEntry++;
+		String messageType = command.path("messagetype").asText();
+
+		if (messageType.equals("drawTile")) {
+			JsonNode tile = command.path("tile");
+			long mask = BoardMask.bit(tile.path("tilex").asInt(), tile.path("tiley").asInt());
+			if (mask != 0) supersedeTiles(mask, entry);
+		} else if (messageType.equals("drawTiles")) {
+			supersedeTiles(command.path("mask").asLong(), entry);
+		} else {
+			String key = keyOf(messageType, command);
+			if (key != null) {
+				Long previous = entryByKey.put(key, entry);
+				if (previous != null && pending.remove(previous) != null) superseded++;
+			}
+		}
+
+		pending.put(entry, command);
+	}
+
+	/**
+	 * Removes and returns all pending commands, in the order they should be sent
+	 * @return
+	 */
+	public List<ObjectNode> drain() {
+		List<ObjectNode> commands = new ArrayList<ObjectNode>(pending.values());
+		pending.clear();
+		entryByKey.clear();
+		for (int i = 0; i < entryByTile.length; i++) entryByTile[i] = 0;
+		return commands;
+	}
+
+	public boolean isEmpty() {
+		return pending.isEmpty();
+	}
+
+	public int size() {
+		return pending.size();
+	}
+
+	/**
+	 * Number of commands dropped because a later command replaced them
+	 * @return
+	 */
+	public long getSuperseded() {
+		return superseded;
+	}
+
+	/**
+	 * Points each tile in the mask at a new entry, removing the tile from whatever
+	 * pending drawTile or drawTiles command drew it before
+	 * @param mask
+	 * @param entry
+	 */
+	private void supersedeTiles(long mask, long entry) {
+		for (int i = 0; i < BoardMask.TILES; i++) {
+			if ((mask & (1L << i)) == 0) continue;
+			long previous = entryByTile[i];
+			entryByTile[i] = entry;
+			if (previous == 0) continue;
+
+			ObjectNode command = pending.get(previous);
+			if (command == null) continue;
+			if (command.path("messagetype").asText().equals("drawTiles")) {
+				long remaining = command.path("mask").asLong() & ~(1L << i);
+				if (remaining != 0) {
+					command.put("mask", remaining);
+					continue;
+				}
+			}
+			pending.remove(previous);
+			superseded++;
+		}
+	}
+
+	private static String keyOf(String messageType, ObjectNode command) {
+		switch (messageType) {
+		case "drawCard":
+		case "deleteCard":
+			return "hand:"+command.path("position").asInt();
+		case "setPlayer1Health":
+		case "setPlayer2Health":
+		case "setPlayer1Mana":
+		case "setPlayer2Mana":
+		case "addPlayer1Notification":
+		case "addPlayer2Notification":
+		case "setTurnTimer":
+			return messageType;
+		case "setUnitHealth":
+		case "setUnitAttack":
+			return messageType+":"+command.path("unit").path("id").asInt();
+		default:
+			return null;
+		}
+	}
+
+}
@@ -0,0 +1,53 @@
+package actors;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Keeps the most recent commands sent to a front-end, after they have been stamped with
+ * their sequence numbers, so that they can be sent again to a front-end that reconnects
+ * after missing some of them. Only the last 'capacity' commands are kept.
+ *
+ */
+public class ReplayBuffer {
+
+	private final int capacity;
+	private final Deque<ObjectNode> commands = new ArrayDeque<ObjectNode>();
+	private long lastSeq = 0; // seq of the last command added, even if it has since been dropped
+
+	public ReplayBuffer(int capacity) {
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Adds a command that has been given its seq, dropping the oldest if the buffer is full
+	 * @param command
+	 */
+	public void add(ObjectNode command) {
+		if (capacity<=0) return;
+		if (commands.size()==capacity) commands.removeFirst();
+		commands.addLast(command);
+		lastSeq = command.path("seq").asLong();
+	}
+
+	/**
+	 * Returns the commands sent after the given seq, in order, or null if some of them
+	 * have already been dropped from the buffer
+	 * @param seq the last seq the front-end received
+	 * @return
+	 */
+	public List<ObjectNode> since(long seq) {
+		List<ObjectNode> missed = new ArrayList<ObjectNode>();
+		if (seq>=lastSeq) return missed;
+		if (commands.isEmpty() || commands.peekFirst().path("seq").asLong()>seq+1) return null;
+		for (ObjectNode command : commands) {
+			if (command.path("seq").asLong()>seq) missed.add(command);
+		}
+		return missed;
+	}
+
+}
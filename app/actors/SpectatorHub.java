@@ -0,0 +1,294 @@
+package actors;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import akka.NotUsed;
+import akka.actor.AbstractActorWithTimers;
+import akka.actor.ActorRef;
+import akka.actor.Props;
+import akka.japi.Pair;
+import akka.stream.Materializer;
+import akka.stream.OverflowStrategy;
+import akka.stream.QueueOfferResult;
+import akka.stream.javadsl.Source;
+import akka.stream.javadsl.SourceQueueWithComplete;
+import play.http.websocket.Message;
+import play.libs.Json;
+import utils.GameMetrics;
+
+/**
+ * Sends the commands of a game to its spectators. The game's OutboundChannel passes on
+ * every command it sends to the players, and each command is encoded into a websocket
+ * frame once per wire format in use, with the same frame then shared by every spectator
+ * using that format. A popular game therefore costs one encode per command, not one per
+ * spectator.
+ *
+ * Each spectator has a bounded queue in front of their websocket. A spectator whose queue
+ * is full is not sent anything more (so they never hold up the game), and once they have
+ * caught up with what is queued they are sent a resync and a snapshot of the game as it
+ * is then. New spectators start from a snapshot in the same way.
+ *
+ * The hub is created by the GameActor when its first spectator arrives.
+ *
+ */
+public class SpectatorHub extends AbstractActorWithTimers {
+
+	private static final Duration RESYNC_CHECK = Duration.ofMillis(200); // how often spectators waiting for a snapshot are checked
+
+	/**
+	 * A spectator's websocket: the queue of frames waiting to be sent to it, and how to
+	 * encode commands for it
+	 */
+	public static final class Spectator {
+		private final SourceQueueWithComplete<Message> queue;
+		private final AtomicInteger pending; // frames queued but not yet taken by the websocket
+		private final int capacity;
+		private final String format; // spectators with the same format share frames
+		private final Function<JsonNode, Message> encoder;
+		private boolean started = false; // has been sent the actorReady message
+		private boolean awaitingSnapshot = true;
+		private volatile boolean dropped = false; // a frame did not fit in the queue
+
+		private Spectator(SourceQueueWithComplete<Message> queue, AtomicInteger pending, int capacity, String format,
+				Function<JsonNode, Message> encoder) {
+			this.queue = queue;
+			this.pending = pending;
+			this.capacity = capacity;
+			this.format = format;
+			this.encoder = encoder;
+		}
+
+		/**
+		 * Creates a spectator and the source of frames for its websocket
+		 * @param capacity how many frames may be queued before the spectator is resynced
+		 * @param format names the encoder, e.g. the protocol and compression
+		 * @param encoder see WebSocketCodecs.encoder
+		 * @param materializer
+		 * @return
+		 */
+		public static Pair<Spectator, Source<Message, NotUsed>> create(int capacity, String format, Function<JsonNode, Message> encoder,
+				Materializer materializer) {
+			AtomicInteger pending = new AtomicInteger();
+			// room for a snapshot on top of a full queue, see resync
+			Pair<SourceQueueWithComplete<Message>, Source<Message, NotUsed>> queue = Source.<Message>queue(capacity*2, OverflowStrategy.dropNew())
+					.map(frame -> {
+						pending.decrementAndGet();
+						return frame;
+					})
+					.preMaterialize(materializer);
+			return Pair.create(new Spectator(queue.first(), pending, capacity, format, encoder), queue.second());
+		}
+
+		private void offer(Message frame) {
+			pending.incrementAndGet();
+			queue.offer(frame).thenAccept(result -> {
+				if (result!=QueueOfferResult.enqueued()) {
+					pending.decrementAndGet();
+					dropped = true;
+				}
+			});
+		}
+
+		private int getPending() {
+			return pending.get();
+		}
+
+		/**
+		 * Closes the spectator's websocket
+		 */
+		public void close() {
+			queue.complete();
+		}
+	}
+
+	/**
+	 * Asks to watch a game, sent to the game's region (see GameSessions). Games are watched
+	 * by their spectator id, not their game id.
+	 */
+	public static final class Watch {
+		public final String spectatorId;
+		public final Spectator spectator;
+
+		public Watch(String spectatorId, Spectator spectator) {
+			this.spectatorId = spectatorId;
+			this.spectator = spectator;
+		}
+	}
+
+	/**
+	 * Tells a game the id spectators can watch it by, which it sends to its player
+	 */
+	public static final class Watchable {
+		public final String spectatorId;
+
+		public Watchable(String spectatorId) {
+			this.spectatorId = spectatorId;
+		}
+	}
+
+	/**
+	 * Asks the GameActor for a Snapshot
+	 */
+	public static final class SnapshotRequest {
+		public static final SnapshotRequest INSTANCE = new SnapshotRequest();
+
+		private SnapshotRequest() {}
+	}
+
+	/**
+	 * The actorReady message and the commands that draw the game as it is now (see GameState.redraw)
+	 */
+	public static final class Snapshot {
+		public final ObjectNode ready;
+		public final List<ObjectNode> commands;
+
+		public Snapshot(ObjectNode ready, List<ObjectNode> commands) {
+			this.ready = ready;
+			this.commands = commands;
+		}
+	}
+
+	private static final class Left {
+		final Spectator spectator;
+
+		Left(Spectator spectator) {
+			this.spectator = spectator;
+		}
+	}
+
+	private static final class ResyncCheck {
+		static final ResyncCheck INSTANCE = new ResyncCheck();
+	}
+
+	private final boolean compactAssets;
+	private final int maxSpectators;
+	private final List<Spectator> spectators = new ArrayList<Spectator>();
+	private boolean snapshotRequested = false;
+
+	public static Props props(boolean compactAssets, int maxSpectators) {
+		return Props.create(SpectatorHub.class, compactAssets, maxSpectators).withDispatcher("game-dispatcher");
+	}
+
+	public SpectatorHub(boolean compactAssets, int maxSpectators) {
+		this.compactAssets = compactAssets;
+		this.maxSpectators = maxSpectators;
+	}
+
+	@Override
+	public Receive createReceive() {
+		return receiveBuilder()
+				.match(ObjectNode.class, this::broadcast)
+				.match(Watch.class, watch -> add(watch.spectator))
+				.match(Snapshot.class, this::resync)
+				.match(ResyncCheck.class, check -> requestSnapshot())
+				.match(Left.class, left -> {
+					if (spectators.remove(left.spectator)) GameMetrics.addToGauge("spectators.watching", -1);
+				})
+				.build();
+	}
+
+	@Override
+	public void postStop() {
+		for (Spectator spectator : spectators) spectator.close();
+		GameMetrics.addToGauge("spectators.watching", -spectators.size());
+	}
+
+	private void add(Spectator spectator) {
+		if (spectators.size()>=maxSpectators) {
+			spectator.close();
+			GameMetrics.increment("spectators.refused");
+			return;
+		}
+		spectators.add(spectator);
+		GameMetrics.addToGauge("spectators.watching", 1);
+		ActorRef self = self();
+		spectator.queue.watchCompletion().whenComplete((done, error) -> self.tell(new Left(spectator), ActorRef.noSender()));
+		requestSnapshot();
+	}
+
+	/**
+	 * Sends a command the players have been sent to every spectator that is keeping up
+	 * @param command
+	 */
+	private void broadcast(ObjectNode command) {
+		Map<String, Message> frames = new HashMap<String, Message>(); // the command, encoded once per format
+		for (Spectator spectator : spectators) {
+			if (spectator.awaitingSnapshot) continue;
+			if (spectator.getPending()>=spectator.capacity || spectator.dropped) {
+				// too far behind, stop sending until it has caught up, then resync it
+				spectator.awaitingSnapshot = true;
+				spectator.dropped = false;
+				GameMetrics.increment("spectators.resyncs");
+				if (!getTimers().isTimerActive("resync")) getTimers().startTimerWithFixedDelay("resync", ResyncCheck.INSTANCE, RESYNC_CHECK);
+				continue;
+			}
+			Message frame = frames.get(spectator.format);
+			if (frame==null) {
+				frame = spectator.encoder.apply(command);
+				frames.put(spectator.format, frame);
+				GameMetrics.increment("spectators.encodes");
+			}
+			spectator.offer(frame);
+		}
+		GameMetrics.add("spectators.frames", spectators.size());
+	}
+
+	/**
+	 * Asks the game for a snapshot if a spectator is waiting for one and has caught up
+	 */
+	private void requestSnapshot() {
+		if (snapshotRequested) return;
+		for (Spectator spectator : spectators) {
+			if (spectator.awaitingSnapshot && spectator.getPending()==0) {
+				getContext().getParent().tell(SnapshotRequest.INSTANCE, self());
+				snapshotRequested = true;
+				return;
+			}
+		}
+		if (spectators.stream().noneMatch(spectator -> spectator.awaitingSnapshot)) getTimers().cancel("resync");
+	}
+
+	/**
+	 * Sends the snapshot to every spectator that is waiting for one and has caught up
+	 * @param snapshot
+	 */
+	private void resync(Snapshot snapshot) {
+		snapshotRequested = false;
+		List<ObjectNode> commands = new ArrayList<ObjectNode>();
+		for (ObjectNode command : snapshot.commands) commands.addAll(OutboundChannel.prepare(command, compactAssets));
+		ObjectNode resync = Json.newObject();
+		resync.put("messagetype", "resync");
+
+		Map<String, List<Message>> frames = new HashMap<String, List<Message>>(); // the snapshot, encoded once per format
+		boolean waiting = false;
+		for (Spectator spectator : spectators) {
+			if (!spectator.awaitingSnapshot) continue;
+			if (spectator.getPending()>0) {
+				waiting = true;
+				continue;
+			}
+			spectator.offer(spectator.encoder.apply(spectator.started ? resync : snapshot.ready));
+			List<Message> encoded = frames.get(spectator.format);
+			if (encoded==null) {
+				encoded = new ArrayList<Message>();
+				for (ObjectNode command : commands) encoded.add(spectator.encoder.apply(command));
+				frames.put(spectator.format, encoded);
+			}
+			for (Message frame : encoded) spectator.offer(frame);
+			spectator.started = true;
+			spectator.awaitingSnapshot = false;
+		}
+		if (waiting && !getTimers().isTimerActive("resync")) getTimers().startTimerWithFixedDelay("resync", ResyncCheck.INSTANCE, RESYNC_CHECK);
+		else if (!waiting) getTimers().cancel("resync");
+	}
+
+}
@@ -12,6 +12,62 @@ function initHexi(preloadImages) {
 	
 }
 
+// Templates sent in the actorReady message when using the compact asset-id protocol.
+// Commands then refer to these by id, and expandTemplates puts the full objects back.
+let unitTemplates = [];
+let cardTemplates = [];
+let effectTemplates = [];
+let tileTemplate = null;
+
+function loadTemplates(assets, templates) {
+	
+	var toPaths = function(ids) { return ids.map(function(id) { return assets[id]; }); };
+	
+	unitTemplates = templates.units.map(function(animations) {
+		var expanded = Object.assign({}, animations);
+		expanded.allFrames = toPaths(animations.allFrames);
+		return expanded;
+	});
+	
+	cardTemplates = templates.cards.map(function(card) {
+		var expanded = JSON.parse(JSON.stringify(card));
+		expanded.miniCard.cardTextures = toPaths(card.miniCard.cardTextures);
+		expanded.miniCard.animationFrames = toPaths(card.miniCard.animationFrames);
+		expanded.bigCard.cardTextures = toPaths(card.bigCard.cardTextures);
+		return expanded;
+	});
+	
+	effectTemplates = templates.effects.map(function(effect) {
+		var expanded = Object.assign({}, effect);
+		expanded.animationTextures = toPaths(effect.animationTextures);
+		return expanded;
+	});
+	
+	// keep the grid geometry (xpos, ypos, xstep, ystep, width, height) as well as the textures
+	tileTemplate = Object.assign({}, templates.tile);
+	tileTemplate.tileTextures = toPaths(templates.tile.tileTextures);
+}
+
+function expandTemplates(message) {
+	
+	if (message.unit !== undefined && message.unit.template !== undefined) {
+		message.unit.animations = unitTemplates[message.unit.template];
+	}
+	if (message.card !== undefined && message.card.template !== undefined) {
+		var card = JSON.parse(JSON.stringify(cardTemplates[message.card.template]));
+		card.id = message.card.id;
+		card.manacost = message.card.manacost;
+		message.card = card;
+	}
+	if (message.effect !== undefined && message.effect.template !== undefined) {
+		message.effect = effectTemplates[message.effect.template];
+	}
+	if (tileTemplate !== null) {
+		if (message.tile !== undefined && message.tile.tileTextures === undefined) message.tile.tileTextures = tileTemplate.tileTextures;
+		if (message.targetTile !== undefined && message.targetTile.tileTextures === undefined) message.targetTile.tileTextures = tileTemplate.tileTextures;
+	}
+}
+
 //2. The `load` function that will run while your files are loading
 
 function load(){
@@ -52,10 +108,30 @@ function setup() {
   g.state = play;
 }
 
+// Sends an event to the game server. When batchEvents is on the event is held until the
+// end of the current tick of the game loop, and all of the events from that tick are sent
+// together as { messagetype: "batch", events: [...] }, in the order they were made.
+function sendEvent(event) {
+	if (!batchEvents) {
+		ws.send(JSON.stringify(event));
+		return;
+	}
+	outboundEvents.push(event);
+}
+
+function flushEvents() {
+	if (outboundEvents.length==0) return;
+	var events = outboundEvents;
+	outboundEvents = [];
+	if (ws.readyState !== WebSocket.OPEN) return; // as with ws.send, they are not kept for a new connection
+	if (events.length==1) ws.send(JSON.stringify(events[0]));
+	else ws.send(JSON.stringify({ messagetype: "batch", events: events }));
+}
+
 function bgClicked(eventData) {
-	ws.send(JSON.stringify({
+	sendEvent({
     		messagetype: "otherclicked"
-  	}));
+  	});
 }
 
 function drawTile(message) {
@@ -85,12 +161,38 @@ function drawTile(message) {
 	
 }
 
+// Sets the mode of every tile in a 45-bit mask, where tile [x,y] is bit (y-1)*9+(x-1).
+// Tiles that have not been drawn before are placed using the tile template.
+function drawTiles(message) {
+	
+	var mask = message.mask;
+	for (var i = 0; i < 45 && mask > 0; i++) {
+		if (mask % 2 == 1) {
+			var tilex = (i % 9)+1;
+			var tiley = Math.floor(i / 9)+1;
+			drawTile({
+				tile: {
+					tilex: tilex,
+					tiley: tiley,
+					xpos: tileTemplate.xpos+(tilex-1)*tileTemplate.xstep,
+					ypos: tileTemplate.ypos+(tiley-1)*tileTemplate.ystep,
+					width: tileTemplate.width,
+					height: tileTemplate.height,
+					tileTextures: tileTemplate.tileTextures
+				},
+				mode: message.mode
+			});
+		}
+		mask = Math.floor(mask / 2); // the mask is wider than the 32 bits JavaScript bitwise operators use
+	}
+}
+
 function tileClicked(eventData) {
-	ws.send(JSON.stringify({
+	sendEvent({
     		messagetype: "tileclicked",
             tilex: eventData.target.tilex,
             tiley: eventData.target.tiley,
-  	}));
+  	});
 }
 
 function drawCard(message) {
@@ -235,10 +337,10 @@ function renderCardPreview(position) {
 
 function cardClicked(eventData) {
 	renderCardPreview(eventData.target.cardindex);
-	ws.send(JSON.stringify({
+	sendEvent({
     		messagetype: "cardclicked",
             position: eventData.target.cardindex
-  	}));
+  	});
 }
 
 
@@ -342,12 +444,12 @@ function getFrameSet(unit) {
 
 // Starts a move action for a Unit
 function moveUnit(unitID, xTile, yTile) {
-	ws.send(JSON.stringify({
+	sendEvent({
     		messagetype: "getTileForMove",
 			unitID: unitID,
 			xTile: xTile,
 			yTile: yTile
-  		}));
+  		});
 }
 
 function moveUnitToTile(message) {
@@ -365,10 +467,10 @@ function executeMoveStep(message) {
 	if (message.unit.animation != "move") {
 		targetUnit.stopAnimation();
 		
-		ws.send(JSON.stringify({
+		sendEvent({
     		messagetype: "unitMoving",
 			id: message.unit.id
-  		}));
+  		});
 		
 		message.unit.animation = "move";
 		targetUnit.fps = message.unit.animations.move.fps;
@@ -448,12 +550,12 @@ function executeMoveStep(message) {
 	  var sprite = sprites.get(message.unit.id);
 	  sprite.stopAnimation();
 
-	  ws.send(JSON.stringify({
+	  sendEvent({
     		messagetype: "unitstopped",
 			id: message.unit.id,
 			tilex: message.tile.tilex,
 			tiley: message.tile.tiley
-  	  }));
+  	  });
 
 	  message.unit.animation = "idle";
 	  targetUnit.fps = message.unit.animations.idle.fps;
@@ -696,10 +798,35 @@ function renderEndTurnButton() {
 	
 }
 
+// Turn time limit, counted down here from the deadline sent by the server in a
+// setTurnTimer command, so the server only sends one command per turn
+let turnTimerText = null;
+let turnDeadline = 0;
+
+function setTurnTimer(message) {
+	turnDeadline = message.seconds > 0 ? Date.now()+message.seconds*1000 : 0;
+	if (turnTimerText==null) {
+		turnTimerText = new PIXI.Text('', { font: '28px Roboto', fill: 'white', align: 'center' });
+		turnTimerText.position.x = 1720;
+		turnTimerText.position.y = 1060;
+		g.stage.addChild(turnTimerText);
+	}
+	updateTurnTimer();
+}
+
+function updateTurnTimer() {
+	if (turnTimerText==null) return;
+	var seconds = turnDeadline > 0 ? Math.max(0, Math.ceil((turnDeadline-Date.now())/1000)) : 0;
+	var text = turnDeadline > 0 ? seconds+"s" : "";
+	if (turnTimerText.text === text) return;
+	turnTimerText.text = text;
+	turnTimerText.style = { font: '28px Roboto', fill: seconds <= 10 ? 'red' : 'white', align: 'center' };
+}
+
 function endturnClicked(eventData) {
-	ws.send(JSON.stringify({
+	sendEvent({
     		messagetype: "endturnclicked"
-  	}));
+  	});
 }
 
 
@@ -907,6 +1034,24 @@ function deleteUnit(message) {
 	healthLabels.delete(message.unit.id);
 }
 
+// Clears the units and cards drawn so far, the server is about to redraw the whole game
+// (after a reconnect where replaying the missed commands would cost more)
+function resetGameView() {
+	for (let [unitID, unitContainer] of spriteContainers) {
+		g.stage.removeChild(unitContainer);
+	}
+	spriteContainers.clear();
+	sprites.clear();
+	attackLabels.clear();
+	healthLabels.clear();
+	for (var i = 0; i < handContainers.length; i++) {
+		if (handContainers[i]!==null) deleteCard({ position: i+1 });
+	}
+	activeMoves.clear();
+	drawUnitQueue = [];
+	drawTileQueue = [];
+}
+
 
 function playEffectAnimation(message) {
 	
@@ -939,9 +1084,9 @@ function play(){
   if (gameActorInitalized) {
 	
 	if (!gameStart) {
-		ws.send(JSON.stringify({
+		sendEvent({
     		messagetype: "initalize"
-  		}));
+  		});
         gameStart = true;
 
 		renderPlayer1Card();
@@ -949,9 +1094,11 @@ function play(){
 		renderEndTurnButton();
 	}
 	
-	// Draw Tile Actions
+	// Draw Tile Actions (in the order they arrived, as later commands can override earlier ones)
 	while (drawTileQueue.length>0) {
-		drawTile(drawTileQueue.pop());
+		var tileMessage = drawTileQueue.shift();
+		if (tileMessage.messagetype === "drawTiles") drawTiles(tileMessage);
+		else drawTile(tileMessage);
 	}
 	
 	// Draw Tile Actions
@@ -959,6 +1106,9 @@ function play(){
 		drawUnit(drawUnitQueue.pop());
 	}
 	
+	// everything received so far has now been acted on
+	lastProcessedSeq = lastReceivedSeq;
+	
 	var continuingProjectiles = [];
 	for (i = 0; i < activeProjectiles.length; i++) {
 		if(!executeProjectileMoveStep(activeProjectiles[i])) {
@@ -981,6 +1131,8 @@ function play(){
       activeMoves.delete(completedMoves[i]);
     }
 
+	updateTurnTimer();
+
 	if (player1Notification!==null) {
 		player1Notification.countdown = player1Notification.countdown-1;
 		if (player1Notification.countdown<=0) {
@@ -1025,14 +1177,21 @@ function play(){
 
 	sinceLastHeartbeat = sinceLastHeartbeat+1;
 	if (sinceLastHeartbeat==120) {
-		ws.send(JSON.stringify({
-    		messagetype: "heartbeat"
-        }));
+		sendEvent({
+    		messagetype: "heartbeat",
+			lastSeq: lastProcessedSeq,
+			receivedSeq: lastReceivedSeq,
+			receivedHold: Date.now()-lastReceivedAt,
+			clientTime: Date.now()
+        });
         sinceLastHeartbeat = 1;
 	}
     				
   }
 
+  // everything the loop and the event handlers produced since the last tick goes in one frame
+  flushEvents();
+
   
 
 }
\ No newline at end of file
@@ -0,0 +1,107 @@
+// A small CBOR (https://cbor.io) decoder, covering the subset of CBOR that the
+// game server's Jackson CBOR encoder produces for Json commands: integers, floats,
+// strings, byte strings, arrays and maps (definite and indefinite length),
+// true/false/null. decodeCBOR takes an ArrayBuffer and returns the decoded value.
+
+function decodeCBOR(buffer) {
+	
+	var view = new DataView(buffer);
+	var bytes = new Uint8Array(buffer);
+	var textDecoder = new TextDecoder("utf-8");
+	var offset = 0;
+	
+	function readLength(info) {
+		if (info < 24) return info;
+		if (info == 24) { var v = view.getUint8(offset); offset += 1; return v; }
+		if (info == 25) { var v = view.getUint16(offset); offset += 2; return v; }
+		if (info == 26) { var v = view.getUint32(offset); offset += 4; return v; }
+		if (info == 27) {
+			var hi = view.getUint32(offset);
+			var lo = view.getUint32(offset+4);
+			offset += 8;
+			return hi*4294967296+lo;
+		}
+		if (info == 31) return -1; // indefinite length
+		throw new Error("Invalid CBOR length "+info);
+	}
+	
+	function readHalf() {
+		var half = view.getUint16(offset);
+		offset += 2;
+		var exp = (half >> 10) & 0x1f;
+		var mant = half & 0x3ff;
+		var value;
+		if (exp === 0) value = mant * Math.pow(2, -24);
+		else if (exp !== 31) value = (mant + 1024) * Math.pow(2, exp - 25);
+		else value = (mant === 0 ? Infinity : NaN);
+		return (half & 0x8000) ? -value : value;
+	}
+	
+	function isBreak() {
+		if (bytes[offset] === 0xff) {
+			offset += 1;
+			return true;
+		}
+		return false;
+	}
+	
+	function readItem() {
+		var initial = bytes[offset];
+		offset += 1;
+		var major = initial >> 5;
+		var info = initial & 0x1f;
+		
+		switch (major) {
+			case 0: // unsigned integer
+				return readLength(info);
+			case 1: // negative integer
+				return -1-readLength(info);
+			case 2: // byte string
+			case 3: { // text string
+				var length = readLength(info);
+				var chunks = [];
+				if (length < 0) {
+					while (!isBreak()) chunks.push(readItem());
+					return major == 3 ? chunks.join("") : chunks;
+				}
+				var slice = bytes.subarray(offset, offset+length);
+				offset += length;
+				return major == 3 ? textDecoder.decode(slice) : slice;
+			}
+			case 4: { // array
+				var length = readLength(info);
+				var array = [];
+				if (length < 0) {
+					while (!isBreak()) array.push(readItem());
+				} else {
+					for (var i = 0; i < length; i++) array.push(readItem());
+				}
+				return array;
+			}
+			case 5: { // map
+				var length = readLength(info);
+				var map = {};
+				if (length < 0) {
+					while (!isBreak()) { var key = readItem(); map[key] = readItem(); }
+				} else {
+					for (var i = 0; i < length; i++) { var key = readItem(); map[key] = readItem(); }
+				}
+				return map;
+			}
+			case 6: // tag, the tagged value is returned as is
+				readLength(info);
+				return readItem();
+			case 7: // simple values and floats
+				if (info == 20) return false;
+				if (info == 21) return true;
+				if (info == 22) return null;
+				if (info == 23) return undefined;
+				if (info == 25) return readHalf();
+				if (info == 26) { var v = view.getFloat32(offset); offset += 4; return v; }
+				if (info == 27) { var v = view.getFloat64(offset); offset += 8; return v; }
+				throw new Error("Unsupported CBOR simple value "+info);
+		}
+	}
+	
+	return readItem();
+}
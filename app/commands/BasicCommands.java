@@ -1,5 +1,8 @@
 package commands;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
@@ -12,6 +15,7 @@ import structures.basic.Tile;
 import structures.basic.Unit;
 import structures.basic.UnitAnimation;
 import structures.basic.UnitAnimationType;
+import utils.BoardMask;
 
 
 /**
@@ -28,6 +32,58 @@ public class BasicCommands {
 	// An alternative class with a 'tell' implementation can be given if writing unit tests
 	// and need to have a null ActorRef. This should be null during normal operation.
 	public static DummyTell altTell = null;
+
+	// While a thread is capturing, commands it sends are added to this list rather than being
+	// sent to the ActorRef. This is used when the caller wants to handle the commands itself,
+	// e.g. the GamePipeline, which passes them down an Akka Stream.
+	private static final ThreadLocal<List<ObjectNode>> captured = new ThreadLocal<List<ObjectNode>>();
+
+	/**
+	 * Starts capturing the commands sent by this thread into the given list
+	 * @param into
+	 */
+	public static void startCapture(List<ObjectNode> into) {
+		captured.set(into);
+	}
+
+	/**
+	 * Stops capturing the commands sent by this thread, they are sent normally again
+	 */
+	public static void stopCapture() {
+		captured.remove();
+	}
+
+	/**
+	 * Runs some work and returns the commands it sends, rather than sending them. Unlike
+	 * startCapture, this can be used while the thread is already capturing, which carries
+	 * on afterwards.
+	 * @param work
+	 * @return
+	 */
+	public static List<ObjectNode> capture(Runnable work) {
+		List<ObjectNode> previous = captured.get();
+		List<ObjectNode> commands = new ArrayList<ObjectNode>();
+		captured.set(commands);
+		try {
+			work.run();
+		} finally {
+			if (previous==null) captured.remove();
+			else captured.set(previous);
+		}
+		return commands;
+	}
+
+	/**
+	 * Sends a command to the front-end, via altTell or this thread's capture list if set
+	 * @param out
+	 * @param message
+	 */
+	public static void send(ActorRef out, ObjectNode message) {
+		List<ObjectNode> capture = captured.get();
+		if (capture!=null) capture.add(message);
+		else if (altTell!=null) altTell.tell(message);
+		else out.tell(message, out);
+	}
 	
 	
 	/**
@@ -46,13 +102,44 @@ public class BasicCommands {
 			returnMessage.put("messagetype", "drawTile");
 			returnMessage.put("tile", mapper.readTree(mapper.writeValueAsString(tile)));
 			returnMessage.put("mode", mode);
-			if (altTell!=null) altTell.tell(returnMessage);
-			else out.tell(returnMessage, out);
+			send(out, returnMessage);
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
 	}
 	
+	/**
+	 * drawTiles sets the visualisation mode of many tiles at once, e.g. when highlighting all of the tiles
+	 * a unit could be summoned on. The tiles are given as a 45-bit mask (see BoardMask) so the command is only
+	 * a few bytes long, rather than one drawTile command with a full Tile per tile. Nothing is sent if the mask
+	 * is empty.
+	 * @param out
+	 * @param tileMask
+	 * @param mode
+	 */
+	public static void drawTiles(ActorRef out, long tileMask, int mode) {
+		if (tileMask==0) return;
+		try {
+			ObjectNode returnMessage = Json.newObject();
+			returnMessage.put("messagetype", "drawTiles");
+			returnMessage.put("mask", tileMask);
+			returnMessage.put("mode", mode);
+			send(out, returnMessage);
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * drawTiles sets the visualisation mode of a list of tiles at once, see drawTiles(out, tileMask, mode)
+	 * @param out
+	 * @param tiles
+	 * @param mode
+	 */
+	public static void drawTiles(ActorRef out, List<Tile> tiles, int mode) {
+		drawTiles(out, BoardMask.of(tiles), mode);
+	}
+	
 	/**
 	 * drawUnit will draw the sprite for a unit (a picture of that unit with its attack and health values) on the board. 
 	 * This command takes as input a target Tile (a ‘square’ of the main game grid) to place the unit’s sprite upon, 
@@ -68,8 +155,7 @@ public class BasicCommands {
 			returnMessage.put("messagetype", "drawUnit");
 			returnMessage.put("tile", mapper.readTree(mapper.writeValueAsString(tile)));
 			returnMessage.put("unit", mapper.readTree(mapper.writeValueAsString(unit)));
-			if (altTell!=null) altTell.tell(returnMessage);
-			else out.tell(returnMessage, out);
+			send(out, returnMessage);
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
@@ -89,8 +175,7 @@ public class BasicCommands {
 			returnMessage.put("messagetype", "setUnitAttack");
 			returnMessage.put("unit", mapper.readTree(mapper.writeValueAsString(unit)));
 			returnMessage.put("attack", attack);
-			if (altTell!=null) altTell.tell(returnMessage);
-			else out.tell(returnMessage, out);
+			send(out, returnMessage);
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
@@ -110,8 +195,7 @@ public class BasicCommands {
 			returnMessage.put("messagetype", "setUnitHealth");
 			returnMessage.put("unit", mapper.readTree(mapper.writeValueAsString(unit)));
 			returnMessage.put("health", health);
-			if (altTell!=null) altTell.tell(returnMessage);
-			else out.tell(returnMessage, out);
+			send(out, returnMessage);
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
@@ -131,8 +215,7 @@ public class BasicCommands {
 			returnMessage.put("messagetype", "moveUnitToTile");
 			returnMessage.put("unit", mapper.readTree(mapper.writeValueAsString(unit)));
 			returnMessage.put("tile", mapper.readTree(mapper.writeValueAsString(tile)));
-			if (altTell!=null) altTell.tell(returnMessage);
-			else out.tell(returnMessage, out);
+			send(out, returnMessage);
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
@@ -155,8 +238,7 @@ public class BasicCommands {
 			returnMessage.put("yfirst", yfirst);
 			returnMessage.put("unit", mapper.readTree(mapper.writeValueAsString(unit)));
 			returnMessage.put("tile", mapper.readTree(mapper.writeValueAsString(tile)));
-			if (altTell!=null) altTell.tell(returnMessage);
-			else out.tell(returnMessage, out);
+			send(out, returnMessage);
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
@@ -183,8 +265,7 @@ public class BasicCommands {
 			returnMessage.put("messagetype", "playUnitAnimation");
 			returnMessage.put("unit", mapper.readTree(mapper.writeValueAsString(unit)));
 			returnMessage.put("animation", animationToPlay.toString());
-			if (altTell!=null) altTell.tell(returnMessage);
-			else out.tell(returnMessage, out);
+			send(out, returnMessage);
 			
 			// estimate the time needed for the animation to play
 			UnitAnimation animation = null;
@@ -217,8 +298,7 @@ public class BasicCommands {
 			ObjectNode returnMessage = Json.newObject();
 			returnMessage.put("messagetype", "deleteUnit");
 			returnMessage.put("unit", mapper.readTree(mapper.writeValueAsString(unit)));
-			if (altTell!=null) altTell.tell(returnMessage);
-			else out.tell(returnMessage, out);
+			send(out, returnMessage);
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
@@ -237,8 +317,7 @@ public class BasicCommands {
 			ObjectNode returnMessage = Json.newObject();
 			returnMessage.put("messagetype", "setPlayer1Health");
 			returnMessage.put("player", mapper.readTree(mapper.writeValueAsString(player)));
-			if (altTell!=null) altTell.tell(returnMessage);
-			else out.tell(returnMessage, out);
+			send(out, returnMessage);
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
@@ -257,8 +336,7 @@ public class BasicCommands {
 			ObjectNode returnMessage = Json.newObject();
 			returnMessage.put("messagetype", "setPlayer2Health");
 			returnMessage.put("player", mapper.readTree(mapper.writeValueAsString(player)));
-			if (altTell!=null) altTell.tell(returnMessage);
-			else out.tell(returnMessage, out);
+			send(out, returnMessage);
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
@@ -277,8 +355,7 @@ public class BasicCommands {
 			ObjectNode returnMessage = Json.newObject();
 			returnMessage.put("messagetype", "setPlayer1Mana");
 			returnMessage.put("player", mapper.readTree(mapper.writeValueAsString(player)));
-			if (altTell!=null) altTell.tell(returnMessage);
-			else out.tell(returnMessage, out);
+			send(out, returnMessage);
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
@@ -297,8 +374,7 @@ public class BasicCommands {
 			ObjectNode returnMessage = Json.newObject();
 			returnMessage.put("messagetype", "setPlayer2Mana");
 			returnMessage.put("player", mapper.readTree(mapper.writeValueAsString(player)));
-			if (altTell!=null) altTell.tell(returnMessage);
-			else out.tell(returnMessage, out);
+			send(out, returnMessage);
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
@@ -321,8 +397,7 @@ public class BasicCommands {
 			returnMessage.put("card", mapper.readTree(mapper.writeValueAsString(card)));
 			returnMessage.put("position", position);
 			returnMessage.put("mode", mode);
-			if (altTell!=null) altTell.tell(returnMessage);
-			else out.tell(returnMessage, out);
+			send(out, returnMessage);
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
@@ -338,8 +413,7 @@ public class BasicCommands {
 			ObjectNode returnMessage = Json.newObject();
 			returnMessage.put("messagetype", "deleteCard");
 			returnMessage.put("position", position);
-			if (altTell!=null) altTell.tell(returnMessage);
-			else out.tell(returnMessage, out);
+			send(out, returnMessage);
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
@@ -361,8 +435,7 @@ public class BasicCommands {
 			returnMessage.put("messagetype", "playEffectAnimation");
 			returnMessage.put("effect", mapper.readTree(mapper.writeValueAsString(effect)));
 			returnMessage.put("tile", mapper.readTree(mapper.writeValueAsString(tile)));
-			if (altTell!=null) altTell.tell(returnMessage);
-			else out.tell(returnMessage, out);
+			send(out, returnMessage);
 			
 			return ((1000*effect.getAnimationTextures().size())/effect.getFps())+50;
 		} catch (Exception e) {
@@ -385,8 +458,24 @@ public class BasicCommands {
 			returnMessage.put("messagetype", "addPlayer1Notification");
 			returnMessage.put("text", text);
 			returnMessage.put("seconds", displayTimeSeconds);
-			if (altTell!=null) altTell.tell(returnMessage);
-			else out.tell(returnMessage, out);
+			send(out, returnMessage);
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * This command starts the turn countdown shown under the end turn button. The front-end
+	 * counts down by itself, so this is only sent when a turn starts. 0 hides the countdown.
+	 * @param out
+	 * @param seconds
+	 */
+	public static void setTurnTimer(ActorRef out, int seconds) {
+		try {
+			ObjectNode returnMessage = Json.newObject();
+			returnMessage.put("messagetype", "setTurnTimer");
+			returnMessage.put("seconds", seconds);
+			send(out, returnMessage);
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
@@ -407,8 +496,7 @@ public class BasicCommands {
 			returnMessage.put("tile", mapper.readTree(mapper.writeValueAsString(startTile)));
 			returnMessage.put("targetTile", mapper.readTree(mapper.writeValueAsString(targetTile)));
 			returnMessage.put("mode", mapper.readTree(mapper.writeValueAsString(mode)));
-			if (altTell!=null) altTell.tell(returnMessage);
-			else out.tell(returnMessage, out);
+			send(out, returnMessage);
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
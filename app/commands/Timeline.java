@@ -0,0 +1,91 @@
+package commands;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
+
+import akka.actor.ActorRef;
+
+/**
+ * A Timeline is a sequence of commands to send to the front-end with delays between
+ * them, for instance a unit attacking, the target being hit, and then the target dying.
+ * Rather than calling Thread.sleep between commands (which blocks the GameActor, and
+ * the Akka thread it runs on, for the whole sequence), an event processor builds a
+ * Timeline and hands it to the GameState:
+ *
+ *   gameState.play(new Timeline()
+ *       .play(o -> BasicCommands.playUnitAnimation(o, attacker, UnitAnimationType.attack))
+ *       .play(o -> BasicCommands.playUnitAnimation(o, target, UnitAnimationType.hit))
+ *       .pause(200)
+ *       .run(o -> BasicCommands.deleteUnit(o, target)));
+ *
+ * The GameActor then runs the steps using Akka timers once the event has been processed.
+ * Steps are always run by the GameActor, so they can safely read and update the GameState.
+ *
+ */
+public class Timeline {
+
+	private final List<ToIntFunction<ActorRef>> steps = new ArrayList<ToIntFunction<ActorRef>>();
+	private int nextStep = 0;
+
+	/**
+	 * Adds a step that runs a command and then waits for the number of milliseconds that
+	 * it returns before moving on, e.g. the estimate from BasicCommands.playUnitAnimation
+	 * or BasicCommands.playEffectAnimation.
+	 * @param step
+	 * @return
+	 */
+	public Timeline play(ToIntFunction<ActorRef> step) {
+		steps.add(step);
+		return this;
+	}
+
+	/**
+	 * Adds a step that runs a command and moves straight on to the next step
+	 * @param step
+	 * @return
+	 */
+	public Timeline run(Consumer<ActorRef> step) {
+		steps.add(out -> {
+			step.accept(out);
+			return 0;
+		});
+		return this;
+	}
+
+	/**
+	 * Adds a wait of a number of milliseconds before the next step
+	 * @param millis
+	 * @return
+	 */
+	public Timeline pause(int millis) {
+		steps.add(out -> millis);
+		return this;
+	}
+
+	/**
+	 * Runs steps until one of them asks for a wait, or the timeline ends. Returns
+	 * the number of milliseconds to wait before calling advance again, or -1 if
+	 * there are no steps left.
+	 * @param out
+	 * @return
+	 */
+	public int advance(ActorRef out) {
+		while (nextStep < steps.size()) {
+			int wait = steps.get(nextStep).applyAsInt(out);
+			nextStep++;
+			if (wait > 0 && nextStep < steps.size()) return wait;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns true once all steps have been run
+	 * @return
+	 */
+	public boolean isFinished() {
+		return nextStep >= steps.size();
+	}
+
+}
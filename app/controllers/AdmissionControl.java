@@ -0,0 +1,141 @@
+package controllers;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+
+import com.typesafe.config.Config;
+
+import actors.GameActorMailbox;
+import utils.GameMetrics;
+
+/**
+ * Decides whether the server has room for a new game session, so that a saturated node
+ * turns new players away (with a Retry-After) rather than making every game slower. It
+ * looks at three signals (limits in game.admission in application.conf):
+ *  - heap: the share of the old generation still in use after the last garbage collection.
+ *    The heap in use at any moment includes garbage that has not been collected yet, and
+ *    a healthy node passes 90% of it just before each collection.
+ *  - mailbox: the number of messages waiting in all GameActor mailboxes
+ *  - latency: the 99th percentile time GameActors take to handle an event. This only
+ *    counts while events are still arriving, so a busy spell that has passed does not
+ *    keep new sessions out.
+ *
+ * The signals are read at most once per check-interval, however many sessions are
+ * opened, and the last reading is kept for the connections in between.
+ *
+ */
+public class AdmissionControl {
+
+	private static final String LATENCY_HISTOGRAM = "events.actor.micros";
+
+	private final boolean enabled;
+	private final double maxHeapUsed;
+	private final long maxQueuedMessages;
+	private final long maxEventP99Micros;
+	private final long retryAfterSeconds;
+	private final long checkIntervalNanos;
+	private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+	private final MemoryPoolMXBean tenured = findTenuredPool(); // null if there is no pool to read
+
+	private volatile String lastReason = null;
+	private volatile long lastCheck = 0;
+	private long lastSampleCount = -1;
+
+	/**
+	 * @param admission the game.admission section of the configuration
+	 */
+	public AdmissionControl(Config admission) {
+		this.enabled = admission.getBoolean("enabled");
+		this.maxHeapUsed = admission.getDouble("max-heap-used");
+		this.maxQueuedMessages = admission.getLong("max-queued-messages");
+		this.maxEventP99Micros = admission.getDuration("max-event-p99").toNanos()/1000;
+		this.retryAfterSeconds = Math.max(1, admission.getDuration("retry-after").getSeconds());
+		this.checkIntervalNanos = admission.getDuration("check-interval").toNanos();
+	}
+
+	/**
+	 * Returns why a new session should be turned away, or null if it can be admitted
+	 * @return
+	 */
+	public String rejectReason() {
+		if (!enabled) return null;
+		long now = System.nanoTime();
+		if (lastCheck==0 || now-lastCheck >= checkIntervalNanos) {
+			synchronized (this) {
+				if (lastCheck==0 || now-lastCheck >= checkIntervalNanos) {
+					lastReason = readSignals();
+					lastCheck = now;
+				}
+			}
+		}
+		String reason = lastReason;
+		if (reason==null) GameMetrics.increment("admission.admitted");
+		else GameMetrics.increment("admission.rejected."+reason);
+		return reason;
+	}
+
+	/**
+	 * How long a rejected front-end should wait before trying again
+	 * @return
+	 */
+	public long getRetryAfterSeconds() {
+		return retryAfterSeconds;
+	}
+
+	/**
+	 * The heap memory pool that holds long lived objects, whose usage after a collection
+	 * shows how much memory the games really need: the old generation, or the only heap
+	 * pool of a collector without generations. Returns null if there is none.
+	 * @return
+	 */
+	public static MemoryPoolMXBean findTenuredPool() {
+		MemoryPoolMXBean found = null;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType()!=MemoryType.HEAP || !pool.isCollectionUsageThresholdSupported()) continue;
+			if (pool.getName().contains("Old") || pool.getName().contains("Tenured")) return pool;
+			if (found==null) found = pool;
+		}
+		return found;
+	}
+
+	private String readSignals() {
+		long heapUsed;
+		long heapMax = memory.getHeapMemoryUsage().getMax();
+		if (tenured!=null) {
+			MemoryUsage afterGc = tenured.getCollectionUsage();
+			MemoryUsage now = tenured.getUsage();
+			// until the pool is first collected, what is in it has only just been promoted
+			heapUsed = afterGc!=null && afterGc.getUsed()>0 ? afterGc.getUsed() : now.getUsed();
+			if (now.getMax()>0) heapMax = now.getMax();
+		} else heapUsed = memory.getHeapMemoryUsage().getUsed();
+		long queued = GameActorMailbox.getQueued();
+		long sampleCount = GameMetrics.getSampleCount(LATENCY_HISTOGRAM);
+		boolean eventsArriving = lastSampleCount>=0 && sampleCount!=lastSampleCount;
+		lastSampleCount = sampleCount;
+		long p99 = eventsArriving ? GameMetrics.getPercentile(LATENCY_HISTOGRAM, 99) : 0;
+
+		GameMetrics.setGauge("admission.heapUsedPercent", heapMax>0 ? heapUsed*100/heapMax : 0);
+		GameMetrics.setGauge("admission.queuedMessages", queued);
+		return decide(heapUsed, heapMax, queued, p99);
+	}
+
+	/**
+	 * Compares the signals with the limits, returning the first that is over its limit
+	 * ("heap", "mailbox" or "latency"), or null if none are
+	 * @param heapUsed
+	 * @param heapMax -1 if there is no maximum
+	 * @param queuedMessages
+	 * @param eventP99Micros 0 if no events are arriving
+	 * @return
+	 */
+	public String decide(long heapUsed, long heapMax, long queuedMessages, long eventP99Micros) {
+		if (heapMax>0 && heapUsed > maxHeapUsed*heapMax) return "heap";
+		if (queuedMessages > maxQueuedMessages) return "mailbox";
+		if (eventP99Micros > maxEventP99Micros) return "latency";
+		return null;
+	}
+
+}
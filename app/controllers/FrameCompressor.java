@@ -0,0 +1,115 @@
+package controllers;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Deflater;
+
+import utils.GameMetrics;
+
+/**
+ * Deflate compresses websocket frames for sessions that ask for it. Our version of the
+ * Akka HTTP server does not support the permessage-deflate websocket extension, so frames
+ * are compressed by the game server instead: a compressed frame is a binary frame that
+ * starts with a 0 byte, followed by the original frame in zlib deflate format.
+ *
+ * Compression is adaptive:
+ *  - frames smaller than the threshold are never compressed (e.g. setPlayer1Mana), as the
+ *    saving is a few bytes at best
+ *  - for each message type we keep the average compressed size; if a type does not save
+ *    at least minSaving of its size it stops being compressed, apart from one in every
+ *    PROBE_INTERVAL frames which are compressed to check whether this has changed
+ *
+ * The compression ratio and the time spent compressing are recorded in GameMetrics.
+ *
+ */
+public class FrameCompressor {
+
+	public static final byte MARKER = 0; // first byte of a compressed frame
+	public static final int PROBE_INTERVAL = 32;
+
+	private final int threshold;
+	private final int level;
+	private final double minSaving;
+
+	private final Map<String,TypeStats> statsByType = new ConcurrentHashMap<String,TypeStats>();
+
+	private final ThreadLocal<Deflater> deflaters;
+
+	public FrameCompressor(int threshold, int level, double minSaving) {
+		this.threshold = threshold;
+		this.level = level;
+		this.minSaving = minSaving;
+		this.deflaters = ThreadLocal.withInitial(() -> new Deflater(this.level));
+	}
+
+	/**
+	 * Returns the compressed frame (including the marker byte) for a payload, or null if
+	 * the payload should be sent as it is
+	 * @param messageType
+	 * @param payload
+	 * @return
+	 */
+	public byte[] compress(String messageType, byte[] payload) {
+		if (payload.length < threshold) {
+			GameMetrics.increment("compression.skipped.small");
+			return null;
+		}
+
+		TypeStats stats = statsByType.computeIfAbsent(messageType, k -> new TypeStats());
+		if (!stats.worthCompressing(minSaving)) {
+			GameMetrics.increment("compression.skipped.poorRatio");
+			return null;
+		}
+
+		long start = System.nanoTime();
+		Deflater deflater = deflaters.get();
+		deflater.reset();
+		deflater.setInput(payload);
+		deflater.finish();
+
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(payload.length/4 + 16);
+		compressed.write(MARKER);
+		byte[] buffer = new byte[4096];
+		while (!deflater.finished()) {
+			int length = deflater.deflate(buffer);
+			compressed.write(buffer, 0, length);
+		}
+		long elapsed = System.nanoTime() - start;
+
+		byte[] frame = compressed.toByteArray();
+		double ratio = frame.length/(double)payload.length;
+		stats.record(ratio);
+
+		GameMetrics.add("compression.bytesIn", payload.length);
+		GameMetrics.add("compression.bytesOut", frame.length);
+		GameMetrics.record("compression.ratioPercent", Math.round(ratio*100));
+		GameMetrics.record("compression.micros", elapsed/1000);
+
+		if (frame.length >= payload.length) return null; // no point sending the larger version
+		return frame;
+	}
+
+	/**
+	 * Running compression statistics for one message type
+	 */
+	private static class TypeStats {
+
+		private double averageRatio = 0;
+		private long samples = 0;
+		private long skipped = 0;
+
+		synchronized boolean worthCompressing(double minSaving) {
+			if (samples == 0 || averageRatio <= 1-minSaving) return true;
+			skipped++;
+			return skipped % PROBE_INTERVAL == 0;
+		}
+
+		synchronized void record(double ratio) {
+			samples++;
+			if (samples == 1) averageRatio = ratio;
+			else averageRatio = 0.9*averageRatio + 0.1*ratio;
+		}
+	}
+
+}
@@ -0,0 +1,223 @@
+package controllers;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import actors.CapturingSession;
+import akka.NotUsed;
+import akka.actor.ActorRef;
+import akka.japi.function.Creator;
+import akka.stream.Attributes;
+import akka.stream.FlowShape;
+import akka.stream.Inlet;
+import akka.stream.Outlet;
+import akka.stream.javadsl.Flow;
+import akka.stream.javadsl.Source;
+import akka.stream.stage.AbstractInHandler;
+import akka.stream.stage.AbstractOutHandler;
+import akka.stream.stage.GraphStage;
+import akka.stream.stage.GraphStageLogic;
+import akka.stream.stage.TimerGraphStageLogic;
+import commands.Timeline;
+import play.http.websocket.Message;
+import structures.GameState;
+import utils.AssetDictionary;
+import utils.GameMetrics;
+import utils.OrderedCardLoader;
+
+/**
+ * Runs a game session as an Akka Streams graph, as an alternative to a GameActor behind
+ * an ActorFlow (see game.pipeline.mode in application.conf). The graph is:
+ *
+ *   websocket frames -> decode -> InboundGuard -> session -> encode -> websocket frames
+ *
+ *  - decode and encode run up to 'parallelism' frames at once on the game dispatcher,
+ *    using mapAsync, which keeps frames in order
+ *  - the session stage handles one event at a time against the session's GameState,
+ *    capturing the commands the event processors send (see CapturingSession)
+ *
+ * Timelines are played by timers in the session stage, so their steps also run one at
+ * a time with the events. The timers only run while a timeline does, so idle sessions
+ * are not woken. As everything is a stream stage, a slow front-end backpressures the
+ * whole session, back to reading from its websocket.
+ *
+ */
+public class GamePipeline {
+
+	/**
+	 * Creates the flow of websocket frames for a new game session
+	 * @param encoder turns commands into frames (see WebSocketCodecs.encoder)
+	 * @param guard creates the InboundGuard for the session
+	 * @param compactAssets
+	 * @param executor where frames are decoded and encoded
+	 * @param blockingIo where the asset dictionary and decks are loaded
+	 * @param parallelism
+	 * @param tick how often timelines are checked
+	 * @return
+	 */
+	public static Flow<Message, Message, NotUsed> create(Function<JsonNode, Message> encoder, Creator<InboundGuard> guard,
+			boolean compactAssets, Executor executor, Executor blockingIo, int parallelism, Duration tick) {
+
+		String sessionId = UUID.randomUUID().toString();
+		CompletableFuture<AssetDictionary> assets = CompletableFuture.supplyAsync(() -> {
+			OrderedCardLoader.load();
+			return AssetDictionary.get();
+		}, blockingIo);
+
+		return Flow.<Message>create()
+				.filter(frame -> frame instanceof Message.Text || frame instanceof Message.Binary)
+				.mapAsync(parallelism, frame -> CompletableFuture.supplyAsync(() -> decode(frame), executor))
+				.statefulMapConcat(() -> guard.create())
+				.map(event -> (Object) event)
+				.prepend(Source.completionStage(assets).map(dictionary -> (Object) dictionary))
+				.via(new SessionStage(() -> new CapturingSession(sessionId, "streams", compactAssets), tick))
+				.mapAsync(parallelism, command -> CompletableFuture.supplyAsync(() -> encoder.apply(command), executor))
+				.watchTermination((notUsed, done) -> {
+					done.whenComplete((d, e) -> GameMetrics.removeSession(sessionId));
+					return notUsed;
+				});
+	}
+
+	static JsonNode decode(Message frame) {
+		try {
+			return WebSocketCodecs.decodeEvent(frame);
+		} catch (Exception e) {
+			GameMetrics.increment("inbound.undecodable");
+			throw new IllegalArgumentException("Unable to parse message", e);
+		}
+	}
+
+	/**
+	 * The serial part of the pipeline, which owns the session. It is given the
+	 * AssetDictionary first, then events, and sends on the commands they produce. While
+	 * timelines are running it also wakes itself every tick to play their next steps, and
+	 * an idle session is left alone.
+	 */
+	public static class SessionStage extends GraphStage<FlowShape<Object, ObjectNode>> {
+
+		private static final String TICK = "tick";
+
+		private final Inlet<Object> in = Inlet.create("SessionStage.in");
+		private final Outlet<ObjectNode> out = Outlet.create("SessionStage.out");
+		private final FlowShape<Object, ObjectNode> shape = FlowShape.of(in, out);
+		private final Supplier<CapturingSession> sessions;
+		private final Duration tick;
+
+		/**
+		 * @param sessions creates the session, each time the stage is materialized
+		 * @param tick how often running timelines are checked
+		 */
+		public SessionStage(Supplier<CapturingSession> sessions, Duration tick) {
+			this.sessions = sessions;
+			this.tick = tick;
+		}
+
+		@Override
+		public FlowShape<Object, ObjectNode> shape() {
+			return shape;
+		}
+
+		@Override
+		public GraphStageLogic createLogic(Attributes inheritedAttributes) {
+			return new TimerGraphStageLogic(shape) {
+				private final CapturingSession session = sessions.get();
+				private final List<Timeline> runningTimelines = new ArrayList<Timeline>();
+				private final List<Long> dueNanos = new ArrayList<Long>(); // when each running timeline continues
+
+				{
+					setHandler(in, new AbstractInHandler() {
+						@Override
+						public void onPush() {
+							Object item = grab(in);
+							List<ObjectNode> commands = new ArrayList<ObjectNode>();
+							if (item instanceof AssetDictionary) commands.addAll(session.ready((AssetDictionary) item));
+							else commands.addAll(session.processEvent((JsonNode) item));
+							playTimelines(commands);
+							emitMultiple(out, commands.iterator(), () -> {
+								if (!isClosed(in)) pull(in); // one event at a time
+							});
+						}
+
+						@Override
+						public void onUpstreamFinish() {
+							complete(out); // once the commands already emitted have gone
+						}
+					});
+					setHandler(out, new AbstractOutHandler() {
+						@Override
+						public void onPull() {
+							// events are pulled as soon as the last one's commands have gone, see onPush
+						}
+					});
+				}
+
+				@Override
+				public void preStart() {
+					pull(in);
+				}
+
+				@Override
+				public void onTimer(Object key) {
+					GameMetrics.increment("pipeline.timelineTicks");
+					List<ObjectNode> commands = new ArrayList<ObjectNode>();
+					playTimelines(commands);
+					emitMultiple(out, commands.iterator());
+				}
+
+				/**
+				 * Plays the steps of the timelines that are due, and wakes the stage for the
+				 * next ones if any are still running
+				 * @param commands where the commands they send are added
+				 */
+				private void playTimelines(List<ObjectNode> commands) {
+					if (!runningTimelines.isEmpty() || !session.getGameState().pendingTimelines.isEmpty()) {
+						commands.addAll(session.capture(this::advanceTimelines));
+					}
+					if (!runningTimelines.isEmpty() && !isTimerActive(TICK)) scheduleOnce(TICK, tick);
+				}
+
+				/**
+				 * Starts any timelines queued in the game state and plays the next steps of every
+				 * running timeline that is due. Steps may queue further timelines.
+				 */
+				private void advanceTimelines() {
+					GameState gameState = session.getGameState();
+					while (!gameState.pendingTimelines.isEmpty()) {
+						runningTimelines.add(gameState.pendingTimelines.remove(0));
+						dueNanos.add(Long.MIN_VALUE); // due straight away
+					}
+
+					long now = System.nanoTime();
+					Iterator<Timeline> timelines = runningTimelines.iterator();
+					Iterator<Long> due = dueNanos.iterator();
+					List<Long> nextDue = new ArrayList<Long>();
+					while (timelines.hasNext()) {
+						Timeline timeline = timelines.next();
+						long dueAt = due.next();
+						if (dueAt > now) {
+							nextDue.add(dueAt);
+							continue;
+						}
+						int wait = timeline.advance(ActorRef.noSender());
+						if (wait < 0) timelines.remove();
+						else nextDue.add(now + wait*1_000_000L);
+					}
+					dueNanos.clear();
+					dueNanos.addAll(nextDue);
+					if (!gameState.pendingTimelines.isEmpty()) advanceTimelines();
+				}
+			};
+		}
+	}
+
+}
@@ -1,18 +1,43 @@
 package controllers;
 
+import java.time.Duration;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
 import javax.inject.Inject;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.typesafe.config.Config;
+
+import actors.ClientConnection;
 import actors.GameActor;
+import actors.GameSessions;
+import actors.GameShards;
+import actors.MatchConnection;
+import actors.MatchGame;
+import actors.Matchmaker;
+import actors.SpectatorHub;
+import akka.NotUsed;
 import akka.actor.ActorRef;
 import akka.actor.ActorSystem;
 import akka.actor.Props;
+import akka.japi.Pair;
+import akka.pattern.Patterns;
 import akka.stream.Materializer;
+import akka.stream.javadsl.Flow;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
 import play.data.Form;
 import play.data.FormFactory;
+import play.http.websocket.Message;
+import play.libs.F;
 import play.libs.streams.ActorFlow;
 import play.mvc.Controller;
 import play.mvc.Http;
 import play.mvc.Result;
+import play.mvc.Results;
 import play.mvc.WebSocket;
 import structures.User;
 
@@ -25,24 +50,229 @@ public class GameScreenController extends Controller {
 
 	private final ActorSystem actorSystem;
 	private final Materializer materializer;
+	private final FrameCompressor compressor; // null if compression is turned off for this deployment
+	private final Config inbound; // rate limits for events from the front-end, see InboundGuard
+	private final Config pipeline; // how sessions are run, see GamePipeline
+	private final ActorRef gameRegion; // GameShards or GameSessions, null if games end with their websocket
+	private final Matchmaker<MatchGame.PlayerConnection> matchmaker; // pairs players for player-vs-player games
+	private final Config spectators; // see SpectatorHub
+	private final AdmissionControl admission; // turns new sessions away when the server is saturated
+	private final boolean spectating; // games can be watched only when they are kept by GameSessions
+	private final boolean clustered; // games are run by cluster sharding, rather than on this node only
 	Form<User> userForm = null;
 	
 	
 	@Inject
-	public GameScreenController(FormFactory formFactory, ActorSystem actorSystem, Materializer materializer) {
+	public GameScreenController(FormFactory formFactory, ActorSystem actorSystem, Materializer materializer, Config config) {
 		this.actorSystem = actorSystem;
 		this.materializer = materializer;
 		userForm = formFactory.form(User.class);
+
+		Config compression = config.getConfig("game.websocket.compression");
+		if (compression.getBoolean("enabled")) {
+			compressor = new FrameCompressor(compression.getInt("threshold"), compression.getInt("level"),
+					compression.getDouble("min-saving"));
+		} else compressor = null;
+
+		clustered = config.getBoolean("game.cluster.enabled");
+		inbound = config.getConfig("game.inbound");
+		pipeline = config.getConfig("game.pipeline");
+		if (clustered) gameRegion = GameShards.region(actorSystem);
+		else if (config.getBoolean("game.resume.enabled")) gameRegion = actorSystem.actorOf(GameSessions.props());
+		else gameRegion = null;
+		spectators = config.getConfig("game.spectators");
+		admission = new AdmissionControl(config.getConfig("game.admission"));
+		spectating = spectators.getBoolean("enabled") && !clustered && gameRegion!=null;
+
+		Config matchmaking = config.getConfig("game.matchmaking");
+		matchmaker = new Matchmaker<MatchGame.PlayerConnection>(matchmaking.getInt("bucket-width"), matchmaking.getDuration("widen-after").toNanos(),
+				(player1, player2) -> actorSystem.actorOf(MatchGame.props(player1.getPlayer(), player2.getPlayer())));
 	}
 
 	/**
-	 * This responds to the request for creation of the Websocket 
+	 * This responds to the request for creation of the Websocket. The front-end can add
+	 * parameters to the websocket URL to choose how commands are sent:
+	 *  - assets=ids uses the compact asset-id protocol (see AssetDictionary)
+	 *  - protocol=cbor sends commands as binary CBOR frames rather than Json text
+	 *    (see WebSocketCodecs), Json text is used if this is not given
+	 *  - compress=deflate allows large commands to be sent deflate compressed, if
+	 *    compression is enabled in application.conf (see FrameCompressor)
+	 *  - game=id starts the game with that id when running as a cluster (see GameShards),
+	 *    a random id is used if this is not given
+	 *  - resume=token&lastSeq=n reconnects to the game the front-end was sent the token for,
+	 *    n being the seq of the last command it received (see GameSessions). The token is
+	 *    the game id and a secret, and a running game cannot be joined without it
+	 *  - match=pvp&rating=n waits to be paired with another player of a similar rating,
+	 *    and plays against them rather than the AI (see Matchmaker and MatchGame)
+	 *  - spectate=token watches the game the spectate token was sent for, without playing
+	 *    in it (see SpectatorHub)
+	 *
+	 * New sessions are refused with 503 Service Unavailable while the server is saturated
+	 * (see AdmissionControl). Reconnects are let through, but only once the resume token
+	 * has been checked against a game running on this node.
+	 *
+	 * Each session is run by a GameActor, or depending on game.pipeline.mode in
+	 * application.conf, by a GamePipeline (streams) or VirtualThreadPipeline (virtual-threads).
 	 * @return
 	 */
 	public WebSocket socket() {
 
-		return WebSocket.Json.accept(
-				request -> ActorFlow.actorRef(this::createGameActor, actorSystem, materializer));
+		return new WebSocket() {
+			@Override
+			public CompletionStage<F.Either<Result, Flow<Message, Message, ?>>> apply(Http.RequestHeader request) {
+				String protocol = request.queryString("protocol").orElse("json");
+				boolean compress = compressor!=null && request.queryString("compress").map("deflate"::equals).orElse(false);
+				// reconnects go back to games that are already running, only new sessions are turned away
+				return resumesRunningGame(request).thenCompose(resuming -> {
+					String reason = resuming ? null : admission.rejectReason();
+					if (reason!=null) {
+						return CompletableFuture.completedFuture(F.Either.<Result, Flow<Message, Message, ?>>Left(Results.status(SERVICE_UNAVAILABLE, "Server busy ("+reason+")")
+								.withHeader(RETRY_AFTER, String.valueOf(admission.getRetryAfterSeconds()))));
+					}
+					return open(request, protocol, compress);
+				});
+			}
+		};
+	}
+
+	/**
+	 * Opens the websocket for a session that has been admitted
+	 * @param request
+	 * @param protocol
+	 * @param compress
+	 * @return
+	 */
+	private CompletionStage<F.Either<Result, Flow<Message, Message, ?>>> open(Http.RequestHeader request, String protocol, boolean compress) {
+		Optional<String> spectate = request.queryString("spectate");
+		if (spectate.isPresent()) {
+			if (!spectating) return CompletableFuture.completedFuture(F.Either.Left(Results.notFound("Games cannot be watched")));
+			return CompletableFuture.completedFuture(F.Either.Right(createSpectatorFlow(spectate.get(), protocol, compress)));
+		}
+		if (pipeline.getString("mode").equals("streams")) {
+			return CompletableFuture.completedFuture(F.Either.Right(createGamePipeline(request, protocol, compress)));
+		} else if (pipeline.getString("mode").equals("virtual-threads")) {
+			return CompletableFuture.completedFuture(F.Either.Right(createVirtualThreadPipeline(request, protocol, compress)));
+		}
+		WebSocket.MappedWebSocketAcceptor<JsonNode, JsonNode> codec = compress?
+				WebSocketCodecs.forProtocol(protocol, compressor):WebSocketCodecs.forProtocol(protocol);
+		return codec.accept(this::createGameFlow).apply(request);
+	}
+
+	/**
+	 * Finds out whether the request reconnects to a game running on this node, with the
+	 * secret from its resume token. Anything else, including a resume token for a game that
+	 * has gone or a request that would not be run by a GameActor, is a new session.
+	 * @param request
+	 * @return
+	 */
+	private CompletionStage<Boolean> resumesRunningGame(Http.RequestHeader request) {
+		Optional<String> resume = request.queryString("resume");
+		if (!resume.isPresent() || gameRegion==null || !pipeline.getString("mode").equals("actor")
+				|| request.queryString("spectate").isPresent() || request.queryString("match").map("pvp"::equals).orElse(false)) {
+			return CompletableFuture.completedFuture(false);
+		}
+		int dot = resume.get().lastIndexOf('.'); // the token is gameId.secret, see GameActor
+		if (dot<0) return CompletableFuture.completedFuture(false);
+		GameShards.Resumable resumable = new GameShards.Resumable(resume.get().substring(0, dot), resume.get().substring(dot+1));
+		CompletionStage<Boolean> resumes = clustered ? GameShards.isResumableHere(gameRegion, resumable, RESUME_CHECK_TIMEOUT)
+				: Patterns.ask(gameRegion, resumable, RESUME_CHECK_TIMEOUT).thenApply(Boolean.TRUE::equals);
+		return resumes.exceptionally(e -> false);
+	}
+
+	/**
+	 * Creates the flow of Json events and commands for a new game session. Events pass
+	 * through an InboundGuard before they reach the GameActor.
+	 * @param request
+	 * @return
+	 */
+	private Flow<JsonNode, JsonNode, ?> createGameFlow(Http.RequestHeader request) {
+		boolean compactAssets = request.queryString("assets").map("ids"::equals).orElse(false);
+		if (request.queryString("match").map("pvp"::equals).orElse(false)) {
+			int rating = (int) parseLong(request.queryString("rating").orElse(String.valueOf(DEFAULT_RATING)));
+			return Flow.<JsonNode>create()
+					.statefulMapConcat(() -> createInboundGuard(false))
+					.via(ActorFlow.actorRef(out -> MatchConnection.props(out, matchmaker, rating, compactAssets), actorSystem, materializer));
+		}
+		if (gameRegion!=null) {
+			Optional<String> resume = request.queryString("resume");
+			int dot = resume.map(token -> token.lastIndexOf('.')).orElse(-1); // the token is gameId.secret, see GameActor
+			String gameId = dot>=0 ? resume.get().substring(0, dot) : resume.orElse(request.queryString("game").orElse(UUID.randomUUID().toString()));
+			String secret = dot>=0 ? resume.get().substring(dot+1) : null;
+			long lastSeq = resume.isPresent() ? parseLong(request.queryString("lastSeq").orElse("0")) : -1;
+			return Flow.<JsonNode>create()
+					.statefulMapConcat(() -> createInboundGuard(true))
+					.via(ActorFlow.actorRef(out -> ClientConnection.props(out, gameRegion, gameId, compactAssets, clustered, lastSeq, secret), actorSystem, materializer));
+		}
+		return Flow.<JsonNode>create()
+				.statefulMapConcat(() -> createInboundGuard(true))
+				.via(ActorFlow.actorRef(out -> createGameActor(out, compactAssets), actorSystem, materializer));
+	}
+
+	/**
+	 * Creates the flow for a spectator of a game. Anything the spectator's front-end sends
+	 * is ignored, and the frames it is sent are encoded by the game's SpectatorHub.
+	 * @param spectatorId
+	 * @param protocol
+	 * @param compress
+	 * @return
+	 */
+	private Flow<Message, Message, ?> createSpectatorFlow(String spectatorId, String protocol, boolean compress) {
+		Pair<SpectatorHub.Spectator, Source<Message, NotUsed>> spectator = SpectatorHub.Spectator.create(spectators.getInt("buffer"),
+				protocol+(compress?"+deflate":""), WebSocketCodecs.encoder(protocol, compress?compressor:null), materializer);
+		gameRegion.tell(new SpectatorHub.Watch(spectatorId, spectator.first()), ActorRef.noSender());
+		return Flow.fromSinkAndSource(Sink.<Message>ignore(), spectator.second());
+	}
+
+	/**
+	 * Creates the Akka Streams pipeline for a new game session, used in place of
+	 * createGameFlow when game.pipeline.mode is streams
+	 * @param request
+	 * @param protocol
+	 * @param compress
+	 * @return
+	 */
+	private Flow<Message, Message, ?> createGamePipeline(Http.RequestHeader request, String protocol, boolean compress) {
+		boolean compactAssets = request.queryString("assets").map("ids"::equals).orElse(false);
+		return GamePipeline.create(WebSocketCodecs.encoder(protocol, compress?compressor:null), () -> createInboundGuard(false),
+				compactAssets, actorSystem.dispatchers().lookup("game-dispatcher"),
+				actorSystem.dispatchers().lookup("blocking-io-dispatcher"),
+				pipeline.getInt("parallelism"), pipeline.getDuration("tick"));
+	}
+
+	/**
+	 * Creates a session run on virtual threads, used in place of createGameFlow when
+	 * game.pipeline.mode is virtual-threads
+	 * @param request
+	 * @param protocol
+	 * @param compress
+	 * @return
+	 */
+	private Flow<Message, Message, ?> createVirtualThreadPipeline(Http.RequestHeader request, String protocol, boolean compress) {
+		boolean compactAssets = request.queryString("assets").map("ids"::equals).orElse(false);
+		return VirtualThreadPipeline.create(WebSocketCodecs.encoder(protocol, compress?compressor:null), () -> createInboundGuard(false),
+				compactAssets, materializer, pipeline.getInt("buffer"));
+	}
+
+	private static final int DEFAULT_RATING = 1000;
+	private static final Duration RESUME_CHECK_TIMEOUT = Duration.ofSeconds(2);
+
+	private static long parseLong(String value) {
+		try {
+			return Math.max(0, Long.parseLong(value));
+		} catch (NumberFormatException e) {
+			return 0; // replays everything still held, or sends a snapshot
+		}
+	}
+
+	/**
+	 * Creates the InboundGuard for a new session
+	 * @param keepBatches true if events go to a GameActor, which processes a batch in one turn
+	 * @return
+	 */
+	private InboundGuard createInboundGuard(boolean keepBatches) {
+		return new InboundGuard(inbound.getDouble("rate"), inbound.getInt("burst"), inbound.getDouble("heartbeat-rate"),
+				inbound.getInt("heartbeat-burst"), inbound.getDuration("duplicate-window").toMillis(), inbound.getInt("disconnect-after"),
+				inbound.getInt("max-batch"), keepBatches);
 	}
 
 	/**
@@ -57,4 +287,10 @@ public class GameScreenController extends Controller {
 	public Props createGameActor(ActorRef out) {
 		return Props.create(GameActor.class, out); // calls the constructor for Game Actor
 	}
+
+	public Props createGameActor(ActorRef out, boolean compactAssets) {
+		return Props.create(GameActor.class, out, compactAssets) // calls the constructor for Game Actor
+				.withMailbox("game-actor-mailbox") // bounded, see GameActorMailbox
+				.withDispatcher("game-dispatcher");
+	}
 }
\ No newline at end of file
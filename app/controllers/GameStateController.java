@@ -0,0 +1,79 @@
+package controllers;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+import javax.inject.Inject;
+
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.typesafe.config.Config;
+
+import play.libs.Json;
+import play.mvc.Controller;
+import play.mvc.Http;
+import play.mvc.Result;
+import structures.GameSnapshot;
+import utils.GameRegistry;
+
+/**
+ * Serves the latest snapshot of the games running on this server as Json, for dashboards
+ * and support tools. Only the GameRegistry is read, so the games are not disturbed.
+ *
+ * The snapshots include each player's hand, so they are only served when game.inspection
+ * is enabled in application.conf, and then only to requests with the configured token
+ * (Authorization: Bearer token), if one is set.
+ *
+ */
+public class GameStateController extends Controller {
+
+	private final boolean enabled;
+	private final byte[] authorization; // the Authorization header requests must send, null if any request may read the games
+
+	@Inject
+	public GameStateController(Config config) {
+		Config inspection = config.getConfig("game.inspection");
+		this.enabled = inspection.getBoolean("enabled");
+		String token = inspection.getString("token");
+		this.authorization = token.isEmpty() ? null : ("Bearer "+token).getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * This responds to a request for /games, with a summary of each game
+	 * @param request
+	 * @return
+	 */
+	public Result games(Http.Request request) {
+		Result refused = refuse(request);
+		if (refused!=null) return refused;
+		ArrayNode games = Json.newArray();
+		for (GameSnapshot snapshot : GameRegistry.getAll()) games.add(snapshot.toSummaryJson());
+		return ok(games);
+	}
+
+	/**
+	 * This responds to a request for /games/:id
+	 * @param request
+	 * @param id
+	 * @return
+	 */
+	public Result game(Http.Request request, String id) {
+		Result refused = refuse(request);
+		if (refused!=null) return refused;
+		GameSnapshot snapshot = GameRegistry.get(id);
+		if (snapshot==null) return notFound("No such game");
+		return ok(snapshot.toJson());
+	}
+
+	/**
+	 * Returns the response for a request that may not read the games, or null if it may
+	 * @param request
+	 * @return
+	 */
+	private Result refuse(Http.Request request) {
+		if (!enabled) return notFound();
+		if (authorization==null) return null;
+		byte[] given = request.header(Http.HeaderNames.AUTHORIZATION).orElse("").getBytes(StandardCharsets.UTF_8);
+		return MessageDigest.isEqual(given, authorization) ? null : unauthorized(); // takes as long whatever is sent
+	}
+
+}
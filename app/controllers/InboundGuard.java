@@ -0,0 +1,155 @@
+package controllers;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import akka.japi.function.Function;
+import play.libs.Json;
+import utils.GameMetrics;
+import utils.TokenBucket;
+
+/**
+ * Filters the events coming in from one front-end before they reach its GameActor, so
+ * that a misbehaving or scripted client cannot flood the actor:
+ *  - a click that is identical to the previous click and arrives within the duplicate
+ *    window (e.g. a double-click on a tile) is dropped
+ *  - events beyond the session's rate (a TokenBucket) are dropped. Heartbeats have a
+ *    small bucket of their own, so that the server keeps tracking a front-end that is
+ *    clicking quickly, but one sending far more than one every two seconds is limited
+ *  - a session that goes over either rate disconnectAfter times in a row is disconnected,
+ *    by failing the websocket stream
+ *
+ * The front-end may send the events from one tick of its game loop together, as
+ * { messagetype = "batch", events = [...] }. Each event in a batch is checked on its own,
+ * and events past the first maxBatch are dropped as if they were over the rate.
+ * If keepBatches is set, the events that pass are sent on as one smaller batch, so that a
+ * GameActor can process them in a single turn; otherwise they are sent on one by one.
+ *
+ * A new guard is created for each websocket connection (see Flow.statefulMapConcat).
+ *
+ */
+public class InboundGuard implements Function<JsonNode, Iterable<JsonNode>> {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final double HEARTBEAT_RATE = 1; // per second, the front-end sends one every two seconds
+	private static final int HEARTBEAT_BURST = 5;
+	private static final int MAX_BATCH = 50;
+
+	private final TokenBucket bucket;
+	private final TokenBucket heartbeats;
+	private final long duplicateWindowNanos;
+	private final int disconnectAfter;
+	private final boolean keepBatches;
+	private final int maxBatch;
+
+	private JsonNode lastClick = null;
+	private long lastClickNanos = 0;
+	private int refusedInARow = 0;
+
+	public InboundGuard(double ratePerSecond, int burst, long duplicateWindowMillis, int disconnectAfter) {
+		this(ratePerSecond, burst, duplicateWindowMillis, disconnectAfter, false);
+	}
+
+	public InboundGuard(double ratePerSecond, int burst, long duplicateWindowMillis, int disconnectAfter, boolean keepBatches) {
+		this(ratePerSecond, burst, HEARTBEAT_RATE, HEARTBEAT_BURST, duplicateWindowMillis, disconnectAfter, MAX_BATCH, keepBatches);
+	}
+
+	public InboundGuard(double ratePerSecond, int burst, double heartbeatRatePerSecond, int heartbeatBurst, long duplicateWindowMillis,
+			int disconnectAfter, int maxBatch, boolean keepBatches) {
+		long nowNanos = System.nanoTime();
+		this.bucket = new TokenBucket(ratePerSecond, burst, nowNanos);
+		this.heartbeats = new TokenBucket(heartbeatRatePerSecond, heartbeatBurst, nowNanos);
+		this.duplicateWindowNanos = duplicateWindowMillis*1_000_000L;
+		this.disconnectAfter = disconnectAfter;
+		this.maxBatch = maxBatch;
+		this.keepBatches = keepBatches;
+	}
+
+	@Override
+	public Iterable<JsonNode> apply(JsonNode event) {
+		long nowNanos = System.nanoTime();
+		if (!isBatch(event)) return accept(event, nowNanos) ? Collections.singletonList(event) : Collections.emptyList();
+
+		GameMetrics.increment("inbound.batches");
+		List<JsonNode> accepted = new ArrayList<JsonNode>(Math.min(maxBatch, event.path("events").size()));
+		int count = 0;
+		for (JsonNode batched : event.path("events")) {
+			if (++count > maxBatch) {
+				GameMetrics.increment("inbound.batchOverflow");
+				refuse();
+			} else if (!isBatch(batched) && accept(batched, nowNanos)) accepted.add(batched);
+		}
+		if (!keepBatches || accepted.size()<2) return accepted;
+		ObjectNode batch = Json.newObject();
+		batch.put("messagetype", "batch");
+		batch.putArray("events").addAll(accepted);
+		return Collections.singletonList(batch);
+	}
+
+	/**
+	 * Returns true if the event is a batch of events from the front-end
+	 * @param event
+	 * @return
+	 */
+	public static boolean isBatch(JsonNode event) {
+		return event.path("messagetype").asText().equals("batch");
+	}
+
+	/**
+	 * Returns true if the event should be passed on to the GameActor
+	 * @param event
+	 * @param nowNanos
+	 * @return
+	 */
+	public boolean accept(JsonNode event, long nowNanos) {
+		String messageType = event.path("messagetype").asText();
+		GameMetrics.increment("inbound.events");
+
+		if (messageType.equals("heartbeat")) return take(heartbeats, nowNanos);
+
+		if (messageType.endsWith("clicked")) {
+			if (event.equals(lastClick) && nowNanos-lastClickNanos < duplicateWindowNanos) {
+				GameMetrics.increment("inbound.duplicates");
+				return false;
+			}
+			lastClick = event;
+			lastClickNanos = nowNanos;
+		}
+
+		return take(bucket, nowNanos);
+	}
+
+	/**
+	 * Takes a token for an event from one of the session's buckets, returning false if
+	 * it is over the rate
+	 * @param from
+	 * @param nowNanos
+	 * @return
+	 */
+	private boolean take(TokenBucket from, long nowNanos) {
+		if (!from.tryTake(nowNanos)) {
+			GameMetrics.increment("inbound.rateLimited");
+			refuse();
+			return false;
+		}
+		refusedInARow = 0;
+		return true;
+	}
+
+	/**
+	 * Counts an event that was dropped for going over the session's limits, disconnecting
+	 * the session if too many have been dropped in a row
+	 */
+	private void refuse() {
+		if (++refusedInARow >= disconnectAfter) {
+			GameMetrics.increment("inbound.disconnected");
+			throw new IllegalStateException("Session disconnected for sending too many events");
+		}
+	}
+
+}
@@ -0,0 +1,22 @@
+package controllers;
+
+import play.mvc.Controller;
+import play.mvc.Result;
+import utils.GameMetrics;
+
+/**
+ * Serves the current values held in GameMetrics as Json, so that the health of the
+ * game server (e.g. client render lag and round-trip times) can be monitored.
+ *
+ */
+public class MetricsController extends Controller {
+
+	/**
+	 * This responds to a request for /metrics
+	 * @return
+	 */
+	public Result metrics() {
+		return ok(GameMetrics.snapshot());
+	}
+
+}
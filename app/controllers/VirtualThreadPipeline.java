@@ -0,0 +1,151 @@
+package controllers;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import actors.CapturingSession;
+import akka.NotUsed;
+import akka.actor.ActorRef;
+import akka.japi.Pair;
+import akka.japi.function.Creator;
+import akka.stream.Materializer;
+import akka.stream.OverflowStrategy;
+import akka.stream.javadsl.Flow;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import akka.stream.javadsl.SourceQueueWithComplete;
+import commands.Timeline;
+import play.http.websocket.Message;
+import structures.GameState;
+import utils.AssetDictionary;
+import utils.SerialExecutor;
+import utils.VirtualThreads;
+
+/**
+ * Runs a game session on virtual threads rather than as a GameActor (see game.pipeline.mode
+ * in application.conf). Each session has a SerialExecutor over the shared virtual thread
+ * executor, so its events and timeline steps run one at a time, in order, through the same
+ * event processors as the actor. Since virtual threads are cheap to block, the code running
+ * an event simply waits where it would otherwise need a callback:
+ *  - loading the AssetDictionary the first time (reading the configuration files)
+ *  - handing each command to the websocket, which waits while the front-end is behind
+ *
+ * Timeline waits are not slept through, as that would hold up the session's next events;
+ * instead the next step is put back on the session's executor when it is due.
+ *
+ * Comparing the events.virtual-threads.micros and events.actor.micros metrics shows which
+ * mode suits a deployment better.
+ *
+ */
+public class VirtualThreadPipeline {
+
+	private static final ScheduledExecutorService timers = Executors.newSingleThreadScheduledExecutor(task -> {
+		Thread thread = new Thread(task, "timeline-timer");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * Creates the flow of websocket frames for a new game session
+	 * @param encoder turns commands into frames (see WebSocketCodecs.encoder)
+	 * @param guard creates the InboundGuard for the session
+	 * @param compactAssets
+	 * @param materializer
+	 * @param bufferSize number of frames that can wait to be sent before the session waits
+	 * @return
+	 */
+	public static Flow<Message, Message, NotUsed> create(Function<JsonNode, Message> encoder, Creator<InboundGuard> guard,
+			boolean compactAssets, Materializer materializer, int bufferSize) {
+
+		Pair<SourceQueueWithComplete<Message>, Source<Message, NotUsed>> outbound =
+				Source.<Message>queue(bufferSize, OverflowStrategy.backpressure()).preMaterialize(materializer);
+
+		Runner runner = new Runner(new CapturingSession(UUID.randomUUID().toString(), "virtual-threads", compactAssets),
+				encoder, outbound.first());
+		runner.serial.execute(runner::ready);
+
+		return Flow.fromSinkAndSource(
+				Flow.<Message>create()
+						.filter(frame -> frame instanceof Message.Text || frame instanceof Message.Binary)
+						.map(GamePipeline::decode)
+						.statefulMapConcat(() -> guard.create())
+						.mapAsync(1, event -> CompletableFuture.runAsync(() -> runner.process(event), runner.serial))
+						.to(Sink.onComplete(done -> runner.serial.execute(runner::close))),
+				outbound.second());
+	}
+
+	/**
+	 * Everything a session does, always called on the session's SerialExecutor
+	 */
+	private static class Runner {
+
+		final SerialExecutor serial = new SerialExecutor(VirtualThreads.executor());
+		private final CapturingSession session;
+		private final Function<JsonNode, Message> encoder;
+		private final SourceQueueWithComplete<Message> outbound;
+		private volatile boolean closed = false;
+
+		Runner(CapturingSession session, Function<JsonNode, Message> encoder, SourceQueueWithComplete<Message> outbound) {
+			this.session = session;
+			this.encoder = encoder;
+			this.outbound = outbound;
+		}
+
+		void ready() {
+			send(session.ready(AssetDictionary.get()));
+		}
+
+		void process(JsonNode event) {
+			if (closed) return;
+			send(session.processEvent(event));
+			startPendingTimelines();
+		}
+
+		private void startPendingTimelines() {
+			GameState gameState = session.getGameState();
+			while (!gameState.pendingTimelines.isEmpty()) advance(gameState.pendingTimelines.remove(0));
+		}
+
+		/**
+		 * Plays the next steps of a timeline, and schedules the steps after that
+		 * @param timeline
+		 */
+		private void advance(Timeline timeline) {
+			if (closed) return;
+			int[] wait = {-1};
+			send(session.capture(() -> wait[0] = timeline.advance(ActorRef.noSender())));
+			if (wait[0] >= 0) timers.schedule(() -> serial.execute(() -> advance(timeline)), wait[0], TimeUnit.MILLISECONDS);
+			startPendingTimelines(); // steps may have queued further timelines
+		}
+
+		/**
+		 * Encodes and hands commands to the websocket, waiting while its buffer is full
+		 * @param commands
+		 */
+		private void send(List<ObjectNode> commands) {
+			try {
+				for (ObjectNode command : commands) {
+					if (closed) return;
+					outbound.offer(encoder.apply(command)).toCompletableFuture().join();
+				}
+			} catch (Exception e) {
+				closed = true; // the websocket has gone
+			}
+		}
+
+		void close() {
+			closed = true;
+			outbound.complete();
+			session.close();
+		}
+	}
+
+}
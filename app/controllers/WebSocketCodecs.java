@@ -0,0 +1,132 @@
+package controllers;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Function;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+
+import akka.util.ByteString;
+import play.http.websocket.Message;
+import play.libs.F;
+import play.libs.Json;
+import play.libs.Scala;
+import play.mvc.WebSocket;
+import utils.GameMetrics;
+
+/**
+ * The wire formats that the game websocket can speak. Both carry exactly the same
+ * command and event messages, only the encoding differs:
+ *  - JSON: every command is sent as a text frame of Json (the default)
+ *  - CBOR: every command is sent as a binary frame of CBOR, a compact binary form of
+ *    Json (https://cbor.io), which is faster to encode and smaller on the wire
+ *
+ * Events from the front-end are accepted as either text Json or binary CBOR frames on
+ * both formats, so the browser can keep sending events with JSON.stringify.
+ *
+ * Either format can also have large commands deflate compressed (see FrameCompressor),
+ * these are always sent as binary frames.
+ *
+ */
+public class WebSocketCodecs {
+
+	private static ObjectMapper cborMapper = new ObjectMapper(new CBORFactory()); // Jackson Object Serializer for CBOR
+
+	public static final WebSocket.MappedWebSocketAcceptor<JsonNode, JsonNode> JSON = acceptor(encoder("json", null));
+
+	public static final WebSocket.MappedWebSocketAcceptor<JsonNode, JsonNode> CBOR = acceptor(encoder("cbor", null));
+
+	/**
+	 * Returns the codec asked for by the protocol parameter of the websocket URL,
+	 * falling back to JSON if it is missing or not recognised
+	 * @param protocol
+	 * @return
+	 */
+	public static WebSocket.MappedWebSocketAcceptor<JsonNode, JsonNode> forProtocol(String protocol) {
+		if ("cbor".equals(protocol)) return CBOR;
+		return JSON;
+	}
+
+	/**
+	 * As forProtocol(protocol), but commands large enough to be worth it are deflate
+	 * compressed by the given compressor
+	 * @param protocol
+	 * @param compressor
+	 * @return
+	 */
+	public static WebSocket.MappedWebSocketAcceptor<JsonNode, JsonNode> forProtocol(String protocol, FrameCompressor compressor) {
+		return acceptor(encoder(protocol, compressor));
+	}
+
+	/**
+	 * Returns the function that turns commands into websocket frames for a protocol,
+	 * compressing them with the compressor if it is not null
+	 * @param protocol
+	 * @param compressor
+	 * @return
+	 */
+	public static Function<JsonNode, Message> encoder(String protocol, FrameCompressor compressor) {
+		boolean cbor = "cbor".equals(protocol);
+		if (compressor==null) {
+			if (cbor) return json -> new Message.Binary(ByteString.fromArrayUnsafe(encodeCbor(json)));
+			return json -> new Message.Text(encodeJson(json));
+		}
+		return json -> {
+			byte[] bytes = cbor?encodeCbor(json):encodeJson(json).getBytes(StandardCharsets.UTF_8);
+			byte[] compressed = compressor.compress(json.path("messagetype").asText(), bytes);
+			if (compressed!=null) return new Message.Binary(ByteString.fromArrayUnsafe(compressed));
+			if (cbor) return new Message.Binary(ByteString.fromArrayUnsafe(bytes));
+			return new Message.Text(new String(bytes, StandardCharsets.UTF_8));
+		};
+	}
+
+	private static WebSocket.MappedWebSocketAcceptor<JsonNode, JsonNode> acceptor(Function<JsonNode, Message> encoder) {
+		return new WebSocket.MappedWebSocketAcceptor<JsonNode, JsonNode>(
+				Scala.partialFunction(WebSocketCodecs::decode), encoder);
+	}
+
+	private static String encodeJson(JsonNode json) {
+		String text = Json.stringify(json);
+		GameMetrics.add("outbound.bytes.json", text.length());
+		return text;
+	}
+
+	private static byte[] encodeCbor(JsonNode json) {
+		try {
+			byte[] bytes = cborMapper.writeValueAsBytes(json);
+			GameMetrics.add("outbound.bytes.cbor", bytes.length);
+			return bytes;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Turns an incoming text or binary websocket frame into Json
+	 * @param message
+	 * @return
+	 * @throws IOException if the frame is not valid Json or CBOR
+	 */
+	public static JsonNode decodeEvent(Message message) throws IOException {
+		if (message instanceof Message.Text) return Json.parse(((Message.Text) message).data());
+		return cborMapper.readTree(((Message.Binary) message).data().toArray());
+	}
+
+	/**
+	 * Turns an incoming websocket frame into Json, or closes the socket if it cannot
+	 * @param message
+	 * @return
+	 */
+	private static F.Either<JsonNode, Message> decode(Message message) {
+		if (!(message instanceof Message.Text) && !(message instanceof Message.Binary)) throw Scala.noMatch();
+		try {
+			return F.Either.Left(decodeEvent(message));
+		} catch (Exception e) {
+			GameMetrics.increment("inbound.undecodable");
+			return F.Either.Right(new Message.Close(1003, "Unable to parse message"));
+		}
+	}
+
+}
@@ -27,7 +27,8 @@ public class CommandDemo {
 	 * thread sleeps in it. The back-end will not respond to commands
 	 * while this method is processing, e.g. if you refresh the game
 	 * page or try to kill the server you will get a long delay before
-	 * anything happens.
+	 * anything happens. In game logic, use a commands.Timeline (queued via
+	 * GameState.play) to space out commands instead of sleeping.
 	 */
 	public static void executeDemo(ActorRef out) {
 
@@ -34,21 +34,21 @@ if (idx < 0 || idx >= gameState.player_cards.size()) return;
 Card card = gameState.player_cards.get(idx);
 
 // SC-06: clear any previous highlights now that we have a valid card
-gameState.clearHighlights(out);
+gameState.clearHighlights();
 
 // SC-09: reject if the player cannot afford the card
 if (card.getManacost() > gameState.player1.getMana()) {
 BasicCommands.addPlayer1Notification(out, "Not enough Mana!", 2);
-return;
-}
-
-gameState.selectedCard = card;
-gameState.selectedCardPosition = handPosition;
+} else {
+gameState.selectCard(handPosition);
 
 // SC-06/07: if creature card, highlight legal summon tiles via SummoningEngine
 if (CardResolver.isCreature(card)) {
-SummoningEngine.highlightSummonTiles(out, gameState);
+SummoningEngine.highlightSummonTiles(gameState);
 }
 }
 
+gameState.render(out);
+}
+
 }
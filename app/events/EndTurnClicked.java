@@ -17,16 +17,20 @@ import structures.GameState;
  * @author Dr. Richard McCreadie
  *
  */
-public class EndTurnClicked implements EventProcessor{
+public class EndTurnClicked implements EventProcessor, PureEventProcessor {
 
 	@Override
 	public void processEvent(ActorRef out, GameState gameState, JsonNode message) {
+		process(gameState, message).apply(out);
+	}
+
+	@Override
+	public EventResult process(GameState gameState, JsonNode message) {
 		// SC-04: refresh mana at start of next turn (turnNumber + 1)
 		gameState.turnNumber++;
-		if (gameState.player1 != null) {
-			gameState.player1.setMana(gameState.turnNumber + 1);
-			BasicCommands.setPlayer1Mana(out, gameState.player1);
-		}
+		if (gameState.player1 == null) return EventResult.of(gameState);
+		gameState.setPlayer1Mana(gameState.turnNumber + 1);
+		return new EventResult(gameState, BasicCommands.capture(() -> gameState.render(ActorRef.noSender())));
 	}
 
 }
@@ -0,0 +1,55 @@
+package events;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import akka.actor.ActorRef;
+import commands.BasicCommands;
+import structures.GameState;
+
+/**
+ * What a PureEventProcessor returns: the game state after the event and the commands
+ * to send to the front-end, in the order they should be sent. Nothing has been sent yet,
+ * that is left to whoever asked for the event to be processed (see apply).
+ *
+ */
+public final class EventResult {
+
+	private final GameState state;
+	private final List<ObjectNode> commands;
+
+	public EventResult(GameState state, List<ObjectNode> commands) {
+		this.state = state;
+		this.commands = Collections.unmodifiableList(new ArrayList<ObjectNode>(commands));
+	}
+
+	/**
+	 * A result with no commands
+	 * @param state
+	 * @return
+	 */
+	public static EventResult of(GameState state) {
+		return new EventResult(state, Collections.<ObjectNode>emptyList());
+	}
+
+	public GameState getState() {
+		return state;
+	}
+
+	public List<ObjectNode> getCommands() {
+		return commands;
+	}
+
+	/**
+	 * Sends the commands to the front-end, through BasicCommands so that altTell and
+	 * capturing still apply
+	 * @param out
+	 */
+	public void apply(ActorRef out) {
+		for (ObjectNode command : commands) BasicCommands.send(out, command);
+	}
+
+}
@@ -13,8 +13,15 @@ import structures.GameState;
  * 
  * { 
  *   String messageType = “heartbeat”
+ *   lastSeq = <highest command seq the browser loop has acted on>
+ *   receivedSeq = <highest command seq the browser has received>
+ *   receivedHold = <milliseconds since receivedSeq arrived>
+ *   clientTime = <browser clock in milliseconds>
  * }
  * 
+ * The seq values are read by the GameActor to track the render lag and round-trip time
+ * of the session before the event is passed on to this processor.
+ * 
  * @author Dr. Richard McCreadie
  *
  */
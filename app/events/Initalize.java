@@ -45,27 +45,26 @@ public class Initalize implements EventProcessor{
 		// SC-03: deploy avatars
 		Tile humanTile = gameState.board[0][1]; // tile [1,2]
 		Unit human = BasicObjectBuilders.loadUnit(StaticConfFiles.humanAvatar, 0, Unit.class);
-		human.setPositionByTile(humanTile);
 		gameState.humanAvatar = human;
+		gameState.placeUnit(human, humanTile, true); // SC-05: the human avatar is a friendly unit
 		BasicCommands.drawUnit(out, human, humanTile);
 
 		Tile aiTile = gameState.board[6][1]; // tile [7,2]
 		Unit ai = BasicObjectBuilders.loadUnit(StaticConfFiles.aiAvatar, 1, Unit.class);
-		ai.setPositionByTile(aiTile);
 		gameState.aiAvatar = ai;
+		gameState.placeUnit(ai, aiTile, false);
 		BasicCommands.drawUnit(out, ai, aiTile);
 
 		// SC-04: set initial player resources (mana = turnNumber + 1 = 1 + 1 = 2)
-		gameState.player1 = new Player(20, gameState.turnNumber + 1);
-		BasicCommands.setPlayer1Health(out, gameState.player1);
-		BasicCommands.setPlayer1Mana(out, gameState.player1);
+		gameState.setPlayer1(new Player(20, gameState.turnNumber + 1));
 
-		// SC-05: track human avatar as a friendly unit; deal starting hand of 3 cards
-		gameState.friendlyUnits.add(gameState.humanAvatar);
+		// SC-05: deal starting hand of 3 cards
 		List<Card> deck = OrderedCardLoader.getPlayer1Cards(1);
 		for (int i = 0; i < 3 && i < deck.size(); i++) {
-			gameState.drawCardToHand(out, deck.get(i));
+			gameState.addCardToHand(deck.get(i));
 		}
+
+		gameState.render(out);
 	}
 
 }
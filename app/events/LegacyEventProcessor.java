@@ -0,0 +1,39 @@
+package events;
+
+import java.util.List;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import akka.actor.ActorRef;
+import commands.BasicCommands;
+import structures.GameState;
+
+/**
+ * Runs an EventProcessor as a PureEventProcessor. The commands it sends through
+ * BasicCommands are captured and returned rather than sent, so processors that have
+ * not been rewritten work wherever a PureEventProcessor is expected.
+ *
+ */
+public class LegacyEventProcessor implements PureEventProcessor {
+
+	private final EventProcessor processor;
+
+	public LegacyEventProcessor(EventProcessor processor) {
+		this.processor = processor;
+	}
+
+	public EventProcessor getProcessor() {
+		return processor;
+	}
+
+	@Override
+	public EventResult process(GameState gameState, JsonNode message) {
+		List<ObjectNode> commands = BasicCommands.capture(() -> {
+			processor.processEvent(ActorRef.noSender(), gameState, message);
+			gameState.render(ActorRef.noSender()); // anything the processor changed but did not render
+		});
+		return new EventResult(gameState, commands);
+	}
+
+}
@@ -0,0 +1,30 @@
+package events;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import structures.GameState;
+
+/**
+ * An event processor that does no I/O. Rather than sending commands to the front-end as
+ * it goes, it returns them, with the resulting game state, in an EventResult, and the
+ * caller decides what to do with them. This means events can be processed without a
+ * front-end, e.g. to try out moves for the AI or to test the game logic, and the commands
+ * of several events can be sent together.
+ *
+ * A processor may update the game state it is given and return it, so a caller that needs
+ * to keep the state as it was must pass a copy (see GameStateCodec.copy). Processors
+ * written against the older EventProcessor interface are run through a
+ * LegacyEventProcessor.
+ *
+ */
+public interface PureEventProcessor {
+
+	/**
+	 * Processes an event from the front-end
+	 * @param gameState
+	 * @param message
+	 * @return
+	 */
+	public EventResult process(GameState gameState, JsonNode message);
+
+}
@@ -4,9 +4,10 @@ package events;
 import com.fasterxml.jackson.databind.JsonNode;
 
 import akka.actor.ActorRef;
-import commands.BasicCommands;
 import structures.GameState;
 import structures.basic.Tile;
+import structures.basic.Unit;
+import utils.ReachabilityEngine;
 
 /**
  * Indicates that the user has clicked an object on the game canvas, in this case a tile.
@@ -40,15 +41,23 @@ break;
 }
 }
 if (clickedTile != null) {
-// SC-08: deduct mana cost and update UI
-gameState.player1.setMana(gameState.player1.getMana() - gameState.selectedCard.getManacost());
-BasicCommands.setPlayer1Mana(out, gameState.player1);
-// clear selection state
-gameState.clearHighlights(out);
-gameState.selectedCard = null;
-gameState.selectedCardPosition = -1;
+// SC-08: deduct mana cost, the card leaves the hand (which clears the selection)
+gameState.setPlayer1Mana(gameState.player1.getMana() - gameState.selectedCard.getManacost());
+gameState.removeCardFromHand(gameState.selectedCardPosition);
+gameState.clearHighlights();
+}
+} else {
+// with no card selected, clicking one of the player's units shows where it can move
+gameState.clearHighlights();
+for (Unit unit : gameState.friendlyUnits) {
+if (unit.getPosition().getTilex() == tilex && unit.getPosition().getTiley() == tiley) {
+ReachabilityEngine.highlightMoves(gameState, unit);
+break;
 }
 }
+}
+
+gameState.render(out);
 
 if (gameState.something == true) {
 // do some logic
@@ -0,0 +1,114 @@
+package structures;
+
+import java.util.Arrays;
+
+import akka.actor.ActorRef;
+import commands.BasicCommands;
+import structures.basic.Card;
+import structures.basic.Player;
+import utils.BoardMask;
+
+/**
+ * Brings the front-end up to date with a GameState. It remembers what it last sent for
+ * each player stat, hand slot and the highlighted tiles, and on render looks only at the
+ * parts the GameState has marked dirty, sending a command for those that now differ.
+ * A field changed twice in one event, or changed and then put back, costs at most one
+ * command (or none).
+ *
+ * Each GameState has its own renderer. What has been sent is not part of the saved
+ * game (see GameStateCodec), so a decoded state starts out knowing nothing and sends
+ * whatever is next marked dirty. The tiles are the exception, as the front-end may still
+ * show highlights from before the game was saved: a decoded state forgets them (see
+ * forgetTiles) and the next render draws every tile.
+ *
+ */
+public class GameRenderer {
+
+	private Integer player1Health = null; // null until first sent
+	private Integer player1Mana = null;
+	private Integer player2Health = null;
+	private Integer player2Mana = null;
+
+	private final Card[] handCards = new Card[GameState.MAX_HAND_SIZE];
+	private final int[] handModes = new int[GameState.MAX_HAND_SIZE]; // -1 until first sent
+
+	private long highlighted = 0;
+	private boolean tilesKnown = true; // false if the front-end may show highlights this renderer did not send
+
+	public GameRenderer() {
+		Arrays.fill(handModes, -1);
+	}
+
+	/**
+	 * Makes the next render of the tiles draw every tile, highlighted or not
+	 */
+	void forgetTiles() {
+		tilesKnown = false;
+	}
+
+	/**
+	 * Sends the commands for the dirty parts of the game state that have changed since
+	 * they were last sent, then clears the dirty flags
+	 * @param gameState
+	 * @param out
+	 */
+	void render(GameState gameState, ActorRef out) {
+		int dirty = gameState.dirty;
+		if (dirty==0 && gameState.dirtyHandSlots==0) return;
+
+		Player player1 = gameState.player1;
+		if (player1!=null) {
+			if ((dirty & GameState.DIRTY_PLAYER1_HEALTH)!=0 && !equal(player1Health, player1.getHealth())) {
+				BasicCommands.setPlayer1Health(out, player1);
+				player1Health = player1.getHealth();
+			}
+			if ((dirty & GameState.DIRTY_PLAYER1_MANA)!=0 && !equal(player1Mana, player1.getMana())) {
+				BasicCommands.setPlayer1Mana(out, player1);
+				player1Mana = player1.getMana();
+			}
+		}
+		Player player2 = gameState.player2;
+		if (player2!=null) {
+			if ((dirty & GameState.DIRTY_PLAYER2_HEALTH)!=0 && !equal(player2Health, player2.getHealth())) {
+				BasicCommands.setPlayer2Health(out, player2);
+				player2Health = player2.getHealth();
+			}
+			if ((dirty & GameState.DIRTY_PLAYER2_MANA)!=0 && !equal(player2Mana, player2.getMana())) {
+				BasicCommands.setPlayer2Mana(out, player2);
+				player2Mana = player2.getMana();
+			}
+		}
+
+		for (int slot = 0; slot < GameState.MAX_HAND_SIZE; slot++) {
+			if ((gameState.dirtyHandSlots & (1 << slot))==0) continue;
+			Card card = slot < gameState.player_cards.size() ? gameState.player_cards.get(slot) : null;
+			int mode = card!=null && card==gameState.selectedCard ? 1 : 0;
+			if (card==handCards[slot] && mode==handModes[slot]) continue;
+			if (card==null) BasicCommands.deleteCard(out, slot+1);
+			else BasicCommands.drawCard(out, card, slot+1, mode);
+			handCards[slot] = card;
+			handModes[slot] = mode;
+		}
+
+		if ((dirty & GameState.DIRTY_TILES)!=0) {
+			long mask = BoardMask.of(gameState.highlightedTiles);
+			if (!tilesKnown) {
+				BasicCommands.drawTiles(out, BoardMask.ALL & ~mask, 0);
+				BasicCommands.drawTiles(out, mask, 1);
+				tilesKnown = true;
+			} else {
+				BasicCommands.drawTiles(out, highlighted & ~mask, 0);
+				BasicCommands.drawTiles(out, mask & ~highlighted, 1);
+			}
+			highlighted = mask;
+		}
+
+		gameState.dirty = 0;
+		gameState.dirtyHandSlots = 0;
+	}
+
+	private static boolean equal(Integer sent, int value) {
+		return sent!=null && sent==value;
+	}
+
+}
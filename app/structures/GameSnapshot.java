@@ -0,0 +1,136 @@
+package structures;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import play.libs.Json;
+import structures.basic.Card;
+import structures.basic.Player;
+import structures.basic.Unit;
+
+/**
+ * A read-only copy of what can be seen of a GameState at one moment: the turn, each
+ * player's health and mana, the cards in hand and the units on the board. Nothing in it
+ * changes once it has been made, so it can be read from any thread while the game goes
+ * on (see GameRegistry).
+ *
+ */
+public final class GameSnapshot {
+
+	/**
+	 * A unit on the board
+	 */
+	public static final class UnitSnapshot {
+		public final int id;
+		public final String owner; // "player1" or "ai"
+		public final int tilex;
+		public final int tiley;
+
+		public UnitSnapshot(int id, String owner, int tilex, int tiley) {
+			this.id = id;
+			this.owner = owner;
+			this.tilex = tilex;
+			this.tiley = tiley;
+		}
+	}
+
+	public final String gameId;
+	public final long takenAt; // System.currentTimeMillis()
+	public final long events; // events and timeline steps the game had processed when this was taken
+	public final boolean initalised;
+	public final int turnNumber;
+	public final int player1Health;
+	public final int player1Mana;
+	public final Integer player2Health; // null unless player-vs-player
+	public final Integer player2Mana;
+	public final List<String> hand;
+	public final List<UnitSnapshot> units;
+
+	private GameSnapshot(String gameId, long events, GameState gameState) {
+		this.gameId = gameId;
+		this.takenAt = System.currentTimeMillis();
+		this.events = events;
+		this.initalised = gameState.gameInitalised;
+		this.turnNumber = gameState.turnNumber;
+
+		Player player1 = gameState.player1;
+		this.player1Health = player1==null ? 0 : player1.getHealth();
+		this.player1Mana = player1==null ? 0 : player1.getMana();
+		Player player2 = gameState.player2;
+		this.player2Health = player2==null ? null : player2.getHealth();
+		this.player2Mana = player2==null ? null : player2.getMana();
+
+		List<String> hand = new ArrayList<String>(gameState.player_cards.size());
+		for (Card card : gameState.player_cards) hand.add(card.getCardname());
+		this.hand = Collections.unmodifiableList(hand);
+
+		List<UnitSnapshot> units = new ArrayList<UnitSnapshot>(gameState.friendlyUnits.size()+1);
+		for (Unit unit : gameState.friendlyUnits) units.add(unitSnapshot(unit, "player1"));
+		if (gameState.aiAvatar!=null) units.add(unitSnapshot(gameState.aiAvatar, "ai"));
+		this.units = Collections.unmodifiableList(units);
+	}
+
+	/**
+	 * Takes a snapshot of a game, this must be called by the thread running the game
+	 * @param gameId
+	 * @param events
+	 * @param gameState
+	 * @return
+	 */
+	public static GameSnapshot of(String gameId, long events, GameState gameState) {
+		return new GameSnapshot(gameId, events, gameState);
+	}
+
+	private static UnitSnapshot unitSnapshot(Unit unit, String owner) {
+		if (unit.getPosition()==null) return new UnitSnapshot(unit.getId(), owner, -1, -1);
+		return new UnitSnapshot(unit.getId(), owner, unit.getPosition().getTilex(), unit.getPosition().getTiley());
+	}
+
+	/**
+	 * A short Json summary, used when listing games
+	 * @return
+	 */
+	public ObjectNode toSummaryJson() {
+		ObjectNode summary = Json.newObject();
+		summary.put("gameId", gameId);
+		summary.put("takenAt", takenAt);
+		summary.put("initalised", initalised);
+		summary.put("turnNumber", turnNumber);
+		summary.put("handSize", hand.size());
+		summary.put("units", units.size());
+		return summary;
+	}
+
+	/**
+	 * Everything in the snapshot as Json
+	 * @return
+	 */
+	public ObjectNode toJson() {
+		ObjectNode json = toSummaryJson();
+		json.put("events", events);
+		ObjectNode player1 = json.putObject("player1");
+		player1.put("health", player1Health);
+		player1.put("mana", player1Mana);
+		if (player2Health!=null) {
+			ObjectNode player2 = json.putObject("player2");
+			player2.put("health", player2Health);
+			player2.put("mana", player2Mana);
+		}
+		ArrayNode hand = json.putArray("hand");
+		for (String card : this.hand) hand.add(card);
+		ArrayNode units = json.putArray("board");
+		for (UnitSnapshot unit : this.units) {
+			ObjectNode u = units.addObject();
+			u.put("id", unit.id);
+			u.put("owner", unit.owner);
+			u.put("tilex", unit.tilex);
+			u.put("tiley", unit.tiley);
+		}
+		return json;
+	}
+
+}
@@ -5,10 +5,14 @@ import java.util.List;
 
 import akka.actor.ActorRef;
 import commands.BasicCommands;
+import commands.Timeline;
 import structures.basic.Card;
 import structures.basic.Player;
+import structures.basic.Position;
 import structures.basic.Tile;
 import structures.basic.Unit;
+import utils.BoardIndex;
+import utils.BoardMask;
 
 /**
  * This class can be used to hold information about the on-going game.
@@ -33,6 +37,7 @@ public class GameState {
 
 	// SC-04: player resources
 	public Player player1 = null;
+	public Player player2 = null; // only in player-vs-player games, see MatchGame
 	public int turnNumber = 1;
 
 	// SC-05/SC-10: player hand (max 6 cards)
@@ -49,27 +54,246 @@ public class GameState {
 	// SC-07: friendly units on the board (used by SummoningEngine)
 	public List<Unit> friendlyUnits = new ArrayList<Unit>();
 
+	// SC-07: where the units stand, built from the units above on first use and then kept
+	// up to date by placeUnit, moveUnit and removeUnit
+	private BoardIndex boardIndex = null;
+
+	// timelines queued by event processors, started by the GameActor after the event
+	public List<Timeline> pendingTimelines = new ArrayList<Timeline>();
+
+	// what has changed since the front-end was last brought up to date, see render
+	static final int DIRTY_PLAYER1_HEALTH = 1;
+	static final int DIRTY_PLAYER1_MANA = 2;
+	static final int DIRTY_PLAYER2_HEALTH = 4;
+	static final int DIRTY_PLAYER2_MANA = 8;
+	static final int DIRTY_TILES = 16;
+	int dirty = 0;
+	int dirtyHandSlots = 0; // bit i is set if hand position i+1 may have changed
+	private final GameRenderer renderer = new GameRenderer();
+
+	/**
+	 * Queues a timeline of delayed commands to be played once the current event has
+	 * been processed. Use this instead of Thread.sleep between animations.
+	 */
+	public void play(Timeline timeline) {
+		pendingTimelines.add(timeline);
+	}
+
+	/**
+	 * Sends the commands that bring the front-end up to date with whatever has been
+	 * changed through the methods below since the last render. Event processors call
+	 * this once, at the end of the event.
+	 * @param out
+	 */
+	public void render(ActorRef out) {
+		renderer.render(this, out);
+	}
+
+	/**
+	 * Sets up player 1 at the start of the game
+	 * @param player
+	 */
+	public void setPlayer1(Player player) {
+		player1 = player;
+		dirty |= DIRTY_PLAYER1_HEALTH | DIRTY_PLAYER1_MANA;
+	}
+
+	/**
+	 * Sets up player 2 at the start of a player-vs-player game
+	 * @param player
+	 */
+	public void setPlayer2(Player player) {
+		player2 = player;
+		dirty |= DIRTY_PLAYER2_HEALTH | DIRTY_PLAYER2_MANA;
+	}
+
+	public void setPlayer1Health(int health) {
+		player1.setHealth(health);
+		dirty |= DIRTY_PLAYER1_HEALTH;
+	}
+
+	public void setPlayer1Mana(int mana) {
+		player1.setMana(mana);
+		dirty |= DIRTY_PLAYER1_MANA;
+	}
+
+	public void setPlayer2Health(int health) {
+		player2.setHealth(health);
+		dirty |= DIRTY_PLAYER2_HEALTH;
+	}
+
+	public void setPlayer2Mana(int mana) {
+		player2.setMana(mana);
+		dirty |= DIRTY_PLAYER2_MANA;
+	}
+
+	/**
+	 * SC-06: Selects the card at a hand position (1-based)
+	 * @param position
+	 */
+	public void selectCard(int position) {
+		markHandDirty(selectedCardPosition);
+		selectedCard = player_cards.get(position-1);
+		selectedCardPosition = position;
+		markHandDirty(position);
+	}
+
+	public void clearSelection() {
+		markHandDirty(selectedCardPosition);
+		selectedCard = null;
+		selectedCardPosition = -1;
+	}
+
+	/**
+	 * SC-07: Highlights tiles (mode 1) in addition to any already highlighted
+	 * @param tiles
+	 */
+	public void highlightTiles(List<Tile> tiles) {
+		highlightedTiles.addAll(tiles);
+		dirty |= DIRTY_TILES;
+	}
+
+	/**
+	 * Redraws every tile on the next render, for a game state that has been decoded while
+	 * the front-end may still show highlights from before (see GameStateCodec)
+	 */
+	public void redrawTiles() {
+		renderer.forgetTiles();
+		dirty |= DIRTY_TILES;
+	}
+
+	/**
+	 * SC-06: Clears all tile highlights, they are drawn in normal mode (0) on the next render
+	 */
+	public void clearHighlights() {
+		highlightedTiles.clear();
+		dirty |= DIRTY_TILES;
+	}
+
 	/**
-	 * SC-06: Clears all tile highlights by redrawing each tile in normal mode (0).
+	 * SC-06: Clears all tile highlights and renders straight away
+	 * @param out
 	 */
 	public void clearHighlights(ActorRef out) {
-		for (Tile t : highlightedTiles) {
-			BasicCommands.drawTile(out, t, 0);
+		clearHighlights();
+		render(out);
+	}
+
+	/**
+	 * SC-07: Returns the index of where the units stand, see BoardIndex
+	 * @return
+	 */
+	public BoardIndex getBoardIndex() {
+		if (boardIndex==null) boardIndex = BoardIndex.of(this);
+		return boardIndex;
+	}
+
+	/**
+	 * Puts a unit on a tile, e.g. an avatar at the start of the game or a summoned unit
+	 * @param unit
+	 * @param tile
+	 * @param friendly true if the unit belongs to player 1 (it is added to friendlyUnits)
+	 */
+	public void placeUnit(Unit unit, Tile tile, boolean friendly) {
+		BoardIndex index = getBoardIndex();
+		unit.setPositionByTile(tile);
+		if (friendly) friendlyUnits.add(unit);
+		index.unitPlaced(BoardIndex.indexOf(unit), friendly);
+	}
+
+	/**
+	 * Moves a unit that is on the board to another tile
+	 * @param unit
+	 * @param tile
+	 */
+	public void moveUnit(Unit unit, Tile tile) {
+		BoardIndex index = getBoardIndex();
+		int from = BoardIndex.indexOf(unit);
+		unit.setPositionByTile(tile);
+		index.unitMoved(from, BoardIndex.indexOf(unit), friendlyUnits.contains(unit));
+	}
+
+	/**
+	 * Takes a unit off the board, e.g. when it dies
+	 * @param unit
+	 */
+	public void removeUnit(Unit unit) {
+		BoardIndex index = getBoardIndex();
+		boolean friendly = friendlyUnits.remove(unit);
+		index.unitRemoved(BoardIndex.indexOf(unit), friendly);
+	}
+
+	/**
+	 * Sends the commands that draw the game as it is now onto an empty board, e.g. for a
+	 * front-end that has reconnected and missed too much to catch up command by command.
+	 */
+	public void redraw(ActorRef out) {
+		if (!gameInitalised) return;
+
+		BasicCommands.drawTiles(out, BoardMask.ALL, 0);
+		BasicCommands.drawTiles(out, highlightedTiles, 1);
+
+		List<Unit> units = new ArrayList<Unit>();
+		if (humanAvatar!=null) units.add(humanAvatar);
+		if (aiAvatar!=null) units.add(aiAvatar);
+		for (Unit unit : friendlyUnits) if (unit!=humanAvatar && unit!=aiAvatar) units.add(unit);
+		for (Unit unit : units) {
+			Position position = unit.getPosition();
+			BasicCommands.drawUnit(out, unit, board[position.getTilex()-1][position.getTiley()-1]);
+		}
+
+		if (player1!=null) {
+			BasicCommands.setPlayer1Health(out, player1);
+			BasicCommands.setPlayer1Mana(out, player1);
+		}
+		if (player2!=null) {
+			BasicCommands.setPlayer2Health(out, player2);
+			BasicCommands.setPlayer2Mana(out, player2);
+		}
+		for (int i = 0; i < player_cards.size(); i++) {
+			Card card = player_cards.get(i);
+			BasicCommands.drawCard(out, card, i+1, card==selectedCard ? 1 : 0);
 		}
-		highlightedTiles.clear();
 	}
 
 	/**
-	 * SC-10: Attempts to add a card to the player's hand and draw it in the UI.
-	 * Returns false (and does nothing) if the hand is already at MAX_HAND_SIZE.
+	 * SC-10: Attempts to add a card to the end of the player's hand, it is drawn on the
+	 * next render. Returns false (and does nothing) if the hand is already at MAX_HAND_SIZE.
 	 */
-	public boolean drawCardToHand(ActorRef out, Card card) {
+	public boolean addCardToHand(Card card) {
 		if (player_cards.size() >= MAX_HAND_SIZE) {
 			return false;
 		}
-		int position = player_cards.size() + 1;
 		player_cards.add(card);
-		BasicCommands.drawCard(out, card, position, 0);
+		markHandDirty(player_cards.size());
+		return true;
+	}
+
+	/**
+	 * SC-10: Attempts to add a card to the player's hand and draw it in the UI.
+	 * Returns false (and does nothing) if the hand is already at MAX_HAND_SIZE.
+	 */
+	public boolean drawCardToHand(ActorRef out, Card card) {
+		if (!addCardToHand(card)) return false;
+		render(out);
 		return true;
 	}
+
+	/**
+	 * Removes the card at a hand position (1-based), e.g. once it has been played. The
+	 * cards after it move up one position, which is drawn on the next render.
+	 * @param position
+	 * @return the card removed
+	 */
+	public Card removeCardFromHand(int position) {
+		for (int i = position; i <= player_cards.size(); i++) markHandDirty(i);
+		Card card = player_cards.remove(position-1);
+		if (card==selectedCard) clearSelection();
+		else if (selectedCardPosition > position) selectedCardPosition--;
+		return card;
+	}
+
+	private void markHandDirty(int position) {
+		if (position >= 1 && position <= MAX_HAND_SIZE) dirtyHandSlots |= 1 << (position-1);
+	}
 }
@@ -0,0 +1,276 @@
+package utils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import play.libs.Json;
+import structures.basic.Card;
+import structures.basic.EffectAnimation;
+import structures.basic.Tile;
+import structures.basic.Unit;
+import structures.basic.UnitAnimationSet;
+
+/**
+ * The asset dictionary gives every image the front-end pre-loads an integer id (its index
+ * in the preload list), and gives every unit, card and effect configuration a template id.
+ * The templates are sent to the front-end once, in the actorReady message, with their image
+ * paths replaced by asset ids.
+ *
+ * When a session uses the compact protocol, commands that would normally carry a whole Unit,
+ * Card, EffectAnimation or Tile are rewritten by compact() to carry just the template id plus
+ * the values that differ between instances (ids, positions, mana cost etc.). The front-end
+ * puts the template back in before acting on the command. A drawUnit command for instance
+ * shrinks from hundreds of frame paths to a few numbers.
+ *
+ * The dictionary is built from the configuration files once per JVM, as it only depends on
+ * the contents of conf/gameconfs.
+ *
+ */
+public class AssetDictionary {
+
+	private static ObjectMapper mapper = new ObjectMapper(); // Jackson Java Object Serializer, is used to turn java objects to Json
+
+	private static volatile AssetDictionary instance = null;
+
+	private final List<String> assets = new ArrayList<String>(); // index in this list is the asset id
+	private final Map<String,Integer> assetIds = new HashMap<String,Integer>();
+
+	private final ArrayNode unitTemplates = Json.newArray();
+	private final Map<String,Integer> unitTemplateIds = new HashMap<String,Integer>(); // keyed by frameDIR
+	private final List<UnitAnimationSet> unitAnimations = new ArrayList<UnitAnimationSet>(); // in template id order
+
+	private final ArrayNode cardTemplates = Json.newArray();
+	private final Map<String,Integer> cardTemplateIds = new HashMap<String,Integer>(); // keyed by cardname
+	private final Map<String,Card> cards = new HashMap<String,Card>(); // as loaded, keyed by cardname
+
+	private final ArrayNode effectTemplates = Json.newArray();
+	private final Map<String,Integer> effectTemplateIds = new HashMap<String,Integer>(); // keyed by first texture
+
+	private ObjectNode tileTemplate;
+
+	/**
+	 * Returns the dictionary, building it the first time this is called
+	 * @return
+	 */
+	public static AssetDictionary get() {
+		if (instance==null) {
+			synchronized (AssetDictionary.class) {
+				if (instance==null) instance = new AssetDictionary();
+			}
+		}
+		return instance;
+	}
+
+	private AssetDictionary() {
+
+		// sort the preload images so that ids are the same every time
+		for (String image : new TreeSet<String>(ImageListForPreLoad.getImageListForPreLoad())) assetId(image);
+
+		Tile tile = Tile.constructTile(StaticConfFiles.tileConf);
+		tileTemplate = Json.newObject();
+		tileTemplate.set("tileTextures", assetIdArray(tile.getTileTextures()));
+
+		// the geometry of the grid, so the front-end can place tiles it is told about in a drawTiles command
+		Tile first = BasicObjectBuilders.loadTile(1, 1);
+		Tile diagonal = BasicObjectBuilders.loadTile(2, 2);
+		tileTemplate.put("width", first.getWidth());
+		tileTemplate.put("height", first.getHeight());
+		tileTemplate.put("xpos", first.getXpos());
+		tileTemplate.put("ypos", first.getYpos());
+		tileTemplate.put("xstep", diagonal.getXpos()-first.getXpos());
+		tileTemplate.put("ystep", diagonal.getYpos()-first.getYpos());
+
+		addUnitTemplate(BasicObjectBuilders.loadUnit(StaticConfFiles.humanAvatar, -1, Unit.class));
+		addUnitTemplate(BasicObjectBuilders.loadUnit(StaticConfFiles.aiAvatar, -1, Unit.class));
+
+		String unitsDIR = "conf/gameconfs/units/";
+		for (String filename : sortedFiles(unitsDIR)) {
+			addUnitTemplate(BasicObjectBuilders.loadUnit(unitsDIR+filename, -1, Unit.class));
+		}
+
+		for (String filename : sortedFiles(OrderedCardLoader.cardsDIR)) {
+			addCardTemplate(BasicObjectBuilders.loadCard(OrderedCardLoader.cardsDIR+filename, 0, Card.class));
+		}
+
+		String effectsDIR = "conf/gameconfs/effects/";
+		for (String filename : sortedFiles(effectsDIR)) {
+			addEffectTemplate(BasicObjectBuilders.loadEffect(effectsDIR+filename));
+		}
+	}
+
+	/**
+	 * All asset paths, in id order. This is what is sent to the front-end as the list
+	 * of images to pre-load.
+	 * @return
+	 */
+	public List<String> getAssets() {
+		return assets;
+	}
+
+	/**
+	 * Returns the template id of the unit animations with the given frame directory,
+	 * or null if there is no such template
+	 * @param frameDIR
+	 * @return
+	 */
+	public Integer getUnitTemplateId(String frameDIR) {
+		return unitTemplateIds.get(frameDIR);
+	}
+
+	/**
+	 * Returns the animations of a unit template, as loaded from its configuration file.
+	 * These are shared, so must not be changed.
+	 * @param templateId
+	 * @return
+	 */
+	public UnitAnimationSet getUnitAnimations(int templateId) {
+		return unitAnimations.get(templateId);
+	}
+
+	/**
+	 * Returns the card with the given name, as loaded from its configuration file, or
+	 * null if there is no such card. This is shared, so must not be changed.
+	 * @param cardname
+	 * @return
+	 */
+	public Card getCard(String cardname) {
+		return cards.get(cardname);
+	}
+
+	/**
+	 * Creates the actorReady message that tells the front-end which images to pre-load,
+	 * including the templates if the session uses the compact protocol
+	 * @param withTemplates
+	 * @return
+	 */
+	public ObjectNode createReadyMessage(boolean withTemplates) {
+		ObjectNode readyMessage = Json.newObject();
+		readyMessage.put("messagetype", "actorReady");
+		readyMessage.set("preloadImages", mapper.valueToTree(assets));
+		if (withTemplates) addTemplates(readyMessage);
+		return readyMessage;
+	}
+
+	/**
+	 * Adds the asset and template tables to an actorReady message
+	 * @param readyMessage
+	 */
+	public void addTemplates(ObjectNode readyMessage) {
+		ObjectNode templates = readyMessage.putObject("templates");
+		templates.set("units", unitTemplates);
+		templates.set("cards", cardTemplates);
+		templates.set("effects", effectTemplates);
+		templates.set("tile", tileTemplate);
+	}
+
+	/**
+	 * Rewrites a command so that any Unit, Card, EffectAnimation or Tile it carries
+	 * refers to its template rather than including all of its image paths. Objects
+	 * that have no template are left as they are.
+	 * @param command
+	 */
+	public void compact(ObjectNode command) {
+		compactUnit(command.get("unit"));
+		compactTile(command.get("tile"));
+		compactTile(command.get("targetTile"));
+
+		JsonNode card = command.get("card");
+		if (card!=null && card.isObject()) {
+			Integer template = cardTemplateIds.get(card.path("cardname").asText());
+			if (template!=null) {
+				ObjectNode compactCard = Json.newObject();
+				compactCard.put("template", template);
+				compactCard.set("id", card.get("id"));
+				compactCard.set("manacost", card.get("manacost"));
+				command.set("card", compactCard);
+			}
+		}
+
+		JsonNode effect = command.get("effect");
+		if (effect!=null && effect.path("animationTextures").size()>0) {
+			Integer template = effectTemplateIds.get(effect.path("animationTextures").get(0).asText());
+			if (template!=null) {
+				ObjectNode compactEffect = Json.newObject();
+				compactEffect.put("template", template);
+				command.set("effect", compactEffect);
+			}
+		}
+	}
+
+	private void compactUnit(JsonNode unit) {
+		if (unit==null || !unit.isObject()) return;
+		Integer template = unitTemplateIds.get(unit.path("animations").path("frameDIR").asText());
+		if (template==null) return;
+		((ObjectNode)unit).remove("animations");
+		((ObjectNode)unit).put("template", template);
+	}
+
+	private void compactTile(JsonNode tile) {
+		if (tile==null || !tile.isObject()) return;
+		((ObjectNode)tile).remove("tileTextures"); // the same for every tile, see the tile template
+	}
+
+	private void addUnitTemplate(Unit unit) {
+		String key = unit.getAnimations().getFrameDIR();
+		if (unitTemplateIds.containsKey(key)) return;
+		ObjectNode animations = mapper.valueToTree(unit.getAnimations());
+		animations.set("allFrames", assetIdArray(unit.getAnimations().getAllFrames()));
+		unitTemplateIds.put(key, unitTemplates.size());
+		unitTemplates.add(animations);
+		unitAnimations.add(unit.getAnimations());
+	}
+
+	private void addCardTemplate(Card card) {
+		if (cardTemplateIds.containsKey(card.getCardname())) return;
+		ObjectNode template = mapper.valueToTree(card);
+		((ObjectNode)template.get("miniCard")).set("cardTextures", assetIdArray(Arrays.asList(card.getMiniCard().getCardTextures())));
+		((ObjectNode)template.get("miniCard")).set("animationFrames", assetIdArray(Arrays.asList(card.getMiniCard().getAnimationFrames())));
+		((ObjectNode)template.get("bigCard")).set("cardTextures", assetIdArray(Arrays.asList(card.getBigCard().getCardTextures())));
+		cardTemplateIds.put(card.getCardname(), cardTemplates.size());
+		cardTemplates.add(template);
+		cards.put(card.getCardname(), card);
+	}
+
+	private void addEffectTemplate(EffectAnimation effect) {
+		if (effect.getAnimationTextures().isEmpty()) return;
+		String key = effect.getAnimationTextures().get(0);
+		if (effectTemplateIds.containsKey(key)) return;
+		ObjectNode template = mapper.valueToTree(effect);
+		template.set("animationTextures", assetIdArray(effect.getAnimationTextures()));
+		effectTemplateIds.put(key, effectTemplates.size());
+		effectTemplates.add(template);
+	}
+
+	private ArrayNode assetIdArray(List<String> paths) {
+		ArrayNode ids = Json.newArray();
+		for (String path : paths) ids.add(assetId(path));
+		return ids;
+	}
+
+	private int assetId(String path) {
+		Integer id = assetIds.get(path);
+		if (id==null) {
+			id = assets.size();
+			assets.add(path);
+			assetIds.put(path, id);
+		}
+		return id;
+	}
+
+	private static List<String> sortedFiles(String dir) {
+		List<String> files = new ArrayList<String>(Arrays.asList(new File(dir).list()));
+		files.sort(null);
+		return files;
+	}
+
+}
@@ -0,0 +1,145 @@
+package utils;
+
+import java.util.Collections;
+import java.util.List;
+
+import structures.GameState;
+import structures.basic.Position;
+import structures.basic.Tile;
+import structures.basic.Unit;
+
+/**
+ * Keeps track of where the units stand on the board as BoardMasks, so that the legal
+ * summon tiles can be read without walking every unit on each card click. For each tile
+ * it counts the friendly units next to it. A tile is a legal summon tile while that count
+ * is above zero and no unit stands on it.
+ *
+ * GameState updates the index as units are placed, moved and removed (see placeUnit),
+ * and each change moves the board version on. The list of legal summon tiles is cached
+ * against the version, so asking again before anything moves costs nothing.
+ *
+ */
+public class BoardIndex {
+
+	private final int[] friendlyAdjacent = new int[BoardMask.TILES]; // friendly units next to each tile
+	private long nearFriendly = 0; // tiles with at least one friendly unit next to them
+	private long friendly = 0;
+	private long enemy = 0;
+	private long version = 0;
+
+	private List<Tile> legalSummonTiles = null;
+	private long legalSummonVersion = -1;
+
+	/**
+	 * Builds the index for the units already on the board of a game
+	 * @param gameState
+	 * @return
+	 */
+	public static BoardIndex of(GameState gameState) {
+		BoardIndex index = new BoardIndex();
+		for (Unit unit : gameState.friendlyUnits) index.unitPlaced(indexOf(unit), true);
+		if (gameState.humanAvatar!=null && !gameState.friendlyUnits.contains(gameState.humanAvatar)) index.unitPlaced(indexOf(gameState.humanAvatar), true);
+		if (gameState.aiAvatar!=null) index.unitPlaced(indexOf(gameState.aiAvatar), false);
+		return index;
+	}
+
+	/**
+	 * Returns the bit index of the tile a unit stands on, or -1 if it is not on the board
+	 * @param unit
+	 * @return
+	 */
+	public static int indexOf(Unit unit) {
+		Position position = unit.getPosition();
+		if (position==null || BoardMask.bit(position.getTilex(), position.getTiley())==0) return -1;
+		return BoardMask.index(position.getTilex(), position.getTiley());
+	}
+
+	/**
+	 * @param index the tile the unit now stands on, -1 if none
+	 * @param friendly
+	 */
+	public void unitPlaced(int index, boolean friendly) {
+		if (index < 0) return;
+		if (friendly) {
+			this.friendly |= 1L << index;
+			addAdjacent(index, 1);
+		} else {
+			this.enemy |= 1L << index;
+		}
+		version++;
+	}
+
+	/**
+	 * @param index the tile the unit stood on, -1 if none
+	 * @param friendly
+	 */
+	public void unitRemoved(int index, boolean friendly) {
+		if (index < 0) return;
+		if (friendly) {
+			this.friendly &= ~(1L << index);
+			addAdjacent(index, -1);
+		} else {
+			this.enemy &= ~(1L << index);
+		}
+		version++;
+	}
+
+	public void unitMoved(int from, int to, boolean friendly) {
+		unitRemoved(from, friendly);
+		unitPlaced(to, friendly);
+	}
+
+	private void addAdjacent(int index, int delta) {
+		long around = BoardMask.adjacent(index);
+		while (around != 0) {
+			int tile = Long.numberOfTrailingZeros(around);
+			around &= around - 1;
+			friendlyAdjacent[tile] += delta;
+			if (friendlyAdjacent[tile] > 0) nearFriendly |= 1L << tile;
+			else nearFriendly &= ~(1L << tile);
+		}
+	}
+
+	/**
+	 * Moves on whenever a unit is placed, moved or removed
+	 * @return
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	public long getFriendly() {
+		return friendly;
+	}
+
+	public long getEnemy() {
+		return enemy;
+	}
+
+	public long getOccupied() {
+		return friendly | enemy;
+	}
+
+	/**
+	 * SC-07: the empty tiles next to a friendly unit
+	 * @return
+	 */
+	public long getLegalSummonMask() {
+		return nearFriendly & ~getOccupied();
+	}
+
+	/**
+	 * SC-07: the legal summon tiles, as an unmodifiable list that is only rebuilt when the
+	 * board version has moved on
+	 * @param board
+	 * @return
+	 */
+	public List<Tile> getLegalSummonTiles(Tile[][] board) {
+		if (legalSummonVersion != version) {
+			legalSummonTiles = Collections.unmodifiableList(BoardMask.tiles(getLegalSummonMask(), board));
+			legalSummonVersion = version;
+		}
+		return legalSummonTiles;
+	}
+
+}
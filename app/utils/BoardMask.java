@@ -0,0 +1,110 @@
+package utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import structures.basic.Tile;
+
+/**
+ * This is a utility class for describing sets of board tiles as a bitmask. The 9x5 board
+ * has 45 tiles, so a set of tiles fits in the low 45 bits of a long. Tile [x,y] (indices
+ * starting at 1) is bit (y-1)*9 + (x-1), i.e. the board is numbered row by row from the
+ * top left.
+ *
+ */
+public class BoardMask {
+
+	public static final int WIDTH = 9;
+	public static final int HEIGHT = 5;
+	public static final int TILES = WIDTH*HEIGHT;
+	public static final long ALL = (1L << TILES) - 1;
+
+	private static final long[] ADJACENT = new long[TILES]; // the (up to 8) tiles around each tile
+
+	static {
+		for (int i = 0; i < TILES; i++) {
+			for (int dx = -1; dx <= 1; dx++) {
+				for (int dy = -1; dy <= 1; dy++) {
+					if (dx != 0 || dy != 0) ADJACENT[i] |= bit(tilex(i)+dx, tiley(i)+dy);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the bit index of tile [x,y]
+	 * @param tilex
+	 * @param tiley
+	 * @return
+	 */
+	public static int index(int tilex, int tiley) {
+		return (tiley-1)*WIDTH + (tilex-1);
+	}
+
+	/**
+	 * Returns a mask containing only tile [x,y], or 0 if it is off the board
+	 * @param tilex
+	 * @param tiley
+	 * @return
+	 */
+	public static long bit(int tilex, int tiley) {
+		if (tilex < 1 || tilex > WIDTH || tiley < 1 || tiley > HEIGHT) return 0;
+		return 1L << index(tilex, tiley);
+	}
+
+	public static int tilex(int index) {
+		return index%WIDTH + 1;
+	}
+
+	public static int tiley(int index) {
+		return index/WIDTH + 1;
+	}
+
+	/**
+	 * Returns the tiles orthogonally or diagonally adjacent to a tile
+	 * @param index the bit index of the tile
+	 * @return
+	 */
+	public static long adjacent(int index) {
+		return ADJACENT[index];
+	}
+
+	/**
+	 * Returns a mask containing the given tiles
+	 * @param tiles
+	 * @return
+	 */
+	public static long of(List<Tile> tiles) {
+		long mask = 0;
+		for (Tile t : tiles) mask |= bit(t.getTilex(), t.getTiley());
+		return mask;
+	}
+
+	/**
+	 * Returns the tiles of a board that are in the mask, in bit order
+	 * @param mask
+	 * @param board the tiles, stored at [x-1][y-1]
+	 * @return
+	 */
+	public static List<Tile> tiles(long mask, Tile[][] board) {
+		List<Tile> tiles = new ArrayList<Tile>(Long.bitCount(mask));
+		for (long m = mask; m != 0; m &= m - 1) {
+			int index = Long.numberOfTrailingZeros(m);
+			Tile tile = board[tilex(index)-1][tiley(index)-1];
+			if (tile!=null) tiles.add(tile);
+		}
+		return tiles;
+	}
+
+	/**
+	 * Returns true if tile [x,y] is in the mask
+	 * @param mask
+	 * @param tilex
+	 * @param tiley
+	 * @return
+	 */
+	public static boolean contains(long mask, int tilex, int tiley) {
+		return (mask & bit(tilex, tiley)) != 0;
+	}
+
+}
@@ -0,0 +1,215 @@
+package utils;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import play.libs.Json;
+
+/**
+ * This is a utility class that holds simple in-process metrics for the game server.
+ * There are four kinds of metric:
+ *  - counters, which only ever go up (e.g. number of messages sent)
+ *  - gauges, which hold the latest value of something (e.g. number of open sessions)
+ *  - histograms, which keep a window of recent samples so that percentiles can be read
+ *  - per-session values, which hold the latest value of something for one game session
+ *
+ * All methods are thread safe and can be called from any actor. The current values
+ * can be read as a Json object via snapshot(), which is what the /metrics route returns.
+ *
+ */
+public class GameMetrics {
+
+	private static final int HISTOGRAM_WINDOW = 1024; // number of recent samples kept per histogram
+
+	private static Map<String,LongAdder> counters = new ConcurrentHashMap<String,LongAdder>();
+	private static Map<String,AtomicLong> gauges = new ConcurrentHashMap<String,AtomicLong>();
+	private static Map<String,Histogram> histograms = new ConcurrentHashMap<String,Histogram>();
+	private static Map<String,Map<String,Long>> sessions = new ConcurrentHashMap<String,Map<String,Long>>();
+
+	/**
+	 * Adds one to the named counter
+	 * @param name
+	 */
+	public static void increment(String name) {
+		add(name, 1);
+	}
+
+	/**
+	 * Adds a value to the named counter
+	 * @param name
+	 * @param delta
+	 */
+	public static void add(String name, long delta) {
+		counters.computeIfAbsent(name, k -> new LongAdder()).add(delta);
+	}
+
+	/**
+	 * Returns the current value of the named counter (0 if it has never been incremented)
+	 * @param name
+	 * @return
+	 */
+	public static long getCount(String name) {
+		LongAdder counter = counters.get(name);
+		if (counter==null) return 0;
+		return counter.sum();
+	}
+
+	/**
+	 * Sets the named gauge to a value
+	 * @param name
+	 * @param value
+	 */
+	public static void setGauge(String name, long value) {
+		gauges.computeIfAbsent(name, k -> new AtomicLong()).set(value);
+	}
+
+	/**
+	 * Adds a (possibly negative) value to the named gauge
+	 * @param name
+	 * @param delta
+	 */
+	public static void addToGauge(String name, long delta) {
+		gauges.computeIfAbsent(name, k -> new AtomicLong()).addAndGet(delta);
+	}
+
+	/**
+	 * Returns the current value of the named gauge (0 if it has never been set)
+	 * @param name
+	 * @return
+	 */
+	public static long getGauge(String name) {
+		AtomicLong gauge = gauges.get(name);
+		if (gauge==null) return 0;
+		return gauge.get();
+	}
+
+	/**
+	 * Records a sample in the named histogram
+	 * @param name
+	 * @param value
+	 */
+	public static void record(String name, long value) {
+		histograms.computeIfAbsent(name, k -> new Histogram()).record(value);
+	}
+
+	/**
+	 * Returns a percentile (0-100) over the recent samples of the named histogram,
+	 * or 0 if no samples have been recorded
+	 * @param name
+	 * @param percentile
+	 * @return
+	 */
+	public static long getPercentile(String name, double percentile) {
+		Histogram histogram = histograms.get(name);
+		if (histogram==null) return 0;
+		return histogram.percentile(percentile);
+	}
+
+	/**
+	 * Returns how many samples have ever been recorded in the named histogram
+	 * @param name
+	 * @return
+	 */
+	public static long getSampleCount(String name) {
+		Histogram histogram = histograms.get(name);
+		if (histogram==null) return 0;
+		return histogram.count();
+	}
+
+	/**
+	 * Sets a named value for a single game session
+	 * @param sessionId
+	 * @param name
+	 * @param value
+	 */
+	public static void setSessionValue(String sessionId, String name, long value) {
+		sessions.computeIfAbsent(sessionId, k -> new ConcurrentHashMap<String,Long>()).put(name, value);
+	}
+
+	/**
+	 * Returns a named value for a single game session, or null if it has not been set
+	 * @param sessionId
+	 * @param name
+	 * @return
+	 */
+	public static Long getSessionValue(String sessionId, String name) {
+		Map<String,Long> values = sessions.get(sessionId);
+		if (values==null) return null;
+		return values.get(name);
+	}
+
+	/**
+	 * Removes all values held for a game session, called when the session ends
+	 * @param sessionId
+	 */
+	public static void removeSession(String sessionId) {
+		sessions.remove(sessionId);
+	}
+
+	/**
+	 * Builds a Json view of all of the current metric values
+	 * @return
+	 */
+	public static ObjectNode snapshot() {
+		ObjectNode snapshot = Json.newObject();
+
+		ObjectNode counterNode = snapshot.putObject("counters");
+		for (Map.Entry<String,LongAdder> entry : counters.entrySet()) counterNode.put(entry.getKey(), entry.getValue().sum());
+
+		ObjectNode gaugeNode = snapshot.putObject("gauges");
+		for (Map.Entry<String,AtomicLong> entry : gauges.entrySet()) gaugeNode.put(entry.getKey(), entry.getValue().get());
+
+		ObjectNode histogramNode = snapshot.putObject("histograms");
+		for (Map.Entry<String,Histogram> entry : histograms.entrySet()) {
+			ObjectNode values = histogramNode.putObject(entry.getKey());
+			values.put("count", entry.getValue().count());
+			values.put("p50", entry.getValue().percentile(50));
+			values.put("p90", entry.getValue().percentile(90));
+			values.put("p99", entry.getValue().percentile(99));
+			values.put("max", entry.getValue().percentile(100));
+		}
+
+		ObjectNode sessionNode = snapshot.putObject("sessions");
+		for (Map.Entry<String,Map<String,Long>> entry : sessions.entrySet()) {
+			ObjectNode values = sessionNode.putObject(entry.getKey());
+			for (Map.Entry<String,Long> value : entry.getValue().entrySet()) values.put(value.getKey(), value.getValue());
+		}
+
+		return snapshot;
+	}
+
+	/**
+	 * Keeps the most recent HISTOGRAM_WINDOW samples in a ring buffer. Percentiles
+	 * are computed by sorting a copy of the window, which is fine for the small
+	 * number of reads made by the metrics route.
+	 */
+	private static class Histogram {
+
+		private final long[] samples = new long[HISTOGRAM_WINDOW];
+		private long recorded = 0;
+
+		synchronized void record(long value) {
+			samples[(int)(recorded % HISTOGRAM_WINDOW)] = value;
+			recorded++;
+		}
+
+		synchronized long count() {
+			return recorded;
+		}
+
+		synchronized long percentile(double percentile) {
+			int size = (int)Math.min(recorded, HISTOGRAM_WINDOW);
+			if (size==0) return 0;
+			long[] sorted = Arrays.copyOf(samples, size);
+			Arrays.sort(sorted);
+			int index = (int)Math.ceil((percentile/100.0)*size)-1;
+			return sorted[Math.max(0, Math.min(size-1, index))];
+		}
+	}
+
+}
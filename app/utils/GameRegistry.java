@@ -0,0 +1,68 @@
+package utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import structures.GameSnapshot;
+
+/**
+ * Holds the latest GameSnapshot of each running game, so that tools can look at games
+ * (see GameStateController) without sending anything to the actors running them.
+ *
+ * Each game has one slot, added when it first publishes and removed when it stops. A
+ * snapshot is published by writing the slot's volatile reference, so publishing takes
+ * no lock and readers only ever see a whole snapshot. Readers never hold up the game.
+ *
+ */
+public class GameRegistry {
+
+	private static final class Slot {
+		volatile GameSnapshot snapshot;
+	}
+
+	private static Map<String,Slot> games = new ConcurrentHashMap<String,Slot>();
+
+	/**
+	 * Replaces the snapshot of a game
+	 * @param snapshot
+	 */
+	public static void publish(GameSnapshot snapshot) {
+		Slot slot = games.get(snapshot.gameId);
+		if (slot==null) slot = games.computeIfAbsent(snapshot.gameId, id -> new Slot());
+		slot.snapshot = snapshot;
+	}
+
+	/**
+	 * Forgets a game that has stopped
+	 * @param gameId
+	 */
+	public static void remove(String gameId) {
+		games.remove(gameId);
+	}
+
+	/**
+	 * The latest snapshot of a game, null if there is no such game
+	 * @param gameId
+	 * @return
+	 */
+	public static GameSnapshot get(String gameId) {
+		Slot slot = games.get(gameId);
+		return slot==null ? null : slot.snapshot;
+	}
+
+	/**
+	 * The latest snapshot of every game
+	 * @return
+	 */
+	public static List<GameSnapshot> getAll() {
+		List<GameSnapshot> snapshots = new ArrayList<GameSnapshot>(games.size());
+		for (Slot slot : games.values()) {
+			GameSnapshot snapshot = slot.snapshot;
+			if (snapshot!=null) snapshots.add(snapshot);
+		}
+		return snapshots;
+	}
+
+}
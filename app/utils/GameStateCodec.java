@@ -0,0 +1,295 @@
+package utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+
+import structures.GameState;
+import structures.basic.Card;
+import structures.basic.Player;
+import structures.basic.Tile;
+import structures.basic.Unit;
+
+/**
+ * Turns a GameState into a compact binary form and back, so that an idle game can be
+ * kept out of the heap (see GameStateStore). Most of a GameState's size is data that is
+ * the same in every game: the animation frame lists of units, the images of cards and the
+ * textures of tiles. These are left out and put back from the AssetDictionary when the
+ * state is decoded, so an encoded game is only the values that actually change. The rest
+ * is written as CBOR and then deflated.
+ *
+ * Objects that appear in more than one place in the state (e.g. the human avatar, which is
+ * also a friendly unit, or a highlighted tile, which is also on the board) are written once
+ * and referred to by index, so they are still the same object after decoding.
+ *
+ * Timelines waiting to start are not encoded, a game should only be encoded when none
+ * are pending or running.
+ *
+ */
+public class GameStateCodec {
+
+	private static final int VERSION = 1;
+
+	private static ObjectMapper mapper = new ObjectMapper()
+			.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false); // Turns the game objects to and from Json trees
+	private static ObjectMapper cbor = new ObjectMapper(new CBORFactory()); // Writes the Json trees as CBOR
+
+	private static volatile List<String> standardTileTextures = null;
+
+	/**
+	 * Encodes a game state
+	 * @param gameState
+	 * @return
+	 */
+	public static byte[] encode(GameState gameState) {
+		try {
+			return deflate(cbor.writeValueAsBytes(toTree(gameState)));
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to encode game state", e);
+		}
+	}
+
+	/**
+	 * Makes a copy of a game state that shares nothing with it that can change, e.g. to
+	 * try out an event without changing the game (see PureEventProcessor). Timelines
+	 * waiting to start are not copied.
+	 * @param gameState
+	 * @return
+	 */
+	public static GameState copy(GameState gameState) {
+		try {
+			return fromTree(toTree(gameState));
+		} catch (IOException | ClassNotFoundException e) {
+			throw new IllegalArgumentException("Unable to copy game state", e);
+		}
+	}
+
+	private static ObjectNode toTree(GameState gameState) {
+		AssetDictionary dictionary = AssetDictionary.get();
+		ObjectNode root = mapper.createObjectNode();
+		root.put("v", VERSION);
+		root.put("gameInitalised", gameState.gameInitalised);
+		root.put("something", gameState.something);
+		root.put("turnNumber", gameState.turnNumber);
+		root.put("selectedCardPosition", gameState.selectedCardPosition);
+		if (gameState.player1!=null) root.set("player1", mapper.valueToTree(gameState.player1));
+		if (gameState.player2!=null) root.set("player2", mapper.valueToTree(gameState.player2));
+
+		// units, each written once however many places refer to it
+		Map<Unit,Integer> unitIndex = new IdentityHashMap<Unit,Integer>();
+		ArrayNode units = root.putArray("units");
+		root.put("humanAvatar", unitRef(gameState.humanAvatar, unitIndex, units, dictionary));
+		root.put("aiAvatar", unitRef(gameState.aiAvatar, unitIndex, units, dictionary));
+		ArrayNode friendlyUnits = root.putArray("friendlyUnits");
+		for (Unit unit : gameState.friendlyUnits) friendlyUnits.add(unitRef(unit, unitIndex, units, dictionary));
+
+		// the board, as [x][y] so that empty squares keep their place
+		Map<Tile,int[]> tileIndex = new IdentityHashMap<Tile,int[]>();
+		ArrayNode board = root.putArray("board");
+		for (int x = 0; x < gameState.board.length; x++) {
+			ArrayNode column = board.addArray();
+			for (int y = 0; y < gameState.board[x].length; y++) {
+				Tile tile = gameState.board[x][y];
+				if (tile==null) column.addNull();
+				else {
+					tileIndex.put(tile, new int[] {x, y});
+					column.add(encodeTile(tile));
+				}
+			}
+		}
+		ArrayNode highlightedTiles = root.putArray("highlightedTiles");
+		for (Tile tile : gameState.highlightedTiles) {
+			int[] onBoard = tileIndex.get(tile);
+			if (onBoard!=null) highlightedTiles.addObject().putArray("b").add(onBoard[0]).add(onBoard[1]);
+			else highlightedTiles.add(encodeTile(tile));
+		}
+
+		// the hand, and the selected card as its place in the hand if it is one of them
+		ArrayNode hand = root.putArray("hand");
+		for (Card card : gameState.player_cards) hand.add(encodeCard(card, dictionary));
+		if (gameState.selectedCard!=null) {
+			int inHand = indexOf(gameState.player_cards, gameState.selectedCard);
+			if (inHand>=0) root.put("selectedCard", inHand);
+			else root.set("selectedCard", encodeCard(gameState.selectedCard, dictionary));
+		}
+
+		return root;
+	}
+
+	/**
+	 * Rebuilds a game state from what encode() returned. The front-end may still show
+	 * highlights that the new state's renderer has not sent, so every tile is redrawn
+	 * on its first render.
+	 * @param encoded
+	 * @return
+	 */
+	public static GameState decode(byte[] encoded) {
+		try {
+			JsonNode root = cbor.readTree(inflate(encoded));
+			if (root.path("v").asInt()!=VERSION) throw new IllegalArgumentException("Unknown game state version "+root.path("v"));
+			GameState gameState = fromTree(root);
+			gameState.redrawTiles();
+			return gameState;
+		} catch (IOException | DataFormatException | ClassNotFoundException e) {
+			throw new IllegalArgumentException("Unable to decode game state", e);
+		}
+	}
+
+	private static GameState fromTree(JsonNode root) throws IOException, ClassNotFoundException {
+		AssetDictionary dictionary = AssetDictionary.get();
+		GameState gameState = new GameState();
+		gameState.gameInitalised = root.path("gameInitalised").asBoolean();
+		gameState.something = root.path("something").asBoolean();
+		gameState.turnNumber = root.path("turnNumber").asInt();
+		gameState.selectedCardPosition = root.path("selectedCardPosition").asInt();
+		if (root.has("player1")) gameState.player1 = mapper.treeToValue(root.get("player1"), Player.class);
+		if (root.has("player2")) gameState.player2 = mapper.treeToValue(root.get("player2"), Player.class);
+
+		List<Unit> units = new ArrayList<Unit>();
+		for (JsonNode unit : root.path("units")) units.add(decodeUnit(unit, dictionary));
+		gameState.humanAvatar = unitAt(units, root.path("humanAvatar").asInt());
+		gameState.aiAvatar = unitAt(units, root.path("aiAvatar").asInt());
+		for (JsonNode index : root.path("friendlyUnits")) gameState.friendlyUnits.add(unitAt(units, index.asInt()));
+
+		JsonNode board = root.path("board");
+		for (int x = 0; x < board.size() && x < gameState.board.length; x++) {
+			for (int y = 0; y < board.get(x).size() && y < gameState.board[x].length; y++) {
+				JsonNode tile = board.get(x).get(y);
+				if (!tile.isNull()) gameState.board[x][y] = decodeTile(tile);
+			}
+		}
+		for (JsonNode tile : root.path("highlightedTiles")) {
+			if (tile.has("b")) gameState.highlightedTiles.add(gameState.board[tile.get("b").get(0).asInt()][tile.get("b").get(1).asInt()]);
+			else gameState.highlightedTiles.add(decodeTile(tile));
+		}
+
+		for (JsonNode card : root.path("hand")) gameState.player_cards.add(decodeCard(card, dictionary));
+		JsonNode selected = root.get("selectedCard");
+		if (selected!=null) {
+			if (selected.isInt()) gameState.selectedCard = gameState.player_cards.get(selected.asInt());
+			else gameState.selectedCard = decodeCard(selected, dictionary);
+		}
+		return gameState;
+	}
+
+	private static int unitRef(Unit unit, Map<Unit,Integer> unitIndex, ArrayNode units, AssetDictionary dictionary) {
+		if (unit==null) return -1;
+		Integer index = unitIndex.get(unit);
+		if (index!=null) return index;
+
+		ObjectNode encoded = mapper.createObjectNode();
+		encoded.put("cls", unit.getClass().getName());
+		ObjectNode tree = mapper.valueToTree(unit);
+		Integer template = unit.getAnimations()==null ? null : dictionary.getUnitTemplateId(unit.getAnimations().getFrameDIR());
+		if (template!=null && tree.get("animations").equals(mapper.valueToTree(dictionary.getUnitAnimations(template)))) {
+			tree.remove("animations");
+			encoded.put("t", template);
+		}
+		encoded.set("u", tree);
+
+		unitIndex.put(unit, units.size());
+		units.add(encoded);
+		return units.size()-1;
+	}
+
+	private static Unit decodeUnit(JsonNode encoded, AssetDictionary dictionary) throws IOException, ClassNotFoundException {
+		Class<? extends Unit> classType = Class.forName(encoded.path("cls").asText()).asSubclass(Unit.class);
+		Unit unit = mapper.treeToValue(encoded.get("u"), classType);
+		if (encoded.has("t")) unit.setAnimations(dictionary.getUnitAnimations(encoded.get("t").asInt())); // shared, not copied
+		return unit;
+	}
+
+	private static Unit unitAt(List<Unit> units, int index) {
+		return index<0 ? null : units.get(index);
+	}
+
+	private static ObjectNode encodeTile(Tile tile) {
+		ObjectNode tree = mapper.valueToTree(tile);
+		if (getStandardTileTextures().equals(tile.getTileTextures())) tree.remove("tileTextures");
+		return tree;
+	}
+
+	private static Tile decodeTile(JsonNode encoded) throws IOException {
+		Tile tile = mapper.treeToValue(encoded, Tile.class);
+		if (!encoded.has("tileTextures")) tile.setTileTextures(getStandardTileTextures());
+		return tile;
+	}
+
+	private static ObjectNode encodeCard(Card card, AssetDictionary dictionary) {
+		ObjectNode encoded = mapper.createObjectNode();
+		encoded.put("cls", card.getClass().getName());
+		ObjectNode tree = mapper.valueToTree(card);
+		Card template = dictionary.getCard(card.getCardname());
+		if (template!=null) {
+			if (tree.get("miniCard").equals(mapper.valueToTree(template.getMiniCard()))) tree.remove("miniCard");
+			if (tree.get("bigCard").equals(mapper.valueToTree(template.getBigCard()))) tree.remove("bigCard");
+		}
+		encoded.set("c", tree);
+		return encoded;
+	}
+
+	private static Card decodeCard(JsonNode encoded, AssetDictionary dictionary) throws IOException, ClassNotFoundException {
+		Class<? extends Card> classType = Class.forName(encoded.path("cls").asText()).asSubclass(Card.class);
+		JsonNode tree = encoded.get("c");
+		Card card = mapper.treeToValue(tree, classType);
+		Card template = dictionary.getCard(card.getCardname());
+		if (!tree.has("miniCard")) card.setMiniCard(template.getMiniCard()); // never changed, so shared
+		if (!tree.has("bigCard")) card.setBigCard(template.getBigCard());
+		return card;
+	}
+
+	private static int indexOf(List<Card> cards, Card card) {
+		for (int i = 0; i < cards.size(); i++) if (cards.get(i)==card) return i;
+		return -1;
+	}
+
+	private static List<String> getStandardTileTextures() {
+		if (standardTileTextures==null) standardTileTextures = Tile.constructTile(StaticConfFiles.tileConf).getTileTextures();
+		return standardTileTextures;
+	}
+
+	private static byte[] deflate(byte[] data) {
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try {
+			deflater.setInput(data);
+			deflater.finish();
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream(data.length/2+16);
+			byte[] buffer = new byte[4096];
+			while (!deflater.finished()) compressed.write(buffer, 0, deflater.deflate(buffer));
+			return compressed.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	private static byte[] inflate(byte[] data) throws DataFormatException {
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(data);
+			ByteArrayOutputStream inflated = new ByteArrayOutputStream(data.length*4);
+			byte[] buffer = new byte[4096];
+			while (!inflater.finished()) {
+				int count = inflater.inflate(buffer);
+				if (count==0 && (inflater.needsInput() || inflater.needsDictionary())) throw new DataFormatException("Truncated game state");
+				inflated.write(buffer, 0, count);
+			}
+			return inflated.toByteArray();
+		} finally {
+			inflater.end();
+		}
+	}
+
+}
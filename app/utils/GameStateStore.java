@@ -0,0 +1,173 @@
+package utils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.typesafe.config.Config;
+
+/**
+ * Holds the encoded game states of passivated games (see GameStateCodec) outside of the
+ * heap. States are kept in direct ByteBuffers until they take up more than the off-heap
+ * limit, then the oldest are written to files in the spill directory. take() returns a
+ * state from wherever it ended up and forgets it.
+ *
+ * There is one store per JVM, shared by all game sessions, so all methods are thread safe.
+ * Current sizes are published as the passivation.* gauges in GameMetrics.
+ *
+ */
+public class GameStateStore {
+
+	private static volatile GameStateStore instance = null;
+
+	private final long offHeapLimit;
+	private final Path spillDir;
+	private final LinkedHashMap<String,ByteBuffer> offHeap = new LinkedHashMap<String,ByteBuffer>(); // oldest first
+	private final Map<String,Path> onDisk = new HashMap<String,Path>();
+	private long offHeapBytes = 0;
+
+	/**
+	 * Returns the store, creating it from the game.passivation settings the first
+	 * time this is called
+	 * @param config
+	 * @return
+	 */
+	public static GameStateStore get(Config config) {
+		if (instance==null) {
+			synchronized (GameStateStore.class) {
+				if (instance==null) {
+					Config passivation = config.getConfig("game.passivation");
+					String spillDir = passivation.getString("spill-dir");
+					if (spillDir.isEmpty()) spillDir = Paths.get(System.getProperty("java.io.tmpdir"), "passivated-games").toString();
+					instance = new GameStateStore(passivation.getBytes("off-heap-limit"), Paths.get(spillDir));
+				}
+			}
+		}
+		return instance;
+	}
+
+	/**
+	 * @param offHeapLimit bytes of direct memory to use before writing states to files
+	 * @param spillDir where states are written, created if it does not exist
+	 */
+	public GameStateStore(long offHeapLimit, Path spillDir) {
+		this.offHeapLimit = offHeapLimit;
+		this.spillDir = spillDir;
+	}
+
+	/**
+	 * Stores the encoded state of a game, replacing any stored before under the same id
+	 * @param id
+	 * @param state
+	 */
+	public synchronized void put(String id, byte[] state) {
+		remove(id);
+
+		ByteBuffer buffer = ByteBuffer.allocateDirect(state.length);
+		buffer.put(state).flip();
+		offHeap.put(id, buffer);
+		offHeapBytes += state.length;
+
+		// over the limit, so move the oldest states to disk (if that fails they stay in memory)
+		Iterator<Map.Entry<String,ByteBuffer>> oldest = offHeap.entrySet().iterator();
+		while (offHeapBytes > offHeapLimit && oldest.hasNext()) {
+			Map.Entry<String,ByteBuffer> entry = oldest.next();
+			if (!spill(entry.getKey(), entry.getValue())) break;
+			offHeapBytes -= entry.getValue().capacity();
+			oldest.remove();
+		}
+		publish();
+	}
+
+	/**
+	 * Removes and returns the state stored under an id, or null if there is none
+	 * @param id
+	 * @return
+	 */
+	public synchronized byte[] take(String id) {
+		ByteBuffer buffer = offHeap.remove(id);
+		if (buffer!=null) {
+			offHeapBytes -= buffer.capacity();
+			publish();
+			byte[] state = new byte[buffer.remaining()];
+			buffer.get(state);
+			return state;
+		}
+
+		Path file = onDisk.remove(id);
+		if (file==null) return null;
+		try {
+			byte[] state = Files.readAllBytes(file);
+			Files.deleteIfExists(file);
+			return state;
+		} catch (IOException e) {
+			throw new UncheckedIOException("Unable to read passivated game "+id, e);
+		} finally {
+			publish();
+		}
+	}
+
+	/**
+	 * Forgets the state stored under an id, if there is one
+	 * @param id
+	 */
+	public synchronized void remove(String id) {
+		ByteBuffer buffer = offHeap.remove(id);
+		if (buffer!=null) offHeapBytes -= buffer.capacity();
+		Path file = onDisk.remove(id);
+		if (file!=null) {
+			try {
+				Files.deleteIfExists(file);
+			} catch (IOException e) {
+				System.err.println("GameStateStore: Unable to delete "+file+": "+e.getMessage());
+			}
+		}
+		publish();
+	}
+
+	/**
+	 * Number of states held in direct memory
+	 * @return
+	 */
+	public synchronized int getOffHeapCount() {
+		return offHeap.size();
+	}
+
+	/**
+	 * Number of states that have been written to files
+	 * @return
+	 */
+	public synchronized int getDiskCount() {
+		return onDisk.size();
+	}
+
+	private boolean spill(String id, ByteBuffer buffer) {
+		Path file = spillDir.resolve(id.replaceAll("[^A-Za-z0-9_-]", "_")+".state");
+		byte[] state = new byte[buffer.remaining()];
+		buffer.duplicate().get(state);
+		try {
+			Files.createDirectories(spillDir);
+			Files.write(file, state);
+		} catch (IOException e) {
+			System.err.println("GameStateStore: Unable to write "+file+": "+e.getMessage());
+			return false;
+		}
+		onDisk.put(id, file);
+		GameMetrics.increment("passivation.spilled");
+		return true;
+	}
+
+	private void publish() {
+		GameMetrics.setGauge("passivation.offHeapBytes", offHeapBytes);
+		GameMetrics.setGauge("passivation.offHeapGames", offHeap.size());
+		GameMetrics.setGauge("passivation.diskGames", onDisk.size());
+	}
+
+}
@@ -4,6 +4,8 @@ import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+
 import structures.basic.Card;
 
 /**
@@ -16,47 +18,67 @@ public class OrderedCardLoader {
 
 	public static String cardsDIR = "conf/gameconfs/cards/";
 	
+	private static volatile List<Card> player1Deck = null; // read from the files once, see load
+	private static volatile List<Card> player2Deck = null;
+
+	/**
+	 * Reads both decks from their configuration files, if that has not been done already.
+	 * This blocks on file reads, so GameActor calls it on the blocking-io-dispatcher before
+	 * the game starts, and dealing a deck when the game is initalized only copies cards
+	 * that are already in memory.
+	 */
+	public static synchronized void load() {
+		if (player2Deck!=null) return;
+		player1Deck = readDeck("1_");
+		player2Deck = readDeck("2_");
+	}
+
 	/**
 	 * Returns all of the cards in the human player's deck in order
 	 * @return
 	 */
 	public static List<Card> getPlayer1Cards(int copies) {
+		load();
+		return deal(player1Deck, copies);
+	}
+	
 	
+	/**
+	 * Returns all of the cards in the human player's deck in order
+	 * @return
+	 */
+	public static List<Card> getPlayer2Cards(int copies) {
+		load();
+		return deal(player2Deck, copies);
+	}
+
+	private static List<Card> readDeck(String prefix) {
 		List<Card> cardsInDeck = new ArrayList<Card>(20);
-		
-		int cardID = 1;
-		for (int i =0; i<copies; i++) {
-			for (String filename : new File(cardsDIR).list()) {
-				if (filename.startsWith("1_")) {
-					// this is a deck 1 card
-					cardsInDeck.add(BasicObjectBuilders.loadCard(cardsDIR+filename, cardID, Card.class));
-				}
+		for (String filename : new File(cardsDIR).list()) {
+			if (filename.startsWith(prefix)) {
+				cardsInDeck.add(BasicObjectBuilders.loadCard(cardsDIR+filename, 1, Card.class));
 			}
 		}
-		
-		
 		return cardsInDeck;
 	}
-	
-	
+
 	/**
-	 * Returns all of the cards in the human player's deck in order
+	 * Copies the cards of a deck, so that each game gets cards of its own
+	 * @param deck
+	 * @param copies
 	 * @return
 	 */
-	public static List<Card> getPlayer2Cards(int copies) {
-	
+	private static List<Card> deal(List<Card> deck, int copies) {
 		List<Card> cardsInDeck = new ArrayList<Card>(20);
-		
-		int cardID = 1;
 		for (int i =0; i<copies; i++) {
-			for (String filename : new File(cardsDIR).list()) {
-				if (filename.startsWith("2_")) {
-					// this is a deck 2 card
-					cardsInDeck.add(BasicObjectBuilders.loadCard(cardsDIR+filename, cardID, Card.class));
+			for (Card card : deck) {
+				try {
+					cardsInDeck.add(BasicObjectBuilders.mapper.treeToValue(BasicObjectBuilders.mapper.valueToTree(card), Card.class));
+				} catch (JsonProcessingException e) {
+					throw new IllegalStateException("Unable to copy card "+card.getCardname(), e);
 				}
 			}
 		}
-		
 		return cardsInDeck;
 	}
 	
@@ -0,0 +1,138 @@
+package utils;
+
+import structures.GameState;
+import structures.basic.Unit;
+
+/**
+ * Works out where a unit can move and which enemy units it can attack, for highlighting
+ * tiles when a unit is clicked and for the AI. The rules are:
+ *  - a unit moves up to two steps, each in one of the four cardinal directions (so two
+ *    tiles in a straight line, or one tile diagonally)
+ *  - it may pass through friendly units but not enemy units, and can only stop on an
+ *    empty tile
+ *  - zone of control: a step onto a tile next to an enemy unit ends the move there
+ *  - it can attack enemy units on the (up to 8) tiles around it
+ *
+ * Everything is done with BoardMasks. The cardinal neighbours of each tile, and the tiles
+ * within two steps of it, are worked out once when the class is loaded. A query is then
+ * a lookup when nothing is in the way, or otherwise a flood fill of at most two steps
+ * over those tables.
+ *
+ */
+public class ReachabilityEngine {
+
+	public static final int MOVE_RANGE = 2;
+
+	private static final long[] CARDINAL = new long[BoardMask.TILES]; // the tiles one step from each tile
+	private static final long[] TWO_STEPS = new long[BoardMask.TILES]; // the tiles one or two steps from each tile
+
+	static {
+		for (int i = 0; i < BoardMask.TILES; i++) {
+			int x = BoardMask.tilex(i);
+			int y = BoardMask.tiley(i);
+			CARDINAL[i] = BoardMask.bit(x+1, y) | BoardMask.bit(x-1, y) | BoardMask.bit(x, y+1) | BoardMask.bit(x, y-1);
+		}
+		for (int i = 0; i < BoardMask.TILES; i++) {
+			long reached = CARDINAL[i];
+			for (long m = CARDINAL[i]; m != 0; m &= m - 1) reached |= CARDINAL[Long.numberOfTrailingZeros(m)];
+			TWO_STEPS[i] = reached & ~(1L << i);
+		}
+	}
+
+	/**
+	 * Returns the tiles next to any of the given units, where moves end
+	 * @param units
+	 * @return
+	 */
+	public static long zoneOfControl(long units) {
+		long zone = 0;
+		for (long m = units; m != 0; m &= m - 1) zone |= BoardMask.adjacent(Long.numberOfTrailingZeros(m));
+		return zone;
+	}
+
+	/**
+	 * Returns the tiles a unit can move to
+	 * @param from the bit index of the tile the unit stands on
+	 * @param friendly the tiles its own side stands on
+	 * @param enemy the tiles the other side stands on
+	 * @return
+	 */
+	public static long moves(int from, long friendly, long enemy) {
+		long occupied = friendly | enemy;
+		long zone = zoneOfControl(enemy);
+		if ((TWO_STEPS[from] & (occupied | zone)) == 0) return TWO_STEPS[from]; // nothing in the way
+
+		long start = 1L << from;
+		long reached = 0;
+		long frontier = start;
+		for (int step = 0; step < MOVE_RANGE && frontier != 0; step++) {
+			long next = 0;
+			for (long m = frontier; m != 0; m &= m - 1) next |= CARDINAL[Long.numberOfTrailingZeros(m)];
+			next &= ~enemy & ~reached & ~start;
+			reached |= next;
+			frontier = next & ~zone;
+		}
+		return reached & ~occupied;
+	}
+
+	/**
+	 * Returns the enemy units a unit can attack without moving
+	 * @param from
+	 * @param enemy
+	 * @return
+	 */
+	public static long attacks(int from, long enemy) {
+		return BoardMask.adjacent(from) & enemy;
+	}
+
+	/**
+	 * Returns the enemy units a unit can attack, either where it stands or after moving
+	 * @param from
+	 * @param moves the tiles it can move to, see moves
+	 * @param enemy
+	 * @return
+	 */
+	public static long attacksAfterMoving(int from, long moves, long enemy) {
+		return zoneOfControl(moves | (1L << from)) & enemy;
+	}
+
+	/**
+	 * Returns the tiles a unit on the board of a game can move to, taking its side from
+	 * gameState.friendlyUnits
+	 * @param gameState
+	 * @param unit
+	 * @return
+	 */
+	public static long moves(GameState gameState, Unit unit) {
+		int from = BoardIndex.indexOf(unit);
+		if (from < 0) return 0;
+		BoardIndex index = gameState.getBoardIndex();
+		if (gameState.friendlyUnits.contains(unit)) return moves(from, index.getFriendly(), index.getEnemy());
+		return moves(from, index.getEnemy(), index.getFriendly());
+	}
+
+	/**
+	 * Returns the tiles of the enemy units a unit on the board of a game can attack,
+	 * either where it stands or after moving
+	 * @param gameState
+	 * @param unit
+	 * @return
+	 */
+	public static long attackTargets(GameState gameState, Unit unit) {
+		int from = BoardIndex.indexOf(unit);
+		if (from < 0) return 0;
+		BoardIndex index = gameState.getBoardIndex();
+		long enemy = gameState.friendlyUnits.contains(unit) ? index.getEnemy() : index.getFriendly();
+		return attacksAfterMoving(from, moves(gameState, unit), enemy);
+	}
+
+	/**
+	 * Highlights the tiles a unit can move to with mode=1, they are drawn on the next render
+	 * @param gameState
+	 * @param unit
+	 */
+	public static void highlightMoves(GameState gameState, Unit unit) {
+		gameState.highlightTiles(BoardMask.tiles(moves(gameState, unit), gameState.board));
+	}
+
+}
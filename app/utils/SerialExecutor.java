@@ -0,0 +1,48 @@
+package utils;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs tasks one at a time, in the order they were submitted, on another executor. Each
+ * game session gets its own SerialExecutor over a shared pool (e.g. virtual threads), so
+ * its events never run at the same time as each other, while different sessions run in
+ * parallel. This is the same guarantee an actor gives for its messages.
+ *
+ */
+public class SerialExecutor implements Executor {
+
+	private final Queue<Runnable> tasks = new ArrayDeque<Runnable>();
+	private final Executor executor;
+	private Runnable active = null;
+
+	public SerialExecutor(Executor executor) {
+		this.executor = executor;
+	}
+
+	@Override
+	public synchronized void execute(Runnable task) {
+		tasks.add(() -> {
+			try {
+				task.run();
+			} finally {
+				scheduleNext();
+			}
+		});
+		if (active == null) scheduleNext();
+	}
+
+	private synchronized void scheduleNext() {
+		if ((active = tasks.poll()) != null) executor.execute(active);
+	}
+
+	/**
+	 * Number of tasks waiting to run
+	 * @return
+	 */
+	public synchronized int pending() {
+		return tasks.size();
+	}
+
+}
@@ -0,0 +1,48 @@
+package utils;
+
+/**
+ * A token bucket rate limiter. The bucket holds up to 'burst' tokens and is refilled at
+ * 'ratePerSecond' tokens per second; each action takes one token, and is refused if the
+ * bucket is empty. This lets a player click quickly for a moment, but not keep sending
+ * events faster than the rate for long.
+ *
+ * This class is not thread safe, each session should own its own bucket.
+ *
+ */
+public class TokenBucket {
+
+	private final double ratePerNano;
+	private final double burst;
+	private double tokens;
+	private long lastRefillNanos;
+
+	/**
+	 * Creates a full bucket
+	 * @param ratePerSecond
+	 * @param burst
+	 * @param nowNanos
+	 */
+	public TokenBucket(double ratePerSecond, double burst, long nowNanos) {
+		this.ratePerNano = ratePerSecond/1_000_000_000d;
+		this.burst = burst;
+		this.tokens = burst;
+		this.lastRefillNanos = nowNanos;
+	}
+
+	/**
+	 * Takes a token if there is one, returning false if the rate has been exceeded
+	 * @param nowNanos
+	 * @return
+	 */
+	public boolean tryTake(long nowNanos) {
+		long elapsed = nowNanos - lastRefillNanos;
+		if (elapsed > 0) {
+			tokens = Math.min(burst, tokens + elapsed*ratePerNano);
+			lastRefillNanos = nowNanos;
+		}
+		if (tokens < 1) return false;
+		tokens--;
+		return true;
+	}
+
+}
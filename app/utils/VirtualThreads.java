@@ -0,0 +1,55 @@
+package utils;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Gives access to the JDK's virtual threads (JDK 21 and later) while the project still
+ * builds for older JDKs. If virtual threads are not available, a pool of ordinary threads
+ * is used instead, so the virtual-threads session mode still works, just without cheap
+ * blocking.
+ *
+ */
+public class VirtualThreads {
+
+	private static volatile ExecutorService executor = null;
+	private static boolean available = false;
+
+	/**
+	 * Returns a shared executor that starts a new virtual thread for each task
+	 * @return
+	 */
+	public static ExecutorService executor() {
+		if (executor==null) {
+			synchronized (VirtualThreads.class) {
+				if (executor==null) executor = createExecutor();
+			}
+		}
+		return executor;
+	}
+
+	/**
+	 * Returns true if executor() runs tasks on virtual threads
+	 * @return
+	 */
+	public static boolean isAvailable() {
+		executor();
+		return available;
+	}
+
+	private static ExecutorService createExecutor() {
+		try {
+			ExecutorService virtual = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+			available = true;
+			return virtual;
+		} catch (ReflectiveOperationException e) {
+			System.err.println("VirtualThreads: virtual threads need JDK 21 or later, using platform threads instead");
+			return Executors.newCachedThreadPool(task -> {
+				Thread thread = new Thread(task, "game-session");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+	}
+
+}
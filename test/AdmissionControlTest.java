@@ -0,0 +1,51 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+
+import org.junit.Test;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+
+import controllers.AdmissionControl;
+
+/**
+ * Checks that new sessions are turned away when any health signal is over its limit.
+ */
+public class AdmissionControlTest {
+
+	private static AdmissionControl create(boolean enabled) {
+		Config config = ConfigFactory.parseString("enabled = "+enabled+", max-heap-used = 0.9, max-queued-messages = 100, "
+				+"max-event-p99 = 50ms, retry-after = 5s, check-interval = 1s");
+		return new AdmissionControl(config);
+	}
+
+	@Test
+	public void rejectsWhenOverAnyLimit() {
+		AdmissionControl admission = create(true);
+		assertNull(admission.decide(50, 100, 10, 1000));
+		assertEquals("heap", admission.decide(95, 100, 10, 1000));
+		assertEquals("mailbox", admission.decide(50, 100, 101, 1000));
+		assertEquals("latency", admission.decide(50, 100, 10, 60000));
+		assertNull("no maximum heap", admission.decide(95, -1, 10, 1000));
+		assertEquals(5, admission.getRetryAfterSeconds());
+	}
+
+	@Test
+	public void heapIsReadAfterGarbageCollection() {
+		MemoryPoolMXBean tenured = AdmissionControl.findTenuredPool();
+		assertNotNull(tenured);
+		assertEquals(MemoryType.HEAP, tenured.getType());
+		System.gc();
+		assertNotNull(tenured.getCollectionUsage());
+	}
+
+	@Test
+	public void admitsEverythingWhenDisabled() {
+		assertNull(create(false).rejectReason());
+	}
+
+}
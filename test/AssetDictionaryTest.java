@@ -0,0 +1,78 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import commands.BasicCommands;
+import structures.basic.Card;
+import structures.basic.Tile;
+import structures.basic.Unit;
+import utils.AssetDictionary;
+import utils.BasicObjectBuilders;
+import utils.OrderedCardLoader;
+import utils.StaticConfFiles;
+
+/**
+ * Checks that the compact asset-id protocol shrinks the largest commands.
+ */
+public class AssetDictionaryTest {
+
+	private List<ObjectNode> sent = new ArrayList<ObjectNode>();
+
+	@Before
+	public void setUp() {
+		BasicCommands.altTell = message -> sent.add(message);
+	}
+
+	@After
+	public void tearDown() {
+		BasicCommands.altTell = null;
+	}
+
+	@Test
+	public void drawUnitRefersToTemplate() {
+		Tile tile = BasicObjectBuilders.loadTile(1, 2);
+		Unit unit = BasicObjectBuilders.loadUnit(StaticConfFiles.humanAvatar, 0, Unit.class);
+		unit.setPositionByTile(tile);
+		BasicCommands.drawUnit(null, unit, tile);
+
+		ObjectNode command = sent.get(0);
+		int fullSize = command.toString().length();
+		AssetDictionary.get().compact(command);
+		int compactSize = command.toString().length();
+
+		assertTrue(command.get("unit").has("template"));
+		assertFalse(command.get("unit").has("animations"));
+		assertFalse(command.get("tile").has("tileTextures"));
+		assertEquals(2, command.get("unit").get("position").get("tiley").asInt());
+		assertTrue("compact drawUnit should be under 10% of the full size ("+compactSize+" vs "+fullSize+")", compactSize*10 < fullSize);
+	}
+
+	@Test
+	public void drawCardRefersToTemplate() {
+		Card card = OrderedCardLoader.getPlayer1Cards(1).get(0);
+		BasicCommands.drawCard(null, card, 1, 0);
+
+		ObjectNode command = sent.get(0);
+		AssetDictionary.get().compact(command);
+
+		assertTrue(command.get("card").has("template"));
+		assertEquals(card.getManacost(), command.get("card").get("manacost").asInt());
+		assertFalse(command.get("card").has("miniCard"));
+	}
+
+	@Test
+	public void templateImagesArePreloaded() {
+		List<String> assets = AssetDictionary.get().getAssets();
+		Unit unit = BasicObjectBuilders.loadUnit(StaticConfFiles.wraithling, 0, Unit.class);
+		assertTrue(assets.containsAll(unit.getAnimations().getAllFrames()));
+	}
+}
@@ -0,0 +1,83 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import structures.GameState;
+import structures.basic.Tile;
+import structures.basic.Unit;
+import utils.BasicObjectBuilders;
+import utils.BoardIndex;
+import utils.BoardMask;
+import utils.StaticConfFiles;
+import utils.SummoningEngine;
+
+/**
+ * Checks that the legal summon tiles are kept up to date as units are placed, moved and
+ * removed, and are not rebuilt while the board is unchanged.
+ */
+public class BoardIndexTest {
+
+	private static GameState newGame() {
+		GameState gameState = new GameState();
+		for (int x = 1; x <= 9; x++) {
+			for (int y = 1; y <= 5; y++) {
+				gameState.board[x-1][y-1] = BasicObjectBuilders.loadTile(x, y);
+			}
+		}
+		return gameState;
+	}
+
+	private static Unit unit(int id) {
+		return BasicObjectBuilders.loadUnit(StaticConfFiles.humanAvatar, id, Unit.class);
+	}
+
+	@Test
+	public void legalTilesAreCachedUntilAUnitMoves() {
+		GameState gameState = newGame();
+		Unit avatar = unit(0);
+		gameState.placeUnit(avatar, gameState.board[0][1], true);
+
+		List<Tile> legal = SummoningEngine.getLegalSummonTiles(gameState);
+		assertEquals(5, legal.size());
+		assertSame("nothing has moved", legal, SummoningEngine.getLegalSummonTiles(gameState));
+
+		long version = gameState.getBoardIndex().getVersion();
+		gameState.moveUnit(avatar, gameState.board[4][2]);
+		assertTrue(gameState.getBoardIndex().getVersion() > version);
+		List<Tile> moved = SummoningEngine.getLegalSummonTiles(gameState);
+		assertNotSame(legal, moved);
+		assertEquals(8, moved.size());
+		assertFalse(BoardMask.contains(gameState.getBoardIndex().getLegalSummonMask(), 2, 2));
+	}
+
+	@Test
+	public void occupiedTilesAreNotLegalAndRemovalKeepsSharedNeighbours() {
+		GameState gameState = newGame();
+		Unit first = unit(0);
+		Unit second = unit(1);
+		Unit enemy = unit(2);
+		gameState.aiAvatar = enemy;
+		gameState.placeUnit(first, gameState.board[1][1], true); // [2,2]
+		gameState.placeUnit(second, gameState.board[3][1], true); // [4,2]
+		gameState.placeUnit(enemy, gameState.board[2][2], false); // [3,3]
+
+		BoardIndex index = gameState.getBoardIndex();
+		assertFalse("a friendly unit stands there", BoardMask.contains(index.getLegalSummonMask(), 4, 2));
+		assertFalse("an enemy unit stands there", BoardMask.contains(index.getLegalSummonMask(), 3, 3));
+		assertTrue(BoardMask.contains(index.getLegalSummonMask(), 3, 2));
+
+		gameState.removeUnit(second);
+		assertTrue("still next to the first unit", BoardMask.contains(index.getLegalSummonMask(), 3, 2));
+		assertTrue("now empty and next to the first unit", BoardMask.contains(index.getLegalSummonMask(), 3, 1));
+		assertFalse("no longer next to a friendly unit", BoardMask.contains(index.getLegalSummonMask(), 5, 2));
+		assertEquals(1, gameState.friendlyUnits.size());
+		assertEquals(index.getLegalSummonMask(), BoardIndex.of(gameState).getLegalSummonMask());
+	}
+
+}
@@ -0,0 +1,47 @@
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import actors.ClientLagTracker;
+
+/**
+ * Checks the render lag and round-trip time calculations used for heartbeat reporting.
+ */
+public class ClientLagTrackerTest {
+
+	@Test
+	public void renderLagCountsCommandsNotYetProcessed() {
+		ClientLagTracker lag = new ClientLagTracker();
+		lag.recordSent(1000); // seq 1
+		lag.recordSent(1100); // seq 2
+		lag.recordSent(1200); // seq 3
+
+		// browser has received everything but only acted on seq 1
+		lag.recordProgress(1, 3, 0, 0, 1500);
+		assertEquals(2, lag.getRenderLagCommands());
+		assertEquals("oldest pending command (seq 2) was sent at 1100", 400, lag.getRenderLagMillis());
+
+		lag.recordProgress(3, 3, 0, 0, 1600);
+		assertEquals(0, lag.getRenderLagCommands());
+		assertEquals(0, lag.getRenderLagMillis());
+	}
+
+	@Test
+	public void rttExcludesTimeHeldByBrowser() {
+		ClientLagTracker lag = new ClientLagTracker();
+		lag.recordSent(1000); // seq 1
+
+		// heartbeat at 1300, browser says seq 1 arrived 200ms before it sent the heartbeat
+		lag.recordProgress(1, 1, 200, 0, 1300);
+		assertEquals(100, lag.getRttMillis());
+	}
+
+	@Test
+	public void progressBeyondLastSentIsIgnored() {
+		ClientLagTracker lag = new ClientLagTracker();
+		lag.recordSent(1000);
+		lag.recordProgress(5, 5, 0, 0, 1100);
+		assertEquals(0, lag.getLastProcessedSeq());
+		assertEquals(-1, lag.getRttMillis());
+	}
+}
@@ -0,0 +1,100 @@
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import akka.pattern.Patterns;
+
+/**
+ * A small load test for the dispatchers in application.conf. Blocking work (file reads,
+ * modelled here as sleeps) run on the same threads as the game actors holds up every
+ * game, which is what happened when everything shared the default dispatcher. Run on
+ * the blocking IO dispatcher, the game actors still answer promptly.
+ */
+public class DispatcherIsolationTest {
+
+	private static ActorSystem system;
+
+	public static class Echo extends AbstractActor {
+		@Override
+		public Receive createReceive() {
+			return receiveBuilder().matchAny(message -> getSender().tell(message, getSelf())).build();
+		}
+	}
+
+	@BeforeClass
+	public static void startSystem() {
+		Config conf = ConfigFactory.parseFile(new File("conf/application.conf"));
+		system = ActorSystem.create("isolation", conf.withOnlyPath("game-dispatcher")
+				.withFallback(conf.withOnlyPath("blocking-io-dispatcher"))
+				.withFallback(ConfigFactory.load()));
+	}
+
+	@AfterClass
+	public static void stopSystem() {
+		system.terminate();
+	}
+
+	@Test
+	public void blockingWorkOnTheGameDispatcherStarvesGameActors() throws Exception {
+		long worst = slowestReply("game-dispatcher");
+		assertTrue("slowest reply took "+worst+"ms", worst >= 200);
+	}
+
+	@Test
+	public void gameActorsAnswerWhileBlockingDispatcherIsBusy() throws Exception {
+		long worst = slowestReply("blocking-io-dispatcher");
+		assertTrue("slowest reply took "+worst+"ms", worst < 100);
+	}
+
+	/**
+	 * The number of threads the game dispatcher has on this machine, worked out from its
+	 * configuration as Akka does for a fork-join executor
+	 * @return
+	 */
+	private static int gameDispatcherThreads() {
+		Config forkJoin = system.settings().config().getConfig("game-dispatcher.fork-join-executor");
+		int scaled = (int) Math.ceil(Runtime.getRuntime().availableProcessors()*forkJoin.getDouble("parallelism-factor"));
+		return Math.min(Math.max(scaled, forkJoin.getInt("parallelism-min")), forkJoin.getInt("parallelism-max"));
+	}
+
+	/**
+	 * Swamps a dispatcher with blocking tasks, twice as many as the game dispatcher has
+	 * threads, then times the replies of an actor on the game dispatcher
+	 * @param blockingDispatcher where the blocking tasks run
+	 * @return the slowest reply in milliseconds
+	 */
+	private static long slowestReply(String blockingDispatcher) throws Exception {
+		Executor blocking = system.dispatchers().lookup(blockingDispatcher);
+		for (int i = 0; i < 2*gameDispatcherThreads(); i++) {
+			CompletableFuture.runAsync(() -> {
+				try {
+					Thread.sleep(300);
+				} catch (InterruptedException e) {}
+			}, blocking);
+		}
+
+		ActorRef echo = system.actorOf(Props.create(Echo.class).withDispatcher("game-dispatcher"));
+		long worst = 0;
+		for (int i = 0; i < 20; i++) {
+			long start = System.nanoTime();
+			Patterns.ask(echo, i, Duration.ofSeconds(30)).toCompletableFuture().get();
+			worst = Math.max(worst, (System.nanoTime()-start)/1_000_000);
+		}
+		system.stop(echo);
+		return worst;
+	}
+}
@@ -23,6 +23,7 @@ import structures.GameState;
 import structures.basic.Card;
 import structures.basic.Tile;
 import utils.BasicObjectBuilders;
+import utils.BoardMask;
 import utils.CardResolver;
 import utils.OrderedCardLoader;
 import utils.SummoningEngine;
@@ -147,11 +148,18 @@ public class Epic2Test {
 		gameState.player1.setMana(9);
 		ObjectNode msg = Json.newObject();
 		msg.put("position", position);
-		long drawTileBefore = tell.countByType("drawTile");
+		long drawTilesBefore = tell.countByType("drawTiles");
 		new CardClicked().processEvent(null, gameState, msg);
-		long drawTileAfter = tell.countByType("drawTile");
-		assertTrue("drawTile(mode=1) should be sent for each legal tile", drawTileAfter > drawTileBefore);
+		long drawTilesAfter = tell.countByType("drawTiles");
+		assertEquals("one drawTiles(mode=1) should be sent for the legal tiles", drawTilesBefore + 1, drawTilesAfter);
 		assertFalse("highlightedTiles should be non-empty", gameState.highlightedTiles.isEmpty());
+		ObjectNode highlight = tell.messages.get(tell.messages.size() - 1);
+		assertEquals(1, highlight.get("mode").asInt());
+		assertEquals("mask should have one bit per highlighted tile",
+			gameState.highlightedTiles.size(), Long.bitCount(highlight.get("mask").asLong()));
+		for (Tile t : gameState.highlightedTiles) {
+			assertTrue(BoardMask.contains(highlight.get("mask").asLong(), t.getTilex(), t.getTiley()));
+		}
 	}
 
 	// -------------------------------------------------------------------------
@@ -0,0 +1,55 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Inflater;
+
+import org.junit.Test;
+
+import controllers.FrameCompressor;
+
+/**
+ * Checks that websocket frames are only compressed when it is worth it, and that
+ * compressed frames inflate back to the original.
+ */
+public class FrameCompressorTest {
+
+	@Test
+	public void smallFramesAreNotCompressed() {
+		FrameCompressor compressor = new FrameCompressor(512, 6, 0.1);
+		byte[] mana = "{\"messagetype\":\"setPlayer1Mana\",\"player\":{\"health\":20,\"mana\":2}}".getBytes(StandardCharsets.UTF_8);
+		assertNull(compressor.compress("setPlayer1Mana", mana));
+	}
+
+	@Test
+	public void repetitiveFramesInflateToTheOriginal() throws Exception {
+		FrameCompressor compressor = new FrameCompressor(512, 6, 0.1);
+		StringBuilder frames = new StringBuilder("{\"messagetype\":\"drawUnit\",\"allFrames\":[");
+		for (int i = 1; i <= 100; i++) frames.append("\"assets/game/extra/ui/units/fire_spitter/idle_"+i+".png\",");
+		byte[] payload = frames.append("\"\"]}").toString().getBytes(StandardCharsets.UTF_8);
+
+		byte[] frame = compressor.compress("drawUnit", payload);
+		assertNotNull(frame);
+		assertEquals(FrameCompressor.MARKER, frame[0]);
+
+		Inflater inflater = new Inflater();
+		inflater.setInput(Arrays.copyOfRange(frame, 1, frame.length));
+		byte[] inflated = new byte[payload.length];
+		assertEquals(payload.length, inflater.inflate(inflated));
+		assertArrayEquals(payload, inflated);
+	}
+
+	@Test
+	public void typesThatDoNotCompressAreSkipped() {
+		FrameCompressor compressor = new FrameCompressor(512, 6, 0.1);
+		byte[] noise = new byte[2048];
+		new Random(1).nextBytes(noise);
+
+		compressor.compress("noise", noise); // first one is tried, and does not shrink
+		assertNull(compressor.compress("noise", noise));
+	}
+}
@@ -0,0 +1,77 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import actors.GameActorMailbox;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.dispatch.Envelope;
+import play.libs.Json;
+
+/**
+ * Checks that player actions are taken from the GameActor mailbox ahead of
+ * housekeeping messages, while keeping arrival order within each priority, and that only
+ * front-end events are dropped when it is full.
+ */
+public class GameActorMailboxTest {
+
+	private static ActorSystem system;
+
+	@BeforeClass
+	public static void startSystem() {
+		system = ActorSystem.create();
+	}
+
+	@AfterClass
+	public static void stopSystem() {
+		system.terminate();
+	}
+
+	@Test
+	public void clicksOvertakeHeartbeatsButKeepTheirOrder() {
+		GameActorMailbox.GameMessageQueue queue = new GameActorMailbox.GameMessageQueue(10, null);
+		queue.enqueue(ActorRef.noSender(), event("heartbeat", 1));
+		queue.enqueue(ActorRef.noSender(), event("unitMoving", 2));
+		queue.enqueue(ActorRef.noSender(), event("tileclicked", 3));
+		queue.enqueue(ActorRef.noSender(), event("cardclicked", 4));
+
+		assertEquals(3, order(queue.dequeue()));
+		assertEquals(4, order(queue.dequeue()));
+		assertEquals(1, order(queue.dequeue()));
+		assertEquals(2, order(queue.dequeue()));
+		assertNull(queue.dequeue());
+	}
+
+	@Test
+	public void messagesBeyondCapacityAreDropped() {
+		GameActorMailbox.GameMessageQueue queue = new GameActorMailbox.GameMessageQueue(2, null);
+		queue.enqueue(ActorRef.noSender(), event("tileclicked", 1));
+		queue.enqueue(ActorRef.noSender(), event("tileclicked", 2));
+		queue.enqueue(ActorRef.noSender(), event("tileclicked", 3));
+		assertEquals(2, queue.numberOfMessages());
+	}
+
+	@Test
+	public void internalMessagesAreKeptWhenFull() {
+		GameActorMailbox.GameMessageQueue queue = new GameActorMailbox.GameMessageQueue(2, null);
+		for (int i = 0; i < 10; i++) queue.enqueue(ActorRef.noSender(), event("tileclicked", i));
+		queue.enqueue(ActorRef.noSender(), Envelope.apply("timeline tick", ActorRef.noSender(), system)); // stands in for a TimelineTick
+		assertEquals(3, queue.numberOfMessages());
+
+		queue.dequeue();
+		queue.dequeue();
+		assertEquals("timeline tick", queue.dequeue().message());
+		assertNull(queue.dequeue());
+	}
+
+	private static Envelope event(String messageType, int order) {
+		return Envelope.apply(Json.newObject().put("messagetype", messageType).put("order", order), ActorRef.noSender(), system);
+	}
+
+	private static int order(Envelope envelope) {
+		return ((com.fasterxml.jackson.databind.JsonNode) envelope.message()).get("order").asInt();
+	}
+}
@@ -0,0 +1,102 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import actors.CapturingSession;
+import akka.NotUsed;
+import akka.actor.ActorSystem;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Flow;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import commands.BasicCommands;
+import commands.Timeline;
+import controllers.GamePipeline;
+import controllers.InboundGuard;
+import controllers.VirtualThreadPipeline;
+import controllers.WebSocketCodecs;
+import play.http.websocket.Message;
+import play.libs.Json;
+import utils.GameMetrics;
+
+/**
+ * Runs a session through the Akka Streams and virtual thread pipelines and checks that
+ * commands come out in order, starting with actorReady, and that the streams session
+ * only wakes itself while a timeline is running.
+ */
+public class GamePipelineTest {
+
+	private static ActorSystem system;
+
+	@BeforeClass
+	public static void startSystem() {
+		system = ActorSystem.create();
+	}
+
+	@AfterClass
+	public static void stopSystem() {
+		system.terminate();
+	}
+
+	@Test
+	public void initaliseProducesSequencedCommands() throws Exception {
+		assertSequenced(run(GamePipeline.create(WebSocketCodecs.encoder("json", null), () -> new InboundGuard(20, 40, 250, 200),
+				false, system.dispatcher(), system.dispatcher(), 4, Duration.ofMillis(20))));
+	}
+
+	@Test
+	public void virtualThreadsProduceSequencedCommands() throws Exception {
+		assertSequenced(run(VirtualThreadPipeline.create(WebSocketCodecs.encoder("json", null), () -> new InboundGuard(20, 40, 250, 200),
+				false, Materializer.matFromSystem(system), 16)));
+	}
+
+	@Test
+	public void sessionOnlyWakesWhileTimelinesRun() throws Exception {
+		CapturingSession session = new CapturingSession("ticks", "streams", false);
+		session.getGameState().play(new Timeline()
+				.play(out -> { BasicCommands.addPlayer1Notification(out, "first", 1); return 30; })
+				.run(out -> BasicCommands.addPlayer1Notification(out, "second", 1)));
+		long ticksBefore = GameMetrics.getCount("pipeline.timelineTicks");
+
+		// the timeline starts with the first event, and the session then stays open but idle
+		List<ObjectNode> sent = Source.single((Object) Json.newObject().put("messagetype", "heartbeat"))
+				.concat(Source.maybe())
+				.via(new GamePipeline.SessionStage(() -> session, Duration.ofMillis(5)))
+				.takeWithin(Duration.ofMillis(500))
+				.runWith(Sink.seq(), system).toCompletableFuture().get(10, TimeUnit.SECONDS);
+
+		List<String> notifications = new ArrayList<String>();
+		for (ObjectNode command : sent) notifications.add(command.path("text").asText());
+		assertEquals(Arrays.asList("first", "second"), notifications);
+		long ticks = GameMetrics.getCount("pipeline.timelineTicks") - ticksBefore;
+		assertTrue("woken "+ticks+" times", ticks >= 1 && ticks < 20); // ticking for the whole 500ms would be 100
+	}
+
+	private static List<Message> run(Flow<Message, Message, NotUsed> session) throws Exception {
+		List<Message> frames = Arrays.asList(new Message.Text("{\"messagetype\":\"initalize\"}"));
+		return Source.from(frames).via(session).runWith(Sink.seq(), system).toCompletableFuture().get(10, TimeUnit.SECONDS);
+	}
+
+	private static void assertSequenced(List<Message> sent) {
+		assertTrue(sent.size() > 1);
+		long lastSeq = 0;
+		for (Message frame : sent) {
+			JsonNode command = Json.parse(((Message.Text) frame).data());
+			if (lastSeq == 0) assertEquals("actorReady", command.get("messagetype").asText());
+			assertEquals(lastSeq+1, command.get("seq").asLong());
+			lastSeq = command.get("seq").asLong();
+		}
+	}
+}
@@ -0,0 +1,72 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+
+import controllers.GameStateController;
+import play.mvc.Http;
+import structures.GameSnapshot;
+import structures.GameState;
+import structures.basic.Player;
+import utils.GameRegistry;
+
+/**
+ * Checks that game snapshots are copies, that the registry keeps only the latest
+ * snapshot of each game, and that the games are only served to support tools when
+ * inspection is turned on.
+ */
+public class GameRegistryTest {
+
+	@Test
+	public void snapshotIsNotChangedByTheGame() {
+		GameState gameState = new GameState();
+		gameState.player1 = new Player(20, 2);
+		GameSnapshot snapshot = GameSnapshot.of("copy", 1, gameState);
+
+		gameState.player1.setMana(0);
+		gameState.turnNumber = 5;
+		assertEquals(2, snapshot.player1Mana);
+		assertEquals(1, snapshot.turnNumber);
+		assertNull(snapshot.player2Health);
+		assertEquals(2, snapshot.toJson().path("player1").path("mana").asInt());
+	}
+
+	@Test
+	public void registryKeepsLatestSnapshot() {
+		GameState gameState = new GameState();
+		GameRegistry.publish(GameSnapshot.of("latest", 1, gameState));
+		GameSnapshot second = GameSnapshot.of("latest", 2, gameState);
+		GameRegistry.publish(second);
+
+		assertSame(second, GameRegistry.get("latest"));
+		assertTrue(GameRegistry.getAll().contains(second));
+		GameRegistry.remove("latest");
+		assertNull(GameRegistry.get("latest"));
+	}
+
+	@Test
+	public void gamesAreOnlyServedWhenInspectionIsOn() {
+		GameRegistry.publish(GameSnapshot.of("inspected", 1, new GameState()));
+		Http.Request anyone = new Http.RequestBuilder().uri("/games/inspected").build();
+		Http.Request support = new Http.RequestBuilder().uri("/games/inspected").header(Http.HeaderNames.AUTHORIZATION, "Bearer secret").build();
+
+		GameStateController off = new GameStateController(inspection(false, ""));
+		assertEquals(Http.Status.NOT_FOUND, off.games(support).status());
+		assertEquals(Http.Status.NOT_FOUND, off.game(support, "inspected").status());
+
+		GameStateController withToken = new GameStateController(inspection(true, "secret"));
+		assertEquals(Http.Status.UNAUTHORIZED, withToken.game(anyone, "inspected").status());
+		assertEquals(Http.Status.OK, withToken.game(support, "inspected").status());
+		assertEquals(Http.Status.OK, new GameStateController(inspection(true, "")).games(anyone).status());
+	}
+
+	private static Config inspection(boolean enabled, String token) {
+		return ConfigFactory.parseString("game.inspection { enabled = "+enabled+", token = \""+token+"\" }");
+	}
+
+}
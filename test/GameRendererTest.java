@@ -0,0 +1,88 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import akka.actor.ActorRef;
+import commands.BasicCommands;
+import structures.GameState;
+import structures.basic.Card;
+import structures.basic.Player;
+import utils.BasicObjectBuilders;
+import utils.BoardMask;
+import utils.GameStateCodec;
+import utils.OrderedCardLoader;
+
+/**
+ * Checks that GameState only renders what has changed since it was last rendered.
+ */
+public class GameRendererTest {
+
+	private static List<ObjectNode> render(GameState gameState) {
+		return BasicCommands.capture(() -> gameState.render(ActorRef.noSender()));
+	}
+
+	@Test
+	public void statChangedTwiceIsSentOnce() {
+		GameState gameState = new GameState();
+		gameState.setPlayer1(new Player(20, 2));
+		assertEquals(2, render(gameState).size());
+
+		gameState.setPlayer1Mana(5);
+		gameState.setPlayer1Mana(4);
+		List<ObjectNode> commands = render(gameState);
+		assertEquals(1, commands.size());
+		assertEquals("setPlayer1Mana", commands.get(0).path("messagetype").asText());
+		assertEquals(4, commands.get(0).path("player").path("mana").asInt());
+
+		gameState.setPlayer1Mana(7);
+		gameState.setPlayer1Mana(4);
+		assertTrue(render(gameState).isEmpty());
+	}
+
+	@Test
+	public void removingACardShiftsTheSlotsAfterIt() {
+		GameState gameState = new GameState();
+		List<Card> deck = OrderedCardLoader.getPlayer1Cards(1);
+		for (int i = 0; i < 4; i++) gameState.addCardToHand(deck.get(i));
+		assertEquals(4, render(gameState).size());
+
+		gameState.selectCard(4);
+		gameState.removeCardFromHand(2);
+		assertEquals(3, gameState.selectedCardPosition);
+		List<ObjectNode> commands = render(gameState);
+
+		assertEquals(3, commands.size());
+		assertEquals(2, commands.get(0).path("position").asInt());
+		assertEquals(deck.get(2).getCardname(), commands.get(0).path("card").path("cardname").asText());
+		assertEquals(0, commands.get(0).path("mode").asInt());
+		assertEquals(3, commands.get(1).path("position").asInt());
+		assertEquals(1, commands.get(1).path("mode").asInt());
+		assertEquals("deleteCard", commands.get(2).path("messagetype").asText());
+		assertEquals(4, commands.get(2).path("position").asInt());
+		assertSame(deck.get(3), gameState.selectedCard);
+	}
+
+	@Test
+	public void decodedStateRedrawsHighlights() {
+		GameState gameState = new GameState();
+		gameState.board[1][1] = BasicObjectBuilders.loadTile(2, 2);
+		gameState.highlightTiles(Arrays.asList(gameState.board[1][1]));
+		render(gameState);
+
+		// the front-end still shows the highlight from before the game was saved
+		GameState decoded = GameStateCodec.decode(GameStateCodec.encode(gameState));
+		decoded.clearHighlights();
+		List<ObjectNode> commands = render(decoded);
+		assertEquals(1, commands.size());
+		assertEquals(0, commands.get(0).path("mode").asInt());
+		assertEquals(BoardMask.ALL, commands.get(0).path("mask").asLong());
+	}
+
+}
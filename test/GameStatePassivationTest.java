@@ -0,0 +1,121 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.typesafe.config.ConfigFactory;
+
+import actors.GameActor;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import commands.BasicCommands;
+import commands.CheckMessageIsNotNullOnTell;
+import events.Initalize;
+import play.libs.Json;
+import structures.GameState;
+import utils.GameMetrics;
+import utils.GameStateCodec;
+import utils.GameStateStore;
+
+/**
+ * Checks that an idle game can be encoded, stored out of the heap and rebuilt, and that
+ * a GameActor left idle does so and carries on when the player comes back.
+ */
+public class GameStatePassivationTest {
+
+	private static ObjectMapper mapper = new ObjectMapper();
+
+	@Test
+	public void encodedGameIsRebuiltIntact() {
+		BasicCommands.altTell = new CheckMessageIsNotNullOnTell();
+		GameState gameState = new GameState();
+		new Initalize().processEvent(null, gameState, Json.newObject());
+		gameState.highlightedTiles.add(gameState.board[2][1]);
+		gameState.selectedCard = gameState.player_cards.get(0);
+		gameState.selectedCardPosition = 1;
+
+		byte[] encoded = GameStateCodec.encode(gameState);
+		GameState decoded = GameStateCodec.decode(encoded);
+
+		assertTrue("only a few KB, was "+encoded.length, encoded.length < 4096);
+		assertEquals(mapper.valueToTree(gameState.humanAvatar), mapper.valueToTree(decoded.humanAvatar));
+		assertEquals(mapper.valueToTree(gameState.board), mapper.valueToTree(decoded.board));
+		assertEquals(mapper.valueToTree(gameState.player_cards), mapper.valueToTree(decoded.player_cards));
+		assertEquals(gameState.player1.getMana(), decoded.player1.getMana());
+		assertSame(decoded.humanAvatar, decoded.friendlyUnits.get(0));
+		assertSame(decoded.board[2][1], decoded.highlightedTiles.get(0));
+		assertSame(decoded.player_cards.get(0), decoded.selectedCard);
+	}
+
+	@Test
+	public void oldestStatesSpillToDisk() throws Exception {
+		Path spillDir = Files.createTempDirectory("passivated");
+		GameStateStore store = new GameStateStore(100, spillDir);
+		store.put("a", new byte[60]);
+		store.put("b", new byte[60]);
+
+		assertEquals(1, store.getOffHeapCount());
+		assertEquals(1, store.getDiskCount());
+		assertArrayEquals(new byte[60], store.take("a"));
+		assertArrayEquals(new byte[60], store.take("b"));
+		assertNull(store.take("a"));
+		assertEquals(0, Files.list(spillDir).count());
+	}
+
+	@Test
+	public void idleGameIsPassivatedAndRehydrated() throws Exception {
+		BasicCommands.altTell = null; // other tests leave this set, which would swallow the commands
+		ActorSystem system = ActorSystem.create("idle", ConfigFactory.parseString("game.passivation { idle-timeout = 500ms, check-interval = 100ms }")
+				.withFallback(ConfigFactory.load()));
+		try {
+			BlockingQueue<JsonNode> received = new LinkedBlockingQueue<JsonNode>();
+			ActorRef socket = system.actorOf(Props.create(SessionResumeTest.FakeSocket.class, received));
+			ActorRef game = system.actorOf(Props.create(GameActor.class, socket, true));
+			waitFor(received, "actorReady");
+			long passivated = GameMetrics.getCount("passivation.passivated");
+			long rehydrated = GameMetrics.getCount("passivation.rehydrated");
+			game.tell(Json.newObject().put("messagetype", "initalize"), ActorRef.noSender());
+			waitFor(received, "drawUnit");
+
+			// heartbeats do not count as activity
+			long deadline = System.currentTimeMillis()+10000;
+			while (GameMetrics.getCount("passivation.passivated")==passivated && System.currentTimeMillis() < deadline) {
+				game.tell(Json.newObject().put("messagetype", "heartbeat"), ActorRef.noSender());
+				Thread.sleep(100);
+			}
+			assertEquals(passivated+1, GameMetrics.getCount("passivation.passivated"));
+			assertEquals(rehydrated, GameMetrics.getCount("passivation.rehydrated"));
+
+			// the next turn starts from the game as it was left
+			received.clear();
+			game.tell(Json.newObject().put("messagetype", "endturnclicked"), ActorRef.noSender());
+			JsonNode mana = waitFor(received, "setPlayer1Mana");
+			assertEquals(3, mana.path("player").path("mana").asInt());
+			assertEquals(rehydrated+1, GameMetrics.getCount("passivation.rehydrated"));
+		} finally {
+			system.terminate();
+		}
+	}
+
+	private static JsonNode waitFor(BlockingQueue<JsonNode> received, String messageType) throws InterruptedException {
+		long deadline = System.currentTimeMillis()+10000;
+		while (System.currentTimeMillis() < deadline) {
+			JsonNode command = received.poll(100, TimeUnit.MILLISECONDS);
+			if (command!=null && command.path("messagetype").asText().equals(messageType)) return command;
+		}
+		throw new AssertionError("no "+messageType+" was sent");
+	}
+
+}
@@ -0,0 +1,87 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import actors.GameActorMailbox;
+import controllers.InboundGuard;
+import play.libs.Json;
+
+/**
+ * Checks that batches of events from the front-end are checked event by event, that
+ * neither heartbeats nor large batches get past the rate limits, and that a batch is
+ * given the priority of its most urgent event.
+ */
+public class InboundBatchTest {
+
+	@Test
+	public void eachBatchedEventIsChecked() {
+		ObjectNode click = Json.newObject().put("messagetype", "tileclicked").put("tilex", 2).put("tiley", 2);
+		JsonNode batch = batch(click, click.deepCopy(), Json.newObject().put("messagetype", "unitstopped").put("id", 7));
+
+		List<JsonNode> kept = list(new InboundGuard(20, 40, 250, 200, true).apply(batch));
+		assertEquals(1, kept.size());
+		assertTrue(InboundGuard.isBatch(kept.get(0)));
+		assertEquals("the duplicate click is dropped", 2, kept.get(0).path("events").size());
+		assertEquals("unitstopped", kept.get(0).path("events").get(1).path("messagetype").asText());
+
+		List<JsonNode> unpacked = list(new InboundGuard(20, 40, 250, 200, false).apply(batch));
+		assertEquals(2, unpacked.size());
+		assertEquals("tileclicked", unpacked.get(0).path("messagetype").asText());
+	}
+
+	@Test
+	public void heartbeatFloodIsLimitedAndDisconnected() {
+		InboundGuard guard = new InboundGuard(20, 40, 1, 5, 250, 10, 50, true);
+		ObjectNode heartbeat = Json.newObject().put("messagetype", "heartbeat");
+		int passed = 0;
+		try {
+			for (int i = 0; i < 100; i++) passed += list(guard.apply(heartbeat)).size();
+			fail("the flood was not disconnected");
+		} catch (IllegalStateException e) {
+			assertEquals("only the heartbeat burst gets through", 5, passed);
+		}
+	}
+
+	@Test
+	public void oversizedBatchIsCutAndDisconnected() {
+		ObjectNode[] clicks = new ObjectNode[60];
+		for (int i = 0; i < clicks.length; i++) clicks[i] = Json.newObject().put("messagetype", "tileclicked").put("tilex", i);
+		List<JsonNode> kept = list(new InboundGuard(1000, 1000, 1, 5, 250, 200, 50, false).apply(batch(clicks)));
+		assertEquals(50, kept.size());
+
+		try {
+			new InboundGuard(1000, 1000, 1, 5, 250, 10, 50, false).apply(batch(clicks));
+			fail("the batch was not disconnected");
+		} catch (IllegalStateException e) {
+			// ten events over the limit in a row
+		}
+	}
+
+	@Test
+	public void batchTakesItsMostUrgentPriority() {
+		ObjectNode heartbeat = Json.newObject().put("messagetype", "heartbeat");
+		assertEquals(GameActorMailbox.HOUSEKEEPING, GameActorMailbox.priorityOf(batch(heartbeat, Json.newObject().put("messagetype", "unitMoving"))));
+		assertEquals(GameActorMailbox.PLAYER_ACTION, GameActorMailbox.priorityOf(batch(heartbeat, Json.newObject().put("messagetype", "cardclicked"))));
+	}
+
+	private static JsonNode batch(JsonNode... events) {
+		ObjectNode batch = Json.newObject().put("messagetype", "batch");
+		for (JsonNode event : events) batch.withArray("events").add(event);
+		return batch;
+	}
+
+	private static List<JsonNode> list(Iterable<JsonNode> events) {
+		List<JsonNode> list = new ArrayList<JsonNode>();
+		for (JsonNode event : events) list.add(event);
+		return list;
+	}
+
+}
@@ -0,0 +1,216 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import actors.MatchGame;
+import actors.Matchmaker;
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import commands.BasicCommands;
+import play.libs.Json;
+
+/**
+ * Checks that the matchmaker pairs every player exactly once under load, even as players
+ * leave while they are being paired, and that a player-vs-player game shows each player
+ * the right commands.
+ */
+public class MatchmakingTest {
+
+	private static ActorSystem system;
+
+	/**
+	 * Stands in for a websocket and the player's MatchConnection
+	 */
+	public static class FakePlayer extends AbstractActor {
+		private final BlockingQueue<JsonNode> received;
+		private ActorRef game;
+		private int seat;
+
+		public FakePlayer(BlockingQueue<JsonNode> received) {
+			this.received = received;
+		}
+
+		@Override
+		public Receive createReceive() {
+			return receiveBuilder()
+					.match(MatchGame.Matched.class, matched -> {
+						game = getSender();
+						seat = matched.seat;
+					})
+					.match(JsonNode.class, command -> {
+						received.add(command);
+						if (command.path("messagetype").asText().equals("actorReady")) {
+							game.tell(new MatchGame.PlayerEvent(seat, Json.newObject().put("messagetype", "initalize")), self());
+						}
+					})
+					.build();
+		}
+	}
+
+	@BeforeClass
+	public static void startSystem() {
+		BasicCommands.altTell = null; // other tests leave this set, which would swallow the commands
+		system = ActorSystem.create();
+	}
+
+	@AfterClass
+	public static void stopSystem() {
+		system.terminate();
+	}
+
+	@Test
+	public void everyPlayerIsPairedOnceUnderLoad() throws Exception {
+		Set<Integer> matched = ConcurrentHashMap.newKeySet();
+		AtomicInteger pairs = new AtomicInteger();
+		Matchmaker<Integer> matchmaker = new Matchmaker<Integer>(200, Long.MAX_VALUE, (a, b) -> {
+			assertTrue(matched.add(a.getPlayer()));
+			assertTrue(matched.add(b.getPlayer()));
+			assertEquals(a.getRating()/200, b.getRating()/200);
+			pairs.incrementAndGet();
+		});
+
+		int threads = 8;
+		int perThread = 5000;
+		CountDownLatch done = new CountDownLatch(threads);
+		for (int t = 0; t < threads; t++) {
+			int first = t*perThread;
+			new Thread(() -> {
+				for (int i = first; i < first+perThread; i++) matchmaker.join(i, (i%4)*200 + 50);
+				done.countDown();
+			}).start();
+		}
+		assertTrue(done.await(30, TimeUnit.SECONDS));
+
+		assertEquals(threads*perThread/2, pairs.get());
+		assertEquals(0, matchmaker.getWaiting());
+	}
+
+	@Test
+	public void playersWhoLeaveDuringAMatchAreNeverLeftQueued() throws Exception {
+		Set<Integer> matched = ConcurrentHashMap.newKeySet();
+		Matchmaker<Integer> matchmaker = new Matchmaker<Integer>(200, Long.MAX_VALUE, (a, b) -> {
+			assertTrue(matched.add(a.getPlayer()));
+			assertTrue(matched.add(b.getPlayer()));
+		});
+
+		// players join and leave at random, often while they are being paired
+		int threads = 8;
+		int perThread = 5000;
+		List<Matchmaker.Ticket<Integer>> tickets = new ArrayList<Matchmaker.Ticket<Integer>>();
+		for (int i = 0; i < threads*perThread; i++) tickets.add(null);
+		Set<Integer> cancelled = ConcurrentHashMap.newKeySet();
+		Set<Integer> refused = ConcurrentHashMap.newKeySet();
+		CountDownLatch done = new CountDownLatch(threads);
+		for (int t = 0; t < threads; t++) {
+			int first = t*perThread;
+			new Thread(() -> {
+				for (int i = first; i < first+perThread; i++) {
+					tickets.set(i, matchmaker.join(i, 50));
+					if (i%3 != 0) continue;
+					int leaving = ThreadLocalRandom.current().nextInt(first, i+1);
+					if (cancelled.contains(leaving) || refused.contains(leaving)) continue; // has already left
+					if (matchmaker.cancel(tickets.get(leaving))) cancelled.add(leaving);
+					else refused.add(leaving);
+				}
+				done.countDown();
+			}).start();
+		}
+		assertTrue(done.await(30, TimeUnit.SECONDS));
+		for (int i = 0; i < tickets.size(); i++) {
+			if (matchmaker.cancel(tickets.get(i))) assertTrue(cancelled.add(i));
+		}
+
+		// a player told they had been matched was, and nobody is both matched and gone
+		assertTrue(matched.containsAll(refused));
+		for (int player : cancelled) assertFalse(matched.contains(player));
+		assertEquals(tickets.size(), matched.size()+cancelled.size());
+		assertEquals(0, matchmaker.getWaiting());
+	}
+
+	@Test
+	public void distantRatingsWaitUntilWidened() throws Exception {
+		List<Integer> matched = new ArrayList<Integer>();
+		Matchmaker<Integer> matchmaker = new Matchmaker<Integer>(200, TimeUnit.MILLISECONDS.toNanos(50), (a, b) -> {
+			matched.add(a.getPlayer());
+			matched.add(b.getPlayer());
+		});
+
+		Matchmaker.Ticket<Integer> waiting = matchmaker.join(1, 1000);
+		matchmaker.join(2, 1250);
+		assertTrue(matched.isEmpty());
+
+		Thread.sleep(100);
+		matchmaker.join(3, 1250);
+		assertEquals(2, matched.size()); // 2 and 3 are in the same band
+		assertTrue(waiting.isWaiting());
+		matchmaker.join(4, 1250);
+		assertEquals(1, (int) matched.get(2)); // 1 has waited long enough for the next band
+		assertFalse(matchmaker.cancel(waiting));
+	}
+
+	@Test
+	public void neighbouringBandsArePairedOnceWidened() throws Exception {
+		List<Integer> matched = new ArrayList<Integer>();
+		Matchmaker<Integer> matchmaker = new Matchmaker<Integer>(200, TimeUnit.MILLISECONDS.toNanos(50), (a, b) -> {
+			matched.add(a.getPlayer());
+			matched.add(b.getPlayer());
+		});
+
+		Matchmaker.Ticket<Integer> first = matchmaker.join(1, 1000);
+		matchmaker.join(2, 1250);
+		matchmaker.widen(first);
+		assertTrue("neither has waited long enough", matched.isEmpty());
+
+		Thread.sleep(100);
+		matchmaker.widen(first); // nobody else joins
+		assertEquals(2, matched.size());
+		assertEquals(1, (int) matched.get(0));
+		assertEquals(0, matchmaker.getWaiting());
+	}
+
+	@Test
+	public void playersSeeSharedBoardAndOwnHand() throws Exception {
+		BlockingQueue<JsonNode> player1 = new LinkedBlockingQueue<JsonNode>();
+		BlockingQueue<JsonNode> player2 = new LinkedBlockingQueue<JsonNode>();
+		ActorRef socket1 = system.actorOf(Props.create(FakePlayer.class, player1));
+		ActorRef socket2 = system.actorOf(Props.create(FakePlayer.class, player2));
+		system.actorOf(MatchGame.props(new MatchGame.PlayerConnection(socket1, socket1, true), new MatchGame.PlayerConnection(socket2, socket2, true)));
+
+		List<String> seen1 = commandTypes(player1);
+		List<String> seen2 = commandTypes(player2);
+		assertTrue(seen1.contains("drawUnit") && seen2.contains("drawUnit"));
+		assertTrue(seen1.contains("setPlayer2Health") && seen2.contains("setPlayer2Health"));
+		assertTrue(seen1.contains("drawCard"));
+		assertFalse("player 1's hand is private", seen2.contains("drawCard"));
+	}
+
+	private static List<String> commandTypes(BlockingQueue<JsonNode> received) throws InterruptedException {
+		List<String> types = new ArrayList<String>();
+		JsonNode command = received.poll(10, TimeUnit.SECONDS);
+		while (command!=null) {
+			types.add(command.path("messagetype").asText());
+			command = received.poll(500, TimeUnit.MILLISECONDS);
+		}
+		return types;
+	}
+
+}
@@ -0,0 +1,60 @@
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import actors.OutboundQueue;
+import play.libs.Json;
+import utils.BoardMask;
+
+/**
+ * Checks that pending commands are replaced by later commands for the same target,
+ * and that everything else is kept in order.
+ */
+public class OutboundQueueTest {
+
+	@Test
+	public void laterCommandForSameTargetReplacesEarlierOne() {
+		OutboundQueue queue = new OutboundQueue();
+		queue.add(command("drawCard").put("position", 2));
+		queue.add(command("playUnitAnimation"));
+		queue.add(command("setPlayer1Mana"));
+		queue.add(command("deleteCard").put("position", 2));
+		queue.add(command("setPlayer1Mana"));
+
+		List<ObjectNode> sent = queue.drain();
+		assertEquals(3, sent.size());
+		assertEquals("playUnitAnimation", sent.get(0).get("messagetype").asText());
+		assertEquals("deleteCard", sent.get(1).get("messagetype").asText());
+		assertEquals("setPlayer1Mana", sent.get(2).get("messagetype").asText());
+		assertEquals(2, queue.getSuperseded());
+	}
+
+	@Test
+	public void redrawnTilesAreRemovedFromEarlierMasks() {
+		OutboundQueue queue = new OutboundQueue();
+		long mask = BoardMask.bit(1, 1) | BoardMask.bit(2, 1);
+		queue.add(command("drawTiles").put("mask", mask).put("mode", 1));
+
+		ObjectNode drawTile = command("drawTile").put("mode", 0);
+		drawTile.putObject("tile").put("tilex", 2).put("tiley", 1);
+		queue.add(drawTile);
+
+		List<ObjectNode> sent = queue.drain();
+		assertEquals(2, sent.size());
+		assertEquals(BoardMask.bit(1, 1), sent.get(0).get("mask").asLong());
+
+		// clearing everything replaces both of them
+		queue.add(command("drawTiles").put("mask", mask).put("mode", 1));
+		queue.add(drawTile);
+		queue.add(command("drawTiles").put("mask", BoardMask.ALL).put("mode", 0));
+		assertEquals(1, queue.drain().size());
+	}
+
+	private static ObjectNode command(String messageType) {
+		return Json.newObject().put("messagetype", messageType);
+	}
+}
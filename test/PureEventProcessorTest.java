@@ -0,0 +1,74 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import actors.GameSession;
+import akka.actor.ActorRef;
+import commands.BasicCommands;
+import commands.DummyTell;
+import events.EndTurnClicked;
+import events.EventProcessor;
+import events.EventResult;
+import events.LegacyEventProcessor;
+import play.libs.Json;
+import structures.GameState;
+import structures.basic.Player;
+
+/**
+ * Checks that pure event processors return their commands rather than sending them, and
+ * that events can be simulated without changing the game.
+ */
+public class PureEventProcessorTest {
+
+	@Test
+	public void commandsAreReturnedNotSent() {
+		DummyTell previous = BasicCommands.altTell;
+		BasicCommands.altTell = command -> fail("sent "+command);
+		try {
+			GameState gameState = new GameState();
+			gameState.player1 = new Player(20, 2);
+			EventResult result = new EndTurnClicked().process(gameState, Json.newObject().put("messagetype", "endturnclicked"));
+
+			assertEquals(2, result.getState().turnNumber);
+			assertEquals(1, result.getCommands().size());
+			assertEquals("setPlayer1Mana", result.getCommands().get(0).path("messagetype").asText());
+			assertEquals(3, result.getCommands().get(0).path("player").path("mana").asInt());
+		} finally {
+			BasicCommands.altTell = previous;
+		}
+	}
+
+	@Test
+	public void legacyProcessorKeepsOuterCapture() {
+		EventProcessor legacy = (out, gameState, message) -> BasicCommands.addPlayer1Notification(out, "inner", 1);
+		EventResult[] result = new EventResult[1];
+		List<ObjectNode> outer = BasicCommands.capture(() -> {
+			BasicCommands.addPlayer1Notification(ActorRef.noSender(), "before", 1);
+			result[0] = new LegacyEventProcessor(legacy).process(new GameState(), Json.newObject());
+			BasicCommands.addPlayer1Notification(ActorRef.noSender(), "after", 1);
+		});
+
+		assertEquals(2, outer.size());
+		assertEquals("after", outer.get(1).path("text").asText());
+		assertEquals("inner", result[0].getCommands().get(0).path("text").asText());
+	}
+
+	@Test
+	public void simulateLeavesGameUnchanged() {
+		GameSession session = new GameSession();
+		BasicCommands.capture(() -> session.processEvent(ActorRef.noSender(), "initalize", Json.newObject()));
+		int mana = session.getGameState().player1.getMana();
+
+		EventResult result = session.simulate("endturnclicked", Json.newObject().put("messagetype", "endturnclicked"));
+		assertEquals(2, result.getState().turnNumber);
+		assertEquals(mana+1, result.getState().player1.getMana());
+		assertEquals(1, session.getGameState().turnNumber);
+		assertEquals(mana, session.getGameState().player1.getMana());
+	}
+
+}
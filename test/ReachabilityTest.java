@@ -0,0 +1,75 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import akka.actor.ActorRef;
+import commands.BasicCommands;
+import events.Initalize;
+import events.TileClicked;
+import play.libs.Json;
+import structures.GameState;
+import utils.BoardMask;
+import utils.ReachabilityEngine;
+
+/**
+ * Checks the move and attack ranges worked out by the ReachabilityEngine.
+ */
+public class ReachabilityTest {
+
+	private static final int CENTRE = BoardMask.index(5, 3);
+
+	@Test
+	public void openBoardAllowsTwoSteps() {
+		long moves = ReachabilityEngine.moves(CENTRE, 1L << CENTRE, 0);
+		assertEquals(12, Long.bitCount(moves));
+		assertTrue(BoardMask.contains(moves, 5, 1));
+		assertTrue(BoardMask.contains(moves, 6, 4));
+		assertFalse(BoardMask.contains(moves, 7, 4));
+
+		assertEquals(5, Long.bitCount(ReachabilityEngine.moves(BoardMask.index(1, 1), BoardMask.bit(1, 1), 0)));
+	}
+
+	@Test
+	public void unitsBlockAndEnemiesHoldMovesBack() {
+		long friendly = BoardMask.bit(5, 3) | BoardMask.bit(4, 3);
+		long enemy = BoardMask.bit(6, 3);
+		long moves = ReachabilityEngine.moves(CENTRE, friendly, enemy);
+
+		assertFalse("a friendly unit stands there", BoardMask.contains(moves, 4, 3));
+		assertTrue("friendly units can be passed", BoardMask.contains(moves, 3, 3));
+		assertFalse("enemy units cannot be passed", BoardMask.contains(moves, 7, 3));
+		assertTrue("the move may end next to the enemy", BoardMask.contains(moves, 5, 2));
+		assertFalse("but cannot go on from there", BoardMask.contains(moves, 5, 1));
+		assertFalse(BoardMask.contains(moves, 6, 2));
+		assertTrue(BoardMask.contains(moves, 4, 2));
+
+		assertEquals(enemy, ReachabilityEngine.attacks(CENTRE, enemy));
+		long far = BoardMask.bit(9, 3);
+		assertEquals(0, ReachabilityEngine.attacks(CENTRE, far));
+		assertEquals(0, ReachabilityEngine.attacksAfterMoving(CENTRE, ReachabilityEngine.moves(CENTRE, 1L << CENTRE, far), far));
+		long near = BoardMask.bit(7, 4);
+		assertEquals(near, ReachabilityEngine.attacksAfterMoving(CENTRE, ReachabilityEngine.moves(CENTRE, 1L << CENTRE, near), near));
+	}
+
+	@Test
+	public void clickingTheAvatarHighlightsItsMoves() {
+		GameState gameState = new GameState();
+		List<ObjectNode> commands = BasicCommands.capture(() -> {
+			new Initalize().processEvent(ActorRef.noSender(), gameState, Json.newObject());
+			new TileClicked().processEvent(ActorRef.noSender(), gameState, Json.newObject().put("tilex", 1).put("tiley", 2));
+		});
+
+		ObjectNode highlight = commands.get(commands.size()-1);
+		assertEquals("drawTiles", highlight.path("messagetype").asText());
+		assertEquals(1, highlight.path("mode").asInt());
+		assertEquals(ReachabilityEngine.moves(gameState, gameState.humanAvatar), highlight.path("mask").asLong());
+		assertEquals(7, gameState.highlightedTiles.size());
+	}
+
+}
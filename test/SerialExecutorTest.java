@@ -0,0 +1,44 @@
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import utils.SerialExecutor;
+
+/**
+ * Checks that a SerialExecutor runs its tasks one at a time and in order, even on a pool.
+ */
+public class SerialExecutorTest {
+
+	@Test
+	public void tasksRunInOrderOneAtATime() throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(8);
+		SerialExecutor serial = new SerialExecutor(pool);
+		List<Integer> order = new ArrayList<Integer>();
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger overlaps = new AtomicInteger();
+		CountDownLatch done = new CountDownLatch(200);
+
+		for (int i = 0; i < 200; i++) {
+			int task = i;
+			serial.execute(() -> {
+				if (running.incrementAndGet() > 1) overlaps.incrementAndGet();
+				order.add(task);
+				running.decrementAndGet();
+				done.countDown();
+			});
+		}
+
+		done.await(5, TimeUnit.SECONDS);
+		pool.shutdown();
+		assertEquals(0, overlaps.get());
+		for (int i = 0; i < 200; i++) assertEquals(i, (int) order.get(i));
+	}
+}
@@ -0,0 +1,220 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import actors.ClientConnection;
+import actors.GameSessions;
+import actors.GameShards;
+import actors.ReplayBuffer;
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import akka.pattern.Patterns;
+import commands.BasicCommands;
+import play.libs.Json;
+
+/**
+ * Checks that a front-end that reconnects to its game is sent the commands it missed,
+ * or a snapshot of the game if that is smaller, and that only the front-end with the
+ * resume token can reconnect.
+ */
+public class SessionResumeTest {
+
+	private static ActorSystem system;
+
+	/**
+	 * Stands in for a websocket, keeping the commands it is sent
+	 */
+	public static class FakeSocket extends AbstractActor {
+		private final BlockingQueue<JsonNode> received;
+
+		public FakeSocket(BlockingQueue<JsonNode> received) {
+			this.received = received;
+		}
+
+		@Override
+		public Receive createReceive() {
+			return receiveBuilder().match(JsonNode.class, received::add).build();
+		}
+	}
+
+	/**
+	 * Stands in front of GameSessions, counting the events sent through it
+	 */
+	public static class CountingRegion extends AbstractActor {
+		private final ActorRef sessions;
+		private final AtomicInteger events;
+
+		public CountingRegion(ActorRef sessions, AtomicInteger events) {
+			this.sessions = sessions;
+			this.events = events;
+		}
+
+		@Override
+		public Receive createReceive() {
+			return receiveBuilder()
+					.match(GameShards.GameEvent.class, event -> {
+						events.incrementAndGet();
+						sessions.forward(event, getContext());
+					})
+					.matchAny(message -> sessions.forward(message, getContext()))
+					.build();
+		}
+	}
+
+	@BeforeClass
+	public static void startSystem() {
+		BasicCommands.altTell = null; // other tests leave this set, which would swallow the commands
+		system = ActorSystem.create();
+	}
+
+	@AfterClass
+	public static void stopSystem() {
+		system.terminate();
+	}
+
+	@Test
+	public void bufferOnlyReplaysWithoutGaps() {
+		ReplayBuffer buffer = new ReplayBuffer(3);
+		for (int seq = 1; seq <= 5; seq++) buffer.add(Json.newObject().put("seq", seq));
+
+		assertEquals(2, buffer.since(3).size());
+		assertEquals(0, buffer.since(5).size());
+		assertNull("seq 2 has been dropped", buffer.since(1));
+	}
+
+	@Test
+	public void reconnectGetsMissedCommandsOrSnapshot() throws Exception {
+		ActorRef sessions = system.actorOf(GameSessions.props());
+
+		BlockingQueue<JsonNode> first = new LinkedBlockingQueue<JsonNode>();
+		ActorRef socket = system.actorOf(Props.create(FakeSocket.class, first));
+		sessions.tell(new GameShards.AttachClient("game", socket, true, -1), ActorRef.noSender());
+		JsonNode session = first.poll(10, TimeUnit.SECONDS);
+		assertEquals("session", session.path("messagetype").asText());
+		String secret = secretOf(session);
+		assertEquals("actorReady", first.poll(10, TimeUnit.SECONDS).path("messagetype").asText());
+
+		ObjectNode initalize = Json.newObject().put("messagetype", "initalize");
+		sessions.tell(new GameShards.GameEvent("game", initalize), ActorRef.noSender());
+		List<JsonNode> drawn = drain(first);
+		long lastSeq = drawn.get(drawn.size()-1).path("seq").asLong();
+		system.stop(socket);
+
+		// missed only the last two commands, so they are sent again
+		BlockingQueue<JsonNode> second = new LinkedBlockingQueue<JsonNode>();
+		sessions.tell(new GameShards.AttachClient("game", system.actorOf(Props.create(FakeSocket.class, second)), true, lastSeq-2, secret), ActorRef.noSender());
+		List<JsonNode> replayed = drain(second);
+		assertEquals(2, replayed.size());
+		assertEquals(lastSeq, replayed.get(1).path("seq").asLong());
+
+		// missed everything, including the large actorReady, so the game is redrawn instead
+		BlockingQueue<JsonNode> third = new LinkedBlockingQueue<JsonNode>();
+		sessions.tell(new GameShards.AttachClient("game", system.actorOf(Props.create(FakeSocket.class, third)), true, 0, secret), ActorRef.noSender());
+		List<JsonNode> snapshot = drain(third);
+		assertEquals("resync", snapshot.get(0).path("messagetype").asText());
+		assertEquals(lastSeq+1, snapshot.get(0).path("seq").asLong());
+	}
+
+	@Test
+	public void gameCannotBeTakenOverWithoutTheSecret() throws Exception {
+		ActorRef sessions = system.actorOf(GameSessions.props());
+		BlockingQueue<JsonNode> player = new LinkedBlockingQueue<JsonNode>();
+		sessions.tell(new GameShards.AttachClient("taken", system.actorOf(Props.create(FakeSocket.class, player)), true, -1), ActorRef.noSender());
+		String secret = secretOf(player.poll(10, TimeUnit.SECONDS));
+		drain(player);
+
+		// the game id alone, or with the wrong secret, only gets a new game started
+		for (String guess : new String[] {null, "guess"}) {
+			BlockingQueue<JsonNode> intruder = new LinkedBlockingQueue<JsonNode>();
+			sessions.tell(new GameShards.AttachClient("taken", system.actorOf(Props.create(FakeSocket.class, intruder)), true, 0, guess), ActorRef.noSender());
+			List<JsonNode> refused = drain(intruder);
+			assertEquals(1, refused.size());
+			assertTrue(refused.get(0).path("restart").asBoolean());
+		}
+
+		// and the player still has the game
+		sessions.tell(new GameShards.GameEvent("taken", Json.newObject().put("messagetype", "initalize")), ActorRef.noSender());
+		assertTrue(drain(player).size() > 1);
+		assertTrue(secret.length() > 0);
+	}
+
+	@Test
+	public void connectionSendsEventsStraightToTheGame() throws Exception {
+		AtomicInteger throughRegion = new AtomicInteger();
+		ActorRef region = system.actorOf(Props.create(CountingRegion.class, system.actorOf(GameSessions.props()), throughRegion));
+		BlockingQueue<JsonNode> player = new LinkedBlockingQueue<JsonNode>();
+		ActorRef connection = system.actorOf(ClientConnection.props(system.actorOf(Props.create(FakeSocket.class, player)),
+				region, "direct", true, false, -1, null));
+		drain(player);
+
+		connection.tell(Json.newObject().put("messagetype", "initalize"), ActorRef.noSender());
+		assertTrue(drain(player).size() > 1);
+		assertEquals(0, throughRegion.get());
+	}
+
+	@Test
+	public void onlyRunningGamesWithTheSecretAreResumable() throws Exception {
+		ActorRef sessions = system.actorOf(GameSessions.props());
+		BlockingQueue<JsonNode> player = new LinkedBlockingQueue<JsonNode>();
+		sessions.tell(new GameShards.AttachClient("running", system.actorOf(Props.create(FakeSocket.class, player)), true, -1), ActorRef.noSender());
+		String secret = secretOf(player.poll(10, TimeUnit.SECONDS));
+
+		assertTrue(resumable(sessions, "running", secret));
+		assertFalse(resumable(sessions, "running", "guess"));
+		assertFalse(resumable(sessions, "running", null));
+
+		// a made-up game id is not started by asking
+		assertFalse(resumable(sessions, "made-up", "guess"));
+		BlockingQueue<JsonNode> other = new LinkedBlockingQueue<JsonNode>();
+		sessions.tell(new GameShards.AttachClient("made-up", system.actorOf(Props.create(FakeSocket.class, other)), true, -1), ActorRef.noSender());
+		assertEquals("session", other.poll(10, TimeUnit.SECONDS).path("messagetype").asText());
+	}
+
+	private static boolean resumable(ActorRef sessions, String gameId, String secret) throws Exception {
+		Object reply = Patterns.ask(sessions, new GameShards.Resumable(gameId, secret), Duration.ofSeconds(5))
+				.toCompletableFuture().get(10, TimeUnit.SECONDS);
+		return (Boolean) reply;
+	}
+
+	/**
+	 * Takes the secret from the resume token in a session message, the token being gameId.secret
+	 */
+	static String secretOf(JsonNode session) {
+		String token = session.path("resumeToken").asText();
+		return token.substring(token.lastIndexOf('.')+1);
+	}
+
+	/**
+	 * Waits for commands to arrive, returning them once none have arrived for a while
+	 */
+	private static List<JsonNode> drain(BlockingQueue<JsonNode> received) throws InterruptedException {
+		List<JsonNode> commands = new ArrayList<JsonNode>();
+		JsonNode command = received.poll(10, TimeUnit.SECONDS);
+		assertNotNull(command);
+		while (command!=null) {
+			commands.add(command);
+			command = received.poll(500, TimeUnit.MILLISECONDS);
+		}
+		return commands;
+	}
+
+}
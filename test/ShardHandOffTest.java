@@ -0,0 +1,140 @@
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import actors.ClientConnection;
+import actors.GameShards;
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import akka.cluster.sharding.ShardRegion;
+import commands.BasicCommands;
+import play.libs.Json;
+
+/**
+ * Checks that a game carries on when its shard is handed off to another node, here because
+ * the shard region on its node shuts down, with its front-end still attached and the game
+ * as it was.
+ */
+public class ShardHandOffTest {
+
+	private static ActorSystem node1;
+	private static ActorSystem node2;
+
+	/**
+	 * Stands in for a websocket, keeping the commands it is sent and whether the last one
+	 * came from another node
+	 */
+	public static class FakeSocket extends AbstractActor {
+		private final BlockingQueue<JsonNode> received;
+		private final AtomicBoolean remote;
+
+		public FakeSocket(BlockingQueue<JsonNode> received, AtomicBoolean remote) {
+			this.received = received;
+			this.remote = remote;
+		}
+
+		@Override
+		public Receive createReceive() {
+			return receiveBuilder().match(JsonNode.class, command -> {
+				remote.set(getSender().path().address().hasGlobalScope());
+				received.add(command);
+			}).build();
+		}
+	}
+
+	@BeforeClass
+	public static void startCluster() throws Exception {
+		BasicCommands.altTell = null; // other tests leave this set, which would swallow the commands
+		ActorSystem[] nodes = ShardedGameTest.formCluster();
+		node1 = nodes[0];
+		node2 = nodes[1];
+	}
+
+	@AfterClass
+	public static void stopCluster() {
+		node2.terminate();
+		node1.terminate();
+	}
+
+	@Test
+	public void gameCarriesOnAfterItsShardMoves() throws Exception {
+		ActorRef region1 = GameShards.region(node1);
+		ActorRef region2 = GameShards.region(node2);
+
+		// start games through node 1 until one is run on node 2
+		BlockingQueue<JsonNode> received = null;
+		AtomicBoolean remote = new AtomicBoolean();
+		ActorRef connection = null;
+		for (int i = 0; i < 20 && !remote.get(); i++) {
+			received = new LinkedBlockingQueue<JsonNode>();
+			ActorRef socket = node1.actorOf(Props.create(FakeSocket.class, received, remote));
+			connection = node1.actorOf(ClientConnection.props(socket, region1, "moving-"+i, true));
+			await(received, "actorReady");
+		}
+		assertTrue("no game was run on node 2", remote.get());
+
+		connection.tell(Json.newObject().put("messagetype", "initalize"), ActorRef.noSender());
+		assertTrue(types(drain(received)).contains("drawUnit"));
+
+		// the game's shard moves to node 1, and the front-end is told to redraw the game there
+		region2.tell(ShardRegion.gracefulShutdownInstance(), ActorRef.noSender());
+		JsonNode resync = await(received, "resync");
+		assertFalse("the game was not started again", resync.path("restart").asBoolean());
+		List<String> redrawn = types(drain(received));
+		assertTrue(redrawn.contains("drawUnit"));
+		assertTrue(redrawn.contains("drawCard"));
+		assertFalse(remote.get());
+
+		// and carries on from there
+		connection.tell(Json.newObject().put("messagetype", "endturnclicked"), ActorRef.noSender());
+		assertFalse(drain(received).isEmpty());
+	}
+
+	/**
+	 * Waits for a command of the given type, skipping any others
+	 */
+	private static JsonNode await(BlockingQueue<JsonNode> received, String messageType) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 20000;
+		while (System.currentTimeMillis() < deadline) {
+			JsonNode command = received.poll(100, TimeUnit.MILLISECONDS);
+			if (command!=null && command.path("messagetype").asText().equals(messageType)) return command;
+		}
+		throw new AssertionError("no "+messageType+" command arrived");
+	}
+
+	/**
+	 * Waits for commands to arrive, returning them once none have arrived for a while
+	 */
+	private static List<JsonNode> drain(BlockingQueue<JsonNode> received) throws InterruptedException {
+		List<JsonNode> commands = new ArrayList<JsonNode>();
+		JsonNode command = received.poll(10, TimeUnit.SECONDS);
+		assertNotNull(command);
+		while (command!=null) {
+			commands.add(command);
+			command = received.poll(500, TimeUnit.MILLISECONDS);
+		}
+		return commands;
+	}
+
+	private static List<String> types(List<JsonNode> commands) {
+		List<String> types = new ArrayList<String>();
+		for (JsonNode command : commands) types.add(command.path("messagetype").asText());
+		return types;
+	}
+
+}
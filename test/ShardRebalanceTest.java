@@ -0,0 +1,126 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+
+import actors.ClientConnection;
+import actors.GameShards;
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import akka.cluster.Cluster;
+import akka.cluster.MemberStatus;
+import akka.cluster.sharding.ShardRegion;
+import akka.pattern.Patterns;
+import commands.BasicCommands;
+
+/**
+ * Checks that a node joining a cluster whose shards have all been given out is given some
+ * of them, along with their games, and that the games carry on there.
+ */
+public class ShardRebalanceTest {
+
+	private final Set<ActorSystem> nodes = new HashSet<ActorSystem>();
+
+	/**
+	 * Stands in for a websocket, counting the games that are ready and those told to start over
+	 */
+	public static class FakeSocket extends AbstractActor {
+		static CountDownLatch ready;
+		static final AtomicInteger restarted = new AtomicInteger();
+		private boolean counted = false;
+
+		@Override
+		public Receive createReceive() {
+			return receiveBuilder().match(JsonNode.class, command -> {
+				if (command.path("restart").asBoolean()) restarted.incrementAndGet();
+				if (command.path("messagetype").asText().equals("actorReady") && !counted) {
+					counted = true;
+					ready.countDown();
+				}
+			}).build();
+		}
+	}
+
+	@After
+	public void stopNodes() {
+		for (ActorSystem node : nodes) node.terminate();
+	}
+
+	@Test
+	public void joiningNodeIsGivenGames() throws Exception {
+		BasicCommands.altTell = null; // other tests leave this set, which would swallow the commands
+		Config conf = ConfigFactory.parseString("akka.cluster.sharding.rebalance-interval = 1s")
+				.withFallback(ShardedGameTest.nodeConfig());
+		ActorSystem node1 = join(conf, null, 1);
+		ActorSystem node2 = join(conf, node1, 2);
+		ActorRef region1 = GameShards.region(node1);
+		GameShards.region(node2);
+
+		// start a game in every shard, so that all of them are given to the first two nodes
+		Set<String> shards = new HashSet<String>();
+		FakeSocket.ready = new CountDownLatch(GameShards.NUMBER_OF_SHARDS);
+		for (int i = 0; shards.size() < GameShards.NUMBER_OF_SHARDS; i++) {
+			String gameId = "rebalance-"+i;
+			if (!shards.add(String.valueOf(Math.abs(gameId.hashCode() % GameShards.NUMBER_OF_SHARDS)))) continue;
+			ActorRef socket = node1.actorOf(Props.create(FakeSocket.class));
+			node1.actorOf(ClientConnection.props(socket, region1, gameId, true));
+		}
+		assertTrue(FakeSocket.ready.await(60, TimeUnit.SECONDS));
+
+		// a third node joins, and shards move onto it with their games
+		ActorSystem node3 = join(conf, node1, 3);
+		ActorRef region3 = GameShards.region(node3);
+		long deadline = System.currentTimeMillis() + 30000;
+		int games = 0;
+		while (games == 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(500);
+			games = gamesIn(region3);
+		}
+		assertTrue("no games were moved to the new node", games > 0);
+		assertEquals(0, FakeSocket.restarted.get());
+	}
+
+	/**
+	 * Starts a node and waits for it to join the cluster
+	 * @param conf
+	 * @param seed the node to join through, null to start the cluster
+	 * @param size the number of nodes once it has joined
+	 * @return
+	 */
+	private ActorSystem join(Config conf, ActorSystem seed, int size) throws InterruptedException {
+		ActorSystem node = ActorSystem.create("application", conf);
+		nodes.add(node);
+		Cluster.get(node).join(Cluster.get(seed==null ? node : seed).selfAddress());
+		long deadline = System.currentTimeMillis() + 20000;
+		while (!(Cluster.get(node).readView().members().size() == size
+				&& Cluster.get(node).readView().self().status() == MemberStatus.up())
+				&& System.currentTimeMillis() < deadline) Thread.sleep(100);
+		return node;
+	}
+
+	/**
+	 * The number of games running in a shard region's node
+	 */
+	private static int gamesIn(ActorRef region) throws Exception {
+		ShardRegion.CurrentShardRegionState state = (ShardRegion.CurrentShardRegionState) Patterns
+				.ask(region, ShardRegion.getShardRegionStateInstance(), Duration.ofSeconds(5)).toCompletableFuture().get();
+		int games = 0;
+		for (ShardRegion.ShardState shard : state.getShards()) games += shard.getEntityIds().size();
+		return games;
+	}
+
+}
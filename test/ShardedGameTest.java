@@ -0,0 +1,148 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+
+import actors.ClientConnection;
+import actors.GameShards;
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import akka.cluster.Cluster;
+import akka.cluster.MemberStatus;
+import play.libs.Json;
+
+/**
+ * Forms a two node cluster (in one JVM, on localhost) using conf/cluster.conf and
+ * checks that games started through one node work wherever their shard ends up.
+ */
+public class ShardedGameTest {
+
+	private static ActorSystem node1;
+	private static ActorSystem node2;
+
+	/**
+	 * Stands in for a websocket, counting the actorReady commands it is sent and keeping
+	 * the resume tokens
+	 */
+	public static class FakeSocket extends AbstractActor {
+		static final Set<String> ready = ConcurrentHashMap.newKeySet();
+		static final Map<String,String> secrets = new ConcurrentHashMap<String,String>();
+		static CountDownLatch allReady;
+		private final String gameId;
+
+		public FakeSocket(String gameId) {
+			this.gameId = gameId;
+		}
+
+		@Override
+		public Receive createReceive() {
+			return receiveBuilder().match(JsonNode.class, command -> {
+				if (command.path("messagetype").asText().equals("session")) secrets.put(gameId, SessionResumeTest.secretOf(command));
+				if (command.path("messagetype").asText().equals("actorReady") && ready.add(gameId) && gameId.startsWith("game-")) allReady.countDown();
+			}).build();
+		}
+	}
+
+	@BeforeClass
+	public static void startCluster() throws Exception {
+		ActorSystem[] nodes = formCluster();
+		node1 = nodes[0];
+		node2 = nodes[1];
+	}
+
+	/**
+	 * Starts two nodes and waits for them to form a cluster, the first node is the oldest
+	 * @return
+	 */
+	static ActorSystem[] formCluster() throws Exception {
+		Config conf = nodeConfig();
+		ActorSystem node1 = ActorSystem.create("application", conf);
+		ActorSystem node2 = ActorSystem.create("application", conf);
+		Cluster.get(node1).join(Cluster.get(node1).selfAddress());
+		Cluster.get(node2).join(Cluster.get(node1).selfAddress());
+
+		long deadline = System.currentTimeMillis() + 20000;
+		while (!(up(node1) && up(node2)) && System.currentTimeMillis() < deadline) Thread.sleep(100);
+		return new ActorSystem[] {node1, node2};
+	}
+
+	/**
+	 * The configuration of a node, from conf/cluster.conf, on a free port and without seed nodes
+	 * @return
+	 */
+	static Config nodeConfig() {
+		return ConfigFactory.parseString("akka.remote.artery.canonical.port = 0\nakka.cluster.seed-nodes = []\n"
+				+ "akka.loglevel = WARNING\nakka.loggers = [\"akka.event.Logging$DefaultLogger\"]")
+				.withFallback(ConfigFactory.parseFile(new File("conf/cluster.conf")))
+				.withFallback(ConfigFactory.load()).resolve();
+	}
+
+	private static boolean up(ActorSystem node) {
+		return Cluster.get(node).readView().members().size() == 2
+				&& Cluster.get(node).readView().self().status() == MemberStatus.up();
+	}
+
+	@AfterClass
+	public static void stopCluster() {
+		node2.terminate();
+		node1.terminate();
+	}
+
+	@Test
+	public void gamesAnswerFromWhicheverNodeOwnsThem() throws Exception {
+		ActorRef region1 = GameShards.region(node1);
+		ActorRef region2 = GameShards.region(node2);
+
+		int games = 8;
+		FakeSocket.allReady = new CountDownLatch(games);
+		for (int i = 0; i < games; i++) {
+			String gameId = "game-"+i;
+			ActorSystem front = i%2==0 ? node1 : node2;
+			ActorRef socket = front.actorOf(Props.create(FakeSocket.class, gameId));
+			ActorRef connection = front.actorOf(ClientConnection.props(socket, i%2==0 ? region1 : region2, gameId, true));
+			connection.tell(Json.newObject().put("messagetype", "heartbeat"), ActorRef.noSender());
+		}
+
+		FakeSocket.allReady.await(30, TimeUnit.SECONDS);
+		assertEquals(0, FakeSocket.allReady.getCount());
+	}
+
+	@Test
+	public void onlyTheNodeRunningAGameFindsItResumable() throws Exception {
+		ActorRef region1 = GameShards.region(node1);
+		ActorRef region2 = GameShards.region(node2);
+		node1.actorOf(ClientConnection.props(node1.actorOf(Props.create(FakeSocket.class, "resumable")), region1, "resumable", true));
+		long deadline = System.currentTimeMillis() + 20000;
+		while (!FakeSocket.secrets.containsKey("resumable") && System.currentTimeMillis() < deadline) Thread.sleep(100);
+		String secret = FakeSocket.secrets.get("resumable");
+
+		int found = 0;
+		for (ActorRef region : new ActorRef[] {region1, region2}) {
+			if (resumable(region, "resumable", secret)) found++;
+			assertFalse(resumable(region, "resumable", "guess"));
+			assertFalse(resumable(region, "made-up", "guess"));
+		}
+		assertEquals(1, found);
+	}
+
+	private static boolean resumable(ActorRef region, String gameId, String secret) throws Exception {
+		return GameShards.isResumableHere(region, new GameShards.Resumable(gameId, secret), Duration.ofSeconds(5))
+				.toCompletableFuture().get(10, TimeUnit.SECONDS);
+	}
+}
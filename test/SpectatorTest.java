@@ -0,0 +1,162 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import actors.GameSessions;
+import actors.GameShards;
+import actors.SpectatorHub;
+import akka.Done;
+import akka.NotUsed;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import akka.japi.Pair;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import commands.BasicCommands;
+import controllers.WebSocketCodecs;
+import play.http.websocket.Message;
+import play.libs.Json;
+import utils.GameMetrics;
+
+/**
+ * Checks that spectators share the frames encoded for a game, and that a spectator that
+ * stops reading is resynced rather than holding anything up.
+ */
+public class SpectatorTest {
+
+	private static ActorSystem system;
+	private static Materializer materializer;
+	private static ActorRef sessions;
+
+	@BeforeClass
+	public static void startSystem() {
+		BasicCommands.altTell = null; // other tests leave this set, which would swallow the commands
+		system = ActorSystem.create();
+		materializer = Materializer.matFromSystem(system);
+		sessions = system.actorOf(GameSessions.props());
+	}
+
+	@AfterClass
+	public static void stopSystem() {
+		system.terminate();
+	}
+
+	@Test
+	public void spectatorsShareEncodedFrames() throws Exception {
+		String spectateToken = startGame("shared");
+		AtomicInteger encodes = new AtomicInteger();
+		Function<JsonNode, Message> json = WebSocketCodecs.encoder("json", null);
+		Function<JsonNode, Message> encoder = command -> {
+			encodes.incrementAndGet();
+			return json.apply(command);
+		};
+		BlockingQueue<Message> first = watch(spectateToken, 256, encoder);
+		BlockingQueue<Message> second = watch(spectateToken, 256, encoder);
+		assertEquals("actorReady", Json.parse(((Message.Text) first.poll(10, TimeUnit.SECONDS)).data()).path("messagetype").asText());
+		drain(first);
+		drain(second);
+
+		int before = encodes.get();
+		sessions.tell(new GameShards.GameEvent("shared", Json.newObject().put("messagetype", "endturnclicked")), ActorRef.noSender());
+		List<Message> firstFrames = drain(first);
+		List<Message> secondFrames = drain(second);
+		assertEquals(firstFrames.size(), secondFrames.size());
+		for (int i = 0; i < firstFrames.size(); i++) assertSame(firstFrames.get(i), secondFrames.get(i));
+		assertEquals("each command is encoded once", firstFrames.size(), encodes.get()-before);
+	}
+
+	@Test
+	public void slowSpectatorIsResynced() throws Exception {
+		String spectateToken = startGame("slow");
+		long resyncs = GameMetrics.getCount("spectators.resyncs");
+
+		// nothing reads this spectator's frames until it has fallen behind
+		Pair<SpectatorHub.Spectator, Source<Message, NotUsed>> spectator = SpectatorHub.Spectator.create(4, "json",
+				WebSocketCodecs.encoder("json", null), materializer);
+		sessions.tell(new SpectatorHub.Watch(spectateToken, spectator.first()), ActorRef.noSender());
+		for (int turn = 0; turn < 50 && GameMetrics.getCount("spectators.resyncs")==resyncs; turn++) {
+			sessions.tell(new GameShards.GameEvent("slow", Json.newObject().put("messagetype", "endturnclicked")), ActorRef.noSender());
+			Thread.sleep(100);
+		}
+		assertTrue(GameMetrics.getCount("spectators.resyncs")>resyncs);
+
+		// once it reads again, it is told to redraw and sent the game as it is now
+		BlockingQueue<Message> frames = new LinkedBlockingQueue<Message>();
+		spectator.second().runWith(Sink.foreach(frames::add), materializer);
+		boolean resynced = false;
+		for (Message frame : drain(frames)) {
+			if (Json.parse(((Message.Text) frame).data()).path("messagetype").asText().equals("resync")) resynced = true;
+		}
+		assertTrue(resynced);
+	}
+
+	@Test
+	public void gameIdCannotBeWatched() throws Exception {
+		String spectateToken = startGame("private");
+		assertNotEquals("private", spectateToken);
+		BlockingQueue<Message> frames = new LinkedBlockingQueue<Message>();
+		Pair<SpectatorHub.Spectator, Source<Message, NotUsed>> spectator = SpectatorHub.Spectator.create(256, "json",
+				WebSocketCodecs.encoder("json", null), materializer);
+		CompletionStage<Done> closed = spectator.second().runWith(Sink.foreach(frames::add), materializer);
+		sessions.tell(new SpectatorHub.Watch("private", spectator.first()), ActorRef.noSender());
+		closed.toCompletableFuture().get(10, TimeUnit.SECONDS);
+		assertTrue("closed without being sent the game", frames.isEmpty());
+	}
+
+	/**
+	 * Starts a game with a player attached, and waits for it to be set up. Returns the
+	 * token spectators watch the game by.
+	 */
+	private static String startGame(String gameId) throws InterruptedException {
+		BlockingQueue<JsonNode> player = new LinkedBlockingQueue<JsonNode>();
+		sessions.tell(new GameShards.AttachClient(gameId, system.actorOf(Props.create(SessionResumeTest.FakeSocket.class, player)), true, -1),
+				ActorRef.noSender());
+		String spectateToken = player.poll(10, TimeUnit.SECONDS).path("spectateToken").asText(); // the session message
+		player.poll(10, TimeUnit.SECONDS); // actorReady
+		sessions.tell(new GameShards.GameEvent(gameId, Json.newObject().put("messagetype", "initalize")), ActorRef.noSender());
+		player.poll(10, TimeUnit.SECONDS);
+		return spectateToken;
+	}
+
+	private static BlockingQueue<Message> watch(String spectateToken, int capacity, Function<JsonNode, Message> encoder) {
+		Pair<SpectatorHub.Spectator, Source<Message, NotUsed>> spectator = SpectatorHub.Spectator.create(capacity, "json", encoder, materializer);
+		BlockingQueue<Message> frames = new LinkedBlockingQueue<Message>();
+		spectator.second().runWith(Sink.foreach(frames::add), materializer);
+		sessions.tell(new SpectatorHub.Watch(spectateToken, spectator.first()), ActorRef.noSender());
+		return frames;
+	}
+
+	/**
+	 * Waits for frames to arrive, returning them once none have arrived for a while
+	 */
+	private static List<Message> drain(BlockingQueue<Message> received) throws InterruptedException {
+		List<Message> frames = new ArrayList<Message>();
+		Message frame = received.poll(10, TimeUnit.SECONDS);
+		assertNotNull(frame);
+		while (frame!=null) {
+			frames.add(frame);
+			frame = received.poll(500, TimeUnit.MILLISECONDS);
+		}
+		return frames;
+	}
+
+}
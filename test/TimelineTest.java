@@ -0,0 +1,44 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import commands.Timeline;
+
+/**
+ * Checks that a Timeline runs its steps in order and stops at each wait, so that the
+ * GameActor can schedule the rest of the sequence with a timer instead of sleeping.
+ */
+public class TimelineTest {
+
+	@Test
+	public void advanceStopsAtEachWait() {
+		List<String> played = new ArrayList<String>();
+		Timeline timeline = new Timeline()
+				.play(out -> { played.add("attack"); return 500; })
+				.run(out -> played.add("hit"))
+				.pause(200)
+				.run(out -> played.add("death"));
+
+		assertEquals(500, timeline.advance(null));
+		assertEquals(1, played.size());
+
+		assertEquals(200, timeline.advance(null));
+		assertEquals(2, played.size());
+		assertFalse(timeline.isFinished());
+
+		assertEquals(-1, timeline.advance(null));
+		assertEquals("attack,hit,death", String.join(",", played));
+		assertTrue(timeline.isFinished());
+	}
+
+	@Test
+	public void waitOnLastStepEndsTimeline() {
+		Timeline timeline = new Timeline().play(out -> 1000);
+		assertEquals("no timer is needed after the final step", -1, timeline.advance(null));
+	}
+}
@@ -0,0 +1,35 @@
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import utils.TokenBucket;
+
+/**
+ * Checks the token bucket used to rate limit events from the front-end.
+ */
+public class TokenBucketTest {
+
+	private static final long SECOND = 1_000_000_000L;
+
+	@Test
+	public void burstIsAllowedThenRateApplies() {
+		TokenBucket bucket = new TokenBucket(2, 3, 0);
+		assertTrue(bucket.tryTake(0));
+		assertTrue(bucket.tryTake(0));
+		assertTrue(bucket.tryTake(0));
+		assertFalse("burst used up", bucket.tryTake(0));
+
+		assertTrue("half a second refills one token", bucket.tryTake(SECOND/2));
+		assertFalse(bucket.tryTake(SECOND/2));
+	}
+
+	@Test
+	public void bucketNeverHoldsMoreThanBurst() {
+		TokenBucket bucket = new TokenBucket(100, 2, 0);
+		bucket.tryTake(0);
+		assertTrue(bucket.tryTake(60*SECOND));
+		assertTrue(bucket.tryTake(60*SECOND));
+		assertFalse(bucket.tryTake(60*SECOND));
+	}
+}
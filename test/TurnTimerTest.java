@@ -0,0 +1,71 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.typesafe.config.ConfigFactory;
+
+import actors.GameSessions;
+import actors.GameShards;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import commands.BasicCommands;
+import play.libs.Json;
+
+/**
+ * Checks that a player who runs out of time has their turn ended for them.
+ */
+public class TurnTimerTest {
+
+	private static ActorSystem system;
+
+	@BeforeClass
+	public static void startSystem() {
+		BasicCommands.altTell = null; // other tests leave this set, which would swallow the commands
+		system = ActorSystem.create("turns", ConfigFactory.parseString("game.turn-timer { turn-length = 2s, warning = 1s }")
+				.withFallback(ConfigFactory.load()));
+	}
+
+	@AfterClass
+	public static void stopSystem() {
+		system.terminate();
+	}
+
+	@Test
+	public void turnEndsWhenTimeRunsOut() throws Exception {
+		ActorRef sessions = system.actorOf(GameSessions.props());
+		BlockingQueue<JsonNode> received = new LinkedBlockingQueue<JsonNode>();
+		sessions.tell(new GameShards.AttachClient("timed", system.actorOf(Props.create(SessionResumeTest.FakeSocket.class, received)), true, -1),
+				ActorRef.noSender());
+		waitFor(received, "actorReady");
+		sessions.tell(new GameShards.GameEvent("timed", Json.newObject().put("messagetype", "initalize")), ActorRef.noSender());
+
+		JsonNode timer = waitFor(received, "setTurnTimer");
+		assertEquals(2, timer.path("seconds").asInt());
+		waitFor(received, "addPlayer1Notification"); // the warning
+
+		// no end turn was sent, but turn 2 starts with its mana and a new timer
+		JsonNode mana = waitFor(received, "setPlayer1Mana");
+		assertEquals(3, mana.path("player").path("mana").asInt());
+		waitFor(received, "setTurnTimer");
+	}
+
+	private static JsonNode waitFor(BlockingQueue<JsonNode> received, String messageType) throws InterruptedException {
+		long deadline = System.currentTimeMillis()+10000;
+		while (System.currentTimeMillis() < deadline) {
+			JsonNode command = received.poll(100, TimeUnit.MILLISECONDS);
+			if (command!=null && command.path("messagetype").asText().equals(messageType)) return command;
+		}
+		fail("no "+messageType+" was sent");
+		return null;
+	}
+
+}